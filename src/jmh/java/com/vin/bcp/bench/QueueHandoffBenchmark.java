@@ -0,0 +1,113 @@
+package com.vin.bcp.bench;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vin.bcp.dao.RowBatch;
+import com.vin.bcp.queue.BatchRingBuffer;
+import com.vin.bcp.queue.WaitStrategy;
+
+/**
+ * Handoff of batches from one reader to one writer thread through the ring
+ * buffer, against a blocking queue
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class QueueHandoffBenchmark {
+    private static final int BATCHES = 10000;
+
+    @Param({ "BLOCK", "PARK", "SPIN" })
+    public String waitStrategy;
+
+    @Param({ "4" })
+    public int capacity;
+
+    private ExecutorService writer;
+    private RowBatch template;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        writer = Executors.newSingleThreadExecutor();
+        template = new RowBatch(new SyntheticTable(10).types(), 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        writer.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCHES)
+    public int ringBuffer() throws Exception {
+        final BatchRingBuffer ring = new BatchRingBuffer(capacity,
+                WaitStrategy.fromString(waitStrategy));
+        Future<Integer> taken = writer.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                int count = 0;
+                RowBatch spare = null;
+                RowBatch batch;
+                while ((batch = ring.take(spare)) != null) {
+                    count++;
+                    spare = batch;
+                }
+                return count;
+            }
+        });
+        RowBatch batch = template.newBatch();
+        for (int i = 0; i < BATCHES; i++) {
+            RowBatch recycled = ring.publish(batch);
+            batch = (recycled != null) ? recycled : template.newBatch();
+        }
+        ring.complete();
+        return taken.get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCHES)
+    public int blockingQueue() throws Exception {
+        final BlockingQueue<RowBatch> queue = new ArrayBlockingQueue<>(
+                capacity);
+        final RowBatch end = template.newBatch();
+        Future<Integer> taken = writer.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                int count = 0;
+                while (queue.take() != end) {
+                    count++;
+                }
+                return count;
+            }
+        });
+        for (int i = 0; i < BATCHES; i++) {
+            queue.put(template.newBatch());
+        }
+        queue.put(end);
+        return taken.get();
+    }
+}
@@ -0,0 +1,95 @@
+package com.vin.bcp.bench;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vin.bcp.dao.RowBatch;
+
+/**
+ * Row materialization of fetchData: reading a result set into a columnar
+ * RowBatch, against one boxed object per cell as rows were read before
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class RowMaterializationBenchmark {
+    @Param({ "10", "50" })
+    public int columns;
+
+    @Param({ "1000" })
+    public int rows;
+
+    private Connection conn;
+    private PreparedStatement ps;
+    private RowBatch batch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        SyntheticTable table = new SyntheticTable(columns);
+        conn = DriverManager.getConnection(
+                SyntheticTable.url("bench_read_" + columns),
+                SyntheticTable.USER, SyntheticTable.PASSWORD);
+        table.create(conn, "BENCH_READ");
+        table.populate(conn, "BENCH_READ", rows);
+        ps = conn.prepareStatement("SELECT * FROM BENCH_READ");
+        batch = new RowBatch(table.types(), rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        ps.close();
+        conn.close();
+    }
+
+    @Benchmark
+    public RowBatch columnar() throws SQLException {
+        batch.clear();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                batch.readRow(rs);
+            }
+        }
+        return batch;
+    }
+
+    @Benchmark
+    public void boxedPerCell(Blackhole bh) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            ResultSetMetaData rsmd = rs.getMetaData();
+            while (rs.next()) {
+                List<Object[]> row = new ArrayList<>(rsmd.getColumnCount());
+                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+                    row.add(new Object[] { i, rs.getObject(i),
+                            rsmd.getColumnType(i) });
+                }
+                bh.consume(row);
+            }
+        }
+    }
+}
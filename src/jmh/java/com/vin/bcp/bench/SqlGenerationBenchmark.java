@@ -0,0 +1,74 @@
+package com.vin.bcp.bench;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vin.bcp.dao.Partition;
+import com.vin.bcp.dao.TargetSql;
+import com.vin.bcp.dao.Watermark;
+import com.vin.bcp.util.DBConfig;
+
+/**
+ * SQL generation of the insert statements and partition where clauses
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class SqlGenerationBenchmark {
+    @Param({ "10", "50" })
+    public int columns;
+
+    @Param({ "DB2", "SYBASE" })
+    public String dbType;
+
+    private DBConfig target;
+    private TargetSql cached;
+    private Partition partition;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        target = new DBConfig("bench", "localhost", "0", dbType, "user",
+                "password", "BENCH_TARGET", null, null);
+        cached = new TargetSql(target);
+        partition = new Partition(1, "ID >= 1000 AND ID < 2000",
+                new Watermark("UPDATED_AT", new Timestamp(0L), new Timestamp(
+                        1500000000000L)));
+    }
+
+    @Benchmark
+    public String singleRowInsert() {
+        return new TargetSql(target).insert(columns);
+    }
+
+    @Benchmark
+    public String multiRowInsert() {
+        return new TargetSql(target).insert(columns, 100);
+    }
+
+    @Benchmark
+    public String cachedMultiRowInsert() {
+        return cached.insert(columns, 100);
+    }
+
+    @Benchmark
+    public String partitionWhere() {
+        return partition.where();
+    }
+}
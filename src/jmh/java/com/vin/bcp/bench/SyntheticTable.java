@@ -0,0 +1,127 @@
+package com.vin.bcp.bench;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * Synthetic table of configurable width in an in process H2 database. The
+ * first column is a BIGINT primary key, the others cycle through the common
+ * column types
+ *
+ */
+public class SyntheticTable {
+    private static final int[] TYPES = { Types.INTEGER, Types.DOUBLE,
+            Types.VARCHAR, Types.DECIMAL, Types.TIMESTAMP, Types.BIGINT };
+    private static final String[] DDL = { "INTEGER", "DOUBLE",
+            "VARCHAR(64)", "DECIMAL(18,4)", "TIMESTAMP", "BIGINT" };
+    // approximate bytes of a value of each type on the wire
+    private static final int[] WIDTH = { 4, 8, 32, 12, 8, 8 };
+
+    public static final String USER = "sa";
+    public static final String PASSWORD = "bcp";
+
+    private final int columns;
+
+    /**
+     * @param columns
+     *            number of columns including the primary key
+     */
+    public SyntheticTable(int columns) {
+        this.columns = Math.max(1, columns);
+    }
+
+    public static String url(String database) {
+        return "jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * @return java.sql.Types of each column
+     */
+    public int[] types() {
+        int[] types = new int[columns];
+        types[0] = Types.BIGINT;
+        for (int i = 1; i < columns; i++) {
+            types[i] = TYPES[(i - 1) % TYPES.length];
+        }
+        return types;
+    }
+
+    /**
+     * @return approximate bytes of a row
+     */
+    public int rowWidth() {
+        int width = 8;
+        for (int i = 1; i < columns; i++) {
+            width += WIDTH[(i - 1) % WIDTH.length];
+        }
+        return width;
+    }
+
+    public void create(Connection conn, String table) throws SQLException {
+        StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(table)
+                .append(" ( ID BIGINT PRIMARY KEY");
+        for (int i = 1; i < columns; i++) {
+            ddl.append(", C").append(i).append(" ")
+                    .append(DDL[(i - 1) % DDL.length]);
+        }
+        ddl.append(" )");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + table);
+            stmt.execute(ddl.toString());
+        }
+    }
+
+    public void populate(Connection conn, String table, long rows)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+                .append(" VALUES ( ?");
+        for (int i = 1; i < columns; i++) {
+            sql.append(", ?");
+        }
+        sql.append(" )");
+        conn.setAutoCommit(false);
+        try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            for (long row = 0; row < rows; row++) {
+                ps.setLong(1, row);
+                for (int i = 1; i < columns; i++) {
+                    ps.setObject(i + 1, value(i, row));
+                }
+                ps.addBatch();
+                if (row % 10000 == 9999) {
+                    ps.executeBatch();
+                    conn.commit();
+                }
+            }
+            ps.executeBatch();
+            conn.commit();
+        }
+    }
+
+    /**
+     * @return value of the column in the given row, about one in ten null
+     */
+    public Object value(int column, long row) {
+        if ((row + column) % 10 == 0) {
+            return null;
+        }
+        switch ((column - 1) % TYPES.length) {
+        case 0:
+            return (int) (row * 31 + column);
+        case 1:
+            return row * 0.5 + column;
+        case 2:
+            return "value " + row + " of column " + column;
+        case 3:
+            return BigDecimal.valueOf(row * 1000 + column, 4);
+        case 4:
+            return new Timestamp(1500000000000L + row * 1000);
+        default:
+            return row * 7 + column;
+        }
+    }
+}
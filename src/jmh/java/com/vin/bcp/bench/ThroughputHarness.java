@@ -0,0 +1,184 @@
+package com.vin.bcp.bench;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vin.bcp.BulkCopyEngine;
+import com.vin.bcp.util.BatchConfig;
+import com.vin.bcp.util.LatencyHistogram;
+
+/**
+ * End to end copy of a synthetic table between two in process H2 databases.
+ *
+ * Arguments are those of BulkCopyMain plus rows=... and columns=... for the
+ * size of the synthetic table. The database, table and user arguments are
+ * filled in by the harness. Reports rows/s, bytes/s, allocation rate and the
+ * p99 latency of a batch commit.
+ *
+ */
+public class ThroughputHarness {
+    private static final String SOURCE_DB = "bcp_src";
+    private static final String TARGET_DB = "bcp_tgt";
+    private static final String SOURCE_TABLE = "BCP_SOURCE";
+    private static final String TARGET_TABLE = "BCP_TARGET";
+    private static final long SAMPLE_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        long rows = 1000000;
+        int columns = 20;
+        List<String> engineArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("rows=")) {
+                rows = Long.parseLong(arg.substring("rows=".length()));
+            } else if (arg.startsWith("columns=")) {
+                columns = Integer.parseInt(arg.substring("columns="
+                        .length()));
+            } else {
+                engineArgs.add(arg);
+            }
+        }
+
+        SyntheticTable table = new SyntheticTable(columns);
+        // keep both in memory databases open until the copy is checked
+        try (Connection source = DriverManager.getConnection(
+                SyntheticTable.url(SOURCE_DB), SyntheticTable.USER,
+                SyntheticTable.PASSWORD);
+                Connection target = DriverManager.getConnection(
+                        SyntheticTable.url(TARGET_DB), SyntheticTable.USER,
+                        SyntheticTable.PASSWORD)) {
+            System.out.println("Generating " + rows + " rows of " + columns
+                    + " columns");
+            table.create(source, SOURCE_TABLE);
+            table.populate(source, SOURCE_TABLE, rows);
+            table.create(target, TARGET_TABLE);
+
+            BulkCopyEngine engine = new BulkCopyEngine(new BatchConfig(
+                    withDefaults(engineArgs)));
+            AllocationSampler sampler = new AllocationSampler();
+            sampler.start();
+            long start = System.nanoTime();
+            engine.run();
+            long elapsed = System.nanoTime() - start;
+            sampler.interrupt();
+            sampler.join();
+
+            double seconds = elapsed / 1e9;
+            long copied = count(target, TARGET_TABLE);
+            System.out.println("Rows read        : " + engine.getRecordsRead());
+            System.out.println("Rows written     : " + copied);
+            System.out.println(String.format("Elapsed          : %.2f s",
+                    seconds));
+            System.out.println(String.format("Throughput       : %.0f rows/s",
+                    copied / seconds));
+            System.out.println(String.format("Throughput       : %.2f MB/s",
+                    copied * (double) table.rowWidth() / seconds / 1e6));
+            System.out.println(String.format("Allocation rate  : %.2f MB/s",
+                    sampler.allocatedBytes() / seconds / 1e6));
+            LatencyHistogram commits = engine.getMetrics()
+                    .getBatchWriteLatency();
+            System.out.println("Commit latency   : p50 "
+                    + commits.percentile(50) + " us, p99 "
+                    + commits.percentile(99) + " us, max " + commits.getMax()
+                    + " us over " + commits.getCount() + " batches");
+            if (copied != rows) {
+                System.out.println("Row count mismatch : expected " + rows);
+                System.exit(1);
+            }
+        }
+    }
+
+    private static String[] withDefaults(List<String> engineArgs) {
+        Map<String, String> defaults = new HashMap<>();
+        defaults.put("source-db", SOURCE_DB);
+        defaults.put("source-db-server", "localhost");
+        defaults.put("source-db-port", "0");
+        defaults.put("source-db-type", "H2");
+        defaults.put("source-table", SOURCE_TABLE);
+        defaults.put("source-user-id", SyntheticTable.USER);
+        defaults.put("source-password", SyntheticTable.PASSWORD);
+        defaults.put("target-db", TARGET_DB);
+        defaults.put("target-db-server", "localhost");
+        defaults.put("target-db-port", "0");
+        defaults.put("target-db-type", "H2");
+        defaults.put("target-table", TARGET_TABLE);
+        defaults.put("target-user-id", SyntheticTable.USER);
+        defaults.put("target-password", SyntheticTable.PASSWORD);
+        for (String arg : engineArgs) {
+            defaults.remove(arg.split("=")[0]);
+        }
+        List<String> all = new ArrayList<>(engineArgs);
+        for (Map.Entry<String, String> entry : defaults.entrySet()) {
+            all.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return all.toArray(new String[all.size()]);
+    }
+
+    private static long count(Connection conn, String table)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt
+                        .executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    /**
+     * Samples the bytes allocated by every live thread. Threads of the engine
+     * end with the copy, so the last sample of each thread is kept
+     */
+    private static class AllocationSampler extends Thread {
+        private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        // allocated by the threads alive before the copy started
+        private final Map<Long, Long> baseline = new HashMap<>();
+        private final Map<Long, Long> latest = new HashMap<>();
+
+        AllocationSampler() {
+            super("ALLOCATION-SAMPLER");
+            setDaemon(true);
+            sample();
+            baseline.putAll(latest);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted()) {
+                sample();
+                try {
+                    Thread.sleep(SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            sample();
+        }
+
+        private synchronized void sample() {
+            long[] ids = threads.getAllThreadIds();
+            long[] bytes = threads.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0) {
+                    latest.put(ids[i], bytes[i]);
+                }
+            }
+        }
+
+        synchronized long allocatedBytes() {
+            long total = 0;
+            for (Map.Entry<Long, Long> entry : latest.entrySet()) {
+                Long before = baseline.get(entry.getKey());
+                total += entry.getValue() - ((before == null) ? 0 : before);
+            }
+            return total;
+        }
+    }
+}
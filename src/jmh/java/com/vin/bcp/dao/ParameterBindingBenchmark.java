@@ -0,0 +1,91 @@
+package com.vin.bcp.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vin.bcp.bench.SyntheticTable;
+import com.vin.bcp.util.DBConfig;
+
+/**
+ * Parameter binding of writeToTarget: binding every row of a batch to the
+ * insert statement with the binding plan of the writers, without executing
+ * it. In the dao package as the plan is not public
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ParameterBindingBenchmark {
+    @Param({ "10", "50" })
+    public int columns;
+
+    @Param({ "1000" })
+    public int rows;
+
+    private Connection conn;
+    private PreparedStatement insert;
+    private RowBatch batch;
+    private BindingPlan plan;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        SyntheticTable table = new SyntheticTable(columns);
+        conn = DriverManager.getConnection(
+                SyntheticTable.url("bench_bind_" + columns),
+                SyntheticTable.USER, SyntheticTable.PASSWORD);
+        table.create(conn, "BENCH_SOURCE");
+        table.populate(conn, "BENCH_SOURCE", rows);
+        table.create(conn, "BENCH_TARGET");
+
+        batch = new RowBatch(table.types(), rows);
+        try (PreparedStatement ps = conn
+                .prepareStatement("SELECT * FROM BENCH_SOURCE");
+                ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                batch.readRow(rs);
+            }
+        }
+
+        DBConfig target = new DBConfig("bench", "localhost", "0", "H2",
+                SyntheticTable.USER, SyntheticTable.PASSWORD, "BENCH_TARGET",
+                null, null);
+        insert = conn.prepareStatement(new TargetSql(target).insert(columns));
+        plan = BindingPlan.compile(insert, batch);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        insert.close();
+        conn.close();
+    }
+
+    @Benchmark
+    public PreparedStatement bindBatch() throws SQLException {
+        for (int row = 0; row < batch.size(); row++) {
+            plan.bindRow(insert, batch, row, 0);
+            insert.clearParameters();
+        }
+        return insert;
+    }
+}
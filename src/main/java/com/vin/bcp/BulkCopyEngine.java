@@ -1,11 +1,17 @@
 package com.vin.bcp;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -13,70 +19,261 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.vin.bcp.dao.Column;
+import com.vin.bcp.chunk.ChunkReader;
+import com.vin.bcp.chunk.ChunkWriter;
+import com.vin.bcp.chunk.ExtractIndex;
 import com.vin.bcp.dao.DAO;
+import com.vin.bcp.dao.LobStager;
+import com.vin.bcp.dao.Partition;
+import com.vin.bcp.dao.RowBatch;
+import com.vin.bcp.dao.TargetObjects;
+import com.vin.bcp.dao.Watermark;
+import com.vin.bcp.metrics.CopyMetrics;
+import com.vin.bcp.metrics.MetricsReporter;
+import com.vin.bcp.queue.BatchPublisher;
+import com.vin.bcp.queue.BatchQueue;
+import com.vin.bcp.queue.BatchRingBuffer;
+import com.vin.bcp.queue.KeyRouter;
+import com.vin.bcp.queue.MemoryBoundedQueue;
+import com.vin.bcp.queue.MemoryBudget;
+import com.vin.bcp.queue.SpillingBatchQueue;
 import com.vin.bcp.util.BatchConfig;
+import com.vin.bcp.util.BatchSizer;
+import com.vin.bcp.util.CheckpointJournal;
+import com.vin.bcp.util.DeadLetterFile;
+import com.vin.bcp.util.WatermarkStore;
 
 public class BulkCopyEngine {
     private Logger logger = LogManager.getLogger(BulkCopyEngine.class);
 
     private BatchConfig config;
     private static final int MAX_ERROR = 10;
+    // null when the job is not checkpointed
+    private CheckpointJournal journal;
+    // null when the job is not an incremental copy
+    private WatermarkStore watermarkStore;
+
+    // null unless the job extracts the source to files
+    private ExtractIndex extractIndex;
+    // null when a batch failing on its rows fails as a whole
+    private DeadLetterFile deadLetters;
+    // LOB values above the threshold are staged in its files
+    private LobStager lobs;
+    // null unless the indexes of the target are dropped while writing
+    private TargetObjects targetObjects;
+    // source column the rows are routed to the writers by
+    private String routeColumn;
+
+    // rows in each batch, set when the job starts
+    private BatchSizer batchSizer;
+
+    // writers wanted and writers running, apart only while elastic writers
+    // are added or removed
+    private final AtomicInteger wantedWriters = new AtomicInteger(0);
+    private final AtomicInteger runningWriters = new AtomicInteger(0);
+
+    // rows read and written, time spent in each stage
+    private final CopyMetrics metrics = new CopyMetrics();
+
+    // threads and queue rows shared with the other tables of a manifest,
+    // null when the engine copies a single table
+    private final ResourceBudget budget;
+    private ResourceBudget.Grant grant;
+    private volatile boolean completed = false;
 
     public BulkCopyEngine(BatchConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * @param budget
+     *            budget shared with the other tables of a manifest, whose
+     *            connection pools are opened and closed by the scheduler
+     */
+    public BulkCopyEngine(BatchConfig config, ResourceBudget budget) {
         this.config = config;
+        this.budget = budget;
     }
 
     public void run() {
-        executeBulkCopy();
+        if (BatchConfig.MODE_LOAD.equals(config.getMode())) {
+            executeLoad();
+        } else {
+            executeBulkCopy();
+        }
+    }
+
+    public long getRecordsRead() {
+        return metrics.getRowsRead();
+    }
+
+    public long getRecordsWritten() {
+        return metrics.getRowsWritten();
+    }
+
+    public CopyMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return true if every row was copied
+     */
+    public boolean isCompleted() {
+        return completed;
     }
 
     private void executeBulkCopy() {
         // to keep track of job abortion
-        // If dbread results in exception, isAborted is set to true
+        // If dbread results in exception, the job is aborted at once
         // If db write encounters exception, then error count is increased
+        // and decreased again once the batch is written
         // IF error count exceeds max error, then job is aborted
-        AtomicBoolean isAborted = new AtomicBoolean(false);
+        JobControl control = new JobControl();
+        AtomicBoolean isAborted = control.getAborted();
         AtomicInteger errorCount = new AtomicInteger(0);
+        BatchPublisher dataQueue = null;
+        boolean extract = BatchConfig.MODE_EXTRACT.equals(config.getMode());
+        boolean sync = BatchConfig.MODE_SYNC.equals(config.getMode());
+        // progress is logged and metrics exported by a thread of its own
+        MetricsReporter reporter = new MetricsReporter(metrics,
+                config.getSourceTable() + "->" + config.getTargetTable(),
+                config.getMetricsFile(), config.getMetricsInterval());
+        reporter.start();
         try {
             DAO dao = DAO.INSTANCE;
-            logger.info("Bulk copy from " + config.getSourceDBName() + "."
-                    + config.getSourceTable() + " to "
-                    + config.getTargetDBName() + "." + config.getTargetTable()
-                    + " started");
-            // the queue to hold the records read from database
-            BlockingQueue<List<Column>> dataQueue = new LinkedBlockingQueue<>(
-                    config.getCacheSize());
+            if (extract) {
+                logger.info("Extract from " + config.getSourceDBName() + "."
+                        + config.getSourceTable() + " to "
+                        + config.getExtractDir() + " started");
+            } else {
+                logger.info("Bulk copy from " + config.getSourceDBName() + "."
+                        + config.getSourceTable() + " to "
+                        + config.getTargetDBName() + "."
+                        + config.getTargetTable() + " started");
+            }
+            if (budget != null) {
+                grant = budget.acquire(config.getReaderPoolSize(),
+                        requestedWriters(), config.getCacheSize());
+                logger.info("Granted " + grant.readers + " readers, "
+                        + grant.writers + " writers and " + grant.cacheRows
+                        + " queue rows");
+            }
+            // open the connections before any thread needs them
+            dao.openPool(config.getSourceDBConfig(), readers(), readers());
+            if (extract) {
+                // writers append to data files instead of the target
+                extractIndex = ExtractIndex.create(config.getExtractDir(),
+                        config.getSourceTable());
+            } else {
+                // elastic writers may grow up to max writers, each on its
+                // own connection
+                dao.openPool(config.getTargetDBConfig(),
+                        config.getMaxWriters(), initialWriters());
+            }
 
-            // to keep track records written to target
-            AtomicInteger recordsWritten = new AtomicInteger(0);
+            if (config.getDeadLetterFile() != null && !extract) {
+                deadLetters = new DeadLetterFile(config.getDeadLetterFile(),
+                        config.getMaxDeadLetters());
+            }
+            // a sync deletes by key and keeps the indexes it needs
+            if (config.isDropIndexes()
+                    && BatchConfig.MODE_COPY.equals(config.getMode())) {
+                targetObjects = TargetObjects.drop(config.getTargetDBConfig(),
+                        config.getIndexDdlFile(), initialWriters());
+            }
 
-            // to keep track if db read is complete
-            AtomicBoolean dbReadCompleted = new AtomicBoolean(false);
+            // large LOB values go through files rather than the heap
+            lobs = new LobStager(config.getLobDir(), config.getLobThreshold(),
+                    config.getLobMemory());
 
-            // to keep track of records read
-            AtomicInteger recordsRead = new AtomicInteger(0);
+            // rows per batch, following the commit latency when adaptive
+            batchSizer = config.newBatchSizer();
+            MemoryBudget memory = memory();
+            // the queue to hold the batches read from database
+            // cache size is given in rows, each batch holds batch size rows
+            int batches = Math.max(1, cacheRows() / config.getBatchSize());
+            KeyRouter router = (config.isRouteWriters() && !extract) ? newRouter(
+                    dao, batches, memory) : null;
+            // writers take from the queue of their route, or all from one
+            BatchQueue[] queues = (router != null) ? router.getRoutes()
+                    : new BatchQueue[] { newQueue(batches, memory) };
+            dataQueue = (router != null) ? router : queues[0];
+            if (memory != null) {
+                // a batch of wide rows is published before it is full
+                batchSizer.setMaxBatchBytes(memory.getLimit()
+                        / (dataQueue.capacity() + config.getMaxWriters()));
+                metrics.watch(memory);
+            }
+            metrics.watch(dataQueue);
+            metrics.watch(batchSizer);
 
             // Kick off writer threads here
-            ExecutorService writerPool = startWriters(dataQueue,
-                    dbReadCompleted, recordsRead, recordsWritten, isAborted,
-                    errorCount);
+            ExecutorService writerPool = control.watch(startWriters(
+                    queues, control, errorCount));
 
             // Read from database
-            dao.fetchData(config.getSourceDBConfig(), dataQueue, recordsRead,
-                    isAborted);
-
-            // data read should now be complete
-            dbReadCompleted.set(true);
-            while (!writerPool.isTerminated()) {
-                Thread.sleep(5000);
-                // IF error count exceeds max error, then job is aborted
-                if (errorCount.get() >= MAX_ERROR) {
-                    isAborted.set(true);
+            WriterScaler scaler = null;
+            try {
+                // a routed writer owns a key range, their number is fixed
+                if (config.isElasticWriters() && router == null) {
+                    scaler = startScaler(writerPool, control, errorCount,
+                            queues[0]);
+                }
+                List<Partition> partitions = planPartitions(dao, sync);
+                if (sync) {
+                    partitions = planSync(dao, partitions, isAborted);
+                }
+                if (router != null) {
+                    routeRange(dao, router, partitions);
+                }
+                if (extractIndex != null) {
+                    extractIndex.writePlan(partitions);
+                }
+                if (!partitions.isEmpty()) {
+                    control.await(control.watch(startReaders(partitions,
+                            dataQueue, control)));
+                }
+                // data read should now be complete, writers stop once they
+                // reach the end of the queue
+                if (!isAborted.get()) {
+                    dataQueue.complete();
+                }
+                if (scaler != null) {
+                    scaler.finish();
+                    scaler = null;
+                }
+                // No more writers to this pool
+                writerPool.shutdown();
+                control.await(writerPool);
+            } catch (InterruptedException e) {
+                // woken up by the abort of the job
+                logger.debug("Wait for the job threads interrupted", e);
+            } catch (Exception e) {
+                control.abort("Bulk copy failed", e);
+            } finally {
+                if (scaler != null) {
+                    scaler.finish();
+                }
+                writerPool.shutdown();
+                if (isAborted.get()) {
+                    // readers and writers blocked on the queue or a retry
+                    // were interrupted, a database call is waited for up to
+                    // the drain time
+                    control.drain(config.getDrainSeconds());
                 }
             }
 
             if (!isAborted.get()) {
+                // the next incremental copy starts above this one, only if
+                // every row made it to the target
+                if (watermarkStore != null && errorCount.get() == 0) {
+                    watermarkStore.commit();
+                }
+                completed = (errorCount.get() == 0);
+                if (extractIndex != null && completed) {
+                    // every data file is closed by its writer
+                    extractIndex.complete();
+                }
                 logger.info("Bulk copy from " + config.getSourceDBName() + "."
                         + config.getSourceTable() + " to "
                         + config.getTargetDBName() + "."
@@ -88,118 +285,886 @@ public class BulkCopyEngine {
                         + config.getTargetTable() + " aborted");
             }
         } catch (Exception e) {
-            isAborted.set(true);
-            logger.fatal(e);
+            control.abort("Bulk copy failed", e);
+        } finally {
+            reporter.finish();
+            if (dataQueue != null) {
+                dataQueue.close();
+            }
+            if (lobs != null) {
+                lobs.close();
+            }
+            restoreTargetObjects();
+            if (extractIndex != null) {
+                extractIndex.close();
+            }
+            if (deadLetters != null) {
+                deadLetters.close();
+            }
+            if (budget == null) {
+                closePools();
+            } else if (grant != null) {
+                // the writers held at the end, elastic writers included
+                budget.release(grant, wantedWriters.get());
+            }
+            if (journal != null) {
+                journal.close();
+            }
         }
     }
 
-    private ExecutorService startWriters(
-            final BlockingQueue<List<Column>> dataQueue,
-            final AtomicBoolean dbReadCompleted,
-            final AtomicInteger recordsRead,
-            final AtomicInteger recordsWritten, final AtomicBoolean isAborted,
+    /**
+     * Write the chunks of an extract to the target, each chunk in a
+     * transaction of its own
+     */
+    private void executeLoad() {
+        JobControl control = new JobControl();
+        AtomicBoolean isAborted = control.getAborted();
+        AtomicInteger errorCount = new AtomicInteger(0);
+        MetricsReporter reporter = new MetricsReporter(metrics,
+                config.getExtractDir() + "->" + config.getTargetTable(),
+                config.getMetricsFile(), config.getMetricsInterval());
+        reporter.start();
+        try {
+            DAO dao = DAO.INSTANCE;
+            logger.info("Load from " + config.getExtractDir() + " to "
+                    + config.getTargetDBName() + "." + config.getTargetTable()
+                    + " started");
+            ExtractIndex index = ExtractIndex.load(config.getExtractDir());
+            if (budget != null) {
+                grant = budget.acquire(1, requestedWriters(), 1);
+                logger.info("Granted " + grant.writers + " writers");
+            }
+            dao.openPool(config.getTargetDBConfig(), initialWriters(),
+                    initialWriters());
+            if (config.getDeadLetterFile() != null) {
+                deadLetters = new DeadLetterFile(config.getDeadLetterFile(),
+                        config.getMaxDeadLetters());
+            }
+            if (config.isDropIndexes()) {
+                targetObjects = TargetObjects.drop(config.getTargetDBConfig(),
+                        config.getIndexDdlFile(), initialWriters());
+            }
+
+            List<ExtractIndex.Chunk> chunks = planChunks(dao, index);
+            logger.info("Load " + chunks.size() + " of "
+                    + index.getChunks().size() + " chunks");
+            if (!chunks.isEmpty()) {
+                try {
+                    control.await(control.watch(startLoaders(index, chunks,
+                            control, errorCount)));
+                } catch (InterruptedException e) {
+                    // woken up by the abort of the job
+                    control.drain(config.getDrainSeconds());
+                }
+            }
+
+            if (!isAborted.get() && errorCount.get() == 0) {
+                completed = true;
+                logger.info("Load from " + config.getExtractDir() + " to "
+                        + config.getTargetDBName() + "."
+                        + config.getTargetTable() + " completed");
+            } else {
+                logger.warn("Load from " + config.getExtractDir() + " to "
+                        + config.getTargetDBName() + "."
+                        + config.getTargetTable() + " aborted");
+            }
+        } catch (Exception e) {
+            control.abort("Load failed", e);
+        } finally {
+            reporter.finish();
+            restoreTargetObjects();
+            if (budget == null) {
+                closePools();
+            } else if (grant != null) {
+                budget.release(grant, grant.writers);
+            }
+            if (deadLetters != null) {
+                deadLetters.close();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Work out the chunks still to be loaded. The journal of a load tracks
+     * chunks rather than partitions. A chunk started but not recorded done
+     * may be committed or not, so every row of its source partition is
+     * deleted from the target and all chunks of the partition are loaded
+     * again
+     */
+    private List<ExtractIndex.Chunk> planChunks(DAO dao, ExtractIndex index) {
+        List<ExtractIndex.Chunk> all = index.getChunks();
+        if (config.getCheckpointFile() == null) {
+            return new ArrayList<>(all);
+        }
+        journal = new CheckpointJournal(config.getCheckpointFile(),
+                index.getSourceTable(), config.getTargetTable(),
+                config.isResume());
+        List<String> keys = new ArrayList<>();
+        for (ExtractIndex.Chunk chunk : all) {
+            keys.add(chunk.key());
+        }
+        if (journal.getPlan().isEmpty()) {
+            journal.writePlan(keys);
+        } else if (!journal.getPlan().equals(keys)) {
+            throw new RuntimeException("Checkpoint journal "
+                    + config.getCheckpointFile()
+                    + " belongs to another extract");
+        } else {
+            logger.info("Resume with the " + keys.size() + " chunks of "
+                    + config.getCheckpointFile());
+        }
+
+        List<Integer> uncertain = new ArrayList<>();
+        Set<Integer> partitions = new HashSet<>();
+        for (ExtractIndex.Chunk chunk : all) {
+            partitions.add(chunk.partition);
+            if (journal.isPartiallyCommitted(chunk.id)
+                    && !uncertain.contains(chunk.partition)) {
+                uncertain.add(chunk.partition);
+            }
+        }
+        if (partitions.size() == 1 && !uncertain.isEmpty()) {
+            refuseResume();
+        }
+        for (Integer id : uncertain) {
+            Partition partition = index.getPartition(id);
+            int rows = dao.deletePartition(config.getTargetDBConfig(),
+                    partition);
+            for (ExtractIndex.Chunk chunk : all) {
+                if (chunk.partition == id) {
+                    journal.reset(chunk.id);
+                }
+            }
+            logger.info("Deleted " + rows
+                    + " rows of partially loaded partition " + partition);
+        }
+
+        List<ExtractIndex.Chunk> chunks = new ArrayList<>();
+        for (ExtractIndex.Chunk chunk : all) {
+            if (!journal.isDone(chunk.id)) {
+                chunks.add(chunk);
+            }
+        }
+        return chunks;
+    }
+
+    private ExecutorService startLoaders(final ExtractIndex index,
+            List<ExtractIndex.Chunk> plan, final JobControl control,
             final AtomicInteger errorCount) {
-        ExecutorService writerPool = Executors.newFixedThreadPool(
-                config.getPoolSize(), new ThreadFactory() {
+        final AtomicBoolean isAborted = control.getAborted();
+        final ConcurrentLinkedQueue<ExtractIndex.Chunk> chunks = new ConcurrentLinkedQueue<>(
+                plan);
+        // first rows of a chunk committed before it failed, by chunk id
+        final Map<Integer, Integer> loaded = new ConcurrentHashMap<>();
+        // failures of a chunk counted in the error count, by chunk id
+        final Map<Integer, Integer> failures = new ConcurrentHashMap<>();
+        int loaders = Math.min(initialWriters(), chunks.size());
+        ExecutorService loaderPool = Executors.newFixedThreadPool(loaders,
+                new ThreadFactory() {
                     private AtomicInteger suffix = new AtomicInteger(0);
 
                     @Override
                     public Thread newThread(Runnable r) {
-                        return new Thread(r, "WRITER-"
+                        return new Thread(r, "LOADER-"
                                 + suffix.incrementAndGet());
                     }
                 });
+        metrics.watchWriters(runningWriters);
+        wantedWriters.set(loaders);
 
-        final long startTime = System.currentTimeMillis();
+        for (int i = 0; i < loaders; i++) {
+            loaderPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    logger.info("Started loader thread");
+                    runningWriters.incrementAndGet();
+                    ChunkReader reader = new ChunkReader(index);
+                    ExtractIndex.Chunk chunk;
+                    RowBatch batch = null;
+                    try {
+                        while (!isAborted.get()
+                                && (chunk = chunks.poll()) != null) {
+                            try {
+                                if (journal != null) {
+                                    journal.partitionStarted(chunk.id);
+                                }
+                                batch = reader.read(chunk, batch);
+                                Integer offset = loaded.get(chunk.id);
+                                if (offset == null) {
+                                    offset = 0;
+                                    metrics.rowsRead(batch.size());
+                                }
+                                long writeStart = System.nanoTime();
+                                Progress progress = new Progress();
+                                try {
+                                    // a chunk tried again is loaded from
+                                    // the first row not committed
+                                    write((offset == 0) ? batch : batch
+                                            .slice(offset, batch.size()),
+                                            progress, isAborted);
+                                } finally {
+                                    metrics.rowsWritten(progress.written);
+                                    if (progress.done > 0) {
+                                        loaded.put(chunk.id, offset
+                                                + progress.done);
+                                        if (journal != null) {
+                                            journal.batchCommitted(chunk.id,
+                                                    progress.done);
+                                        }
+                                    }
+                                }
+                                metrics.writerBusy(System.nanoTime()
+                                        - writeStart);
+                                if (journal != null) {
+                                    journal.partitionRead(chunk.id,
+                                            batch.size());
+                                }
+                                loaded.remove(chunk.id);
+                                Integer failed = failures.remove(chunk.id);
+                                if (failed != null) {
+                                    // resolved by loading the chunk again
+                                    errorCount.addAndGet(-failed);
+                                }
+                                batch.clear();
+                            } catch (Exception e) {
+                                if (isAborted.get()) {
+                                    break;
+                                }
+                                // left for this or the other loaders to
+                                // try again
+                                Integer failed = failures.get(chunk.id);
+                                failures.put(chunk.id, (failed == null) ? 1
+                                        : failed + 1);
+                                chunks.offer(chunk);
+                                // IF error count exceeds max error, then job
+                                // is aborted
+                                if (errorCount.incrementAndGet() >= MAX_ERROR) {
+                                    control.abort("Chunk " + chunk
+                                            + " failed, " + MAX_ERROR
+                                            + " errors reached", e);
+                                } else {
+                                    logger.error("Chunk " + chunk
+                                            + " failed, loaded again", e);
+                                }
+                            }
+                        }
+                    } finally {
+                        reader.close();
+                        runningWriters.decrementAndGet();
+                    }
+                }
+            });
+        }
+        loaderPool.shutdown();
+        return loaderPool;
+    }
+
+    /**
+     * Work out the partitions still to be read. A resumed job reuses the plan
+     * of its journal, skips partitions already done and deletes the rows of
+     * partially committed partitions from the target
+     */
+    private List<Partition> planPartitions(DAO dao, boolean sync) {
+        Watermark watermark = null;
+        if (config.getWatermarkColumn() != null) {
+            watermark = planWatermark(dao);
+            if (watermark == null) {
+                logger.info("No new rows to copy above the watermark");
+                return new ArrayList<>();
+            }
+            logger.info("Incremental copy " + watermark);
+        }
+
+        List<String> predicates = null;
+        // an interrupted extract or sync is run again from the start
+        if (config.getCheckpointFile() != null && extractIndex == null
+                && !sync) {
+            journal = new CheckpointJournal(config.getCheckpointFile(),
+                    config.getSourceTable(), config.getTargetTable(),
+                    config.isResume());
+            if (!journal.getPlan().isEmpty()) {
+                predicates = journal.getPlan();
+                logger.info("Resume with the " + predicates.size()
+                        + " partitions of " + config.getCheckpointFile());
+            }
+        }
+        if (predicates == null) {
+            if (config.isPartitionedRead()) {
+                predicates = dao.partitionPredicates(
+                        config.getSourceDBConfig(),
+                        config.getSourceSplitColumn(), config.getSplitMode(),
+                        config.getPartitions(), watermark);
+            } else {
+                predicates = new ArrayList<>();
+                predicates.add(null);
+            }
+            if (journal != null) {
+                journal.writePlan(predicates);
+            }
+        }
+        if (journal != null && predicates.size() == 1
+                && journal.isPartiallyCommitted(0)) {
+            refuseResume();
+        }
 
-        for (int i = 0; i < config.getPoolSize(); i++) {
-            writerPool.execute(new Runnable() {
+        List<Partition> partitions = new ArrayList<>();
+        for (int i = 0; i < predicates.size(); i++) {
+            Partition partition = new Partition(i, predicates.get(i),
+                    watermark);
+            if (journal != null && journal.isDone(i)) {
+                logger.info("Skip completed partition " + partition);
+                continue;
+            }
+            if (journal != null && journal.isPartiallyCommitted(i)) {
+                int rows = dao.deletePartition(config.getTargetDBConfig(),
+                        partition);
+                journal.reset(i);
+                logger.info("Deleted " + rows
+                        + " rows of partially committed partition "
+                        + partition);
+            }
+            partitions.add(partition);
+        }
+        return partitions;
+    }
+
+    /**
+     * The journal resumes whole partitions, a partition started and not done
+     * is deleted from the target and read again. When the only partition is
+     * left uncertain that would delete and copy the whole table, so the
+     * resume is refused rather than passed off as one
+     */
+    private void refuseResume() {
+        throw new RuntimeException("Single partition of "
+                + config.getCheckpointFile() + " is partially committed,"
+                + " resume would copy the whole table again. Run the copy"
+                + " again without resume");
+    }
+
+    /**
+     * Work out the rows a sync has to write. Chunks with the same row count
+     * and hash on both sides are skipped. In a chunk that differs, the target
+     * rows of changed keys and of keys missing from the source are deleted,
+     * and the source rows of changed keys and of keys missing from the target
+     * are copied again. A chunk where most rows differ, or a table without a
+     * key, has the whole chunk deleted and copied. An interrupted sync is
+     * simply run again
+     */
+    private List<Partition> planSync(DAO dao, List<Partition> chunks,
+            AtomicBoolean isAborted) throws Exception {
+        List<Partition> plan = new ArrayList<>();
+        ChunkComparator comparator = new ChunkComparator(config, readers(),
+                initialWriters(), isAborted);
+        try {
+            List<Partition> differing = comparator.differing(chunks);
+            logger.info(differing.size() + " of " + chunks.size()
+                    + " chunks differ");
+            if (differing.isEmpty()) {
+                return plan;
+            }
+            String key = dao.keyColumn(config.getSourceDBConfig(),
+                    config.getSourceSplitColumn());
+            List<ChunkComparator.KeyDiff> diffs = (key == null) ? null
+                    : comparator.drillDown(differing, key);
+            for (int i = 0; i < differing.size(); i++) {
+                Partition chunk = differing.get(i);
+                ChunkComparator.KeyDiff diff = (diffs == null) ? null : diffs
+                        .get(i);
+                if (diff == null || 2L * diff.size() > diff.sourceRows) {
+                    int rows = dao.deletePartition(
+                            config.getTargetDBConfig(), chunk);
+                    logger.info("Deleted " + rows + " rows of " + chunk
+                            + " to copy it whole");
+                    plan.add(chunk);
+                    continue;
+                }
+                List<Object> delete = new ArrayList<>(diff.extra);
+                delete.addAll(diff.changedTarget);
+                int rows = dao.deleteKeys(config.getTargetDBConfig(), key,
+                        delete);
+                Set<Object> copy = new HashSet<>(diff.missing);
+                copy.addAll(diff.changed);
+                logger.info("Sync " + chunk + " : deleted " + rows
+                        + " rows, " + copy.size() + " keys to copy");
+                if (!copy.isEmpty()) {
+                    plan.add(new Partition(chunk.id, chunk.predicate,
+                            chunk.watermark, key, copy));
+                }
+            }
+            return plan;
+        } finally {
+            comparator.close();
+        }
+    }
+
+    /**
+     * Work out the watermark range of an incremental copy. The high mark is
+     * taken once at job start, so rows added while the job runs are left for
+     * the next run. A resumed job keeps the high mark of the interrupted run
+     * 
+     * @return null if there are no new rows
+     */
+    private Watermark planWatermark(DAO dao) {
+        watermarkStore = new WatermarkStore(config.getWatermarkFile(),
+                config.getSourceTable(), config.getTargetTable());
+        Object low = watermarkStore.getMark();
+        Object high = config.isResume() ? watermarkStore.getPending() : null;
+        if (high == null) {
+            high = dao.maxValue(config.getSourceDBConfig(),
+                    config.getWatermarkColumn());
+            if (high == null) {
+                return null;
+            }
+            high = WatermarkStore.normalize(high);
+            watermarkStore.setPending(high);
+        }
+        if (low != null && compare(low, high) >= 0) {
+            return null;
+        }
+        return new Watermark(config.getWatermarkColumn(), low, high);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private int compare(Object low, Object high) {
+        return ((Comparable) low).compareTo(high);
+    }
+
+    /**
+     * Rebuild the objects of the target dropped for the job, whether the job
+     * completed or not. The job is not complete unless all of them are back
+     */
+    private void restoreTargetObjects() {
+        if (targetObjects != null && !targetObjects.restore(initialWriters())) {
+            completed = false;
+        }
+    }
+
+    private void closePools() {
+        try {
+            DAO.INSTANCE.closePool(config.getSourceDBConfig());
+            DAO.INSTANCE.closePool(config.getTargetDBConfig());
+        } catch (RuntimeException e) {
+            // configuration was incomplete, no pool was opened
+            logger.debug("Connection pools not closed", e);
+        }
+    }
+
+    private ExecutorService startReaders(final List<Partition> predicates,
+            final BatchPublisher dataQueue, final JobControl control) {
+        final AtomicBoolean isAborted = control.getAborted();
+        // partitions are handed out to reader threads as they become free
+        final ConcurrentLinkedQueue<Partition> partitions = new ConcurrentLinkedQueue<>(
+                predicates);
+        int readers = Math.min(readers(), partitions.size());
+
+        ExecutorService readerPool = Executors.newFixedThreadPool(readers,
+                new ThreadFactory() {
+                    private AtomicInteger suffix = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "READER-"
+                                + suffix.incrementAndGet());
+                    }
+                });
+
+        for (int i = 0; i < readers; i++) {
+            readerPool.execute(new Runnable() {
                 private DAO dao = DAO.INSTANCE;
 
                 @Override
                 public void run() {
-                    logger.info("Started writer thread");
-                    int rows = 0;
-                    List<List<Column>> recordset = new ArrayList<>(config
-                            .getBatchSize());
+                    logger.info("Started reader thread");
                     try {
-                        // the loop will run when
-                        // job is not aborted AND
-                        // (queue is empty but db read is not completed OR
-                        // queue is not empty but db read is completed)
-                        // Within the loop, commit records when batchsize is met
+                        Partition partition;
                         while (!isAborted.get()
-                                && !(dataQueue.isEmpty() && dbReadCompleted
-                                        .get())) {
-                            List<Column> row = dataQueue.poll();
-
-                            if (row != null) {
-                                recordset.add(row);
-                                if (recordset.size() == config.getBatchSize()) {
-                                    rows = dao.writeToTarget(
-                                            config.getTargetDBConfig(),
-                                            recordset, isAborted);
-
-                                    recordset.clear();
-                                    logger.debug("Committed " + rows
-                                            + " rows into target table "
-                                            + config.getTargetTable()
-                                            + " ; Total rows written = "
-                                            + recordsWritten.addAndGet(rows));
-                                    logger.info("[ ABORTED = "
-                                            + isAborted.get()
-                                            + " ] [ READ ROWS = "
-                                            + recordsRead.get()
-                                            + " ] [ COMMITTED ROWS = "
-                                            + recordsWritten.get()
-                                            + " ] [ ELAPSED TIME = "
-                                            + ((System.currentTimeMillis() - startTime) / 1000.0)
-                                            + " secs ]");
-                                }
+                                && (partition = partitions.poll()) != null) {
+                            if (journal != null) {
+                                journal.partitionStarted(partition.id);
                             }
-                        }
-                        // commit the remaining records
-                        if (recordset.size() > 0) {
-                            rows = dao.writeToTarget(
-                                    config.getTargetDBConfig(), recordset,
+                            int rows = dao.fetchData(
+                                    config.getSourceDBConfig(), partition,
+                                    dataQueue, batchSizer, lobs, metrics,
                                     isAborted);
-                            recordset.clear();
-                            logger.debug("Committed " + rows
-                                    + " rows into target table "
-                                    + config.getTargetTable()
-                                    + " ; Total rows written = "
-                                    + recordsWritten.addAndGet(rows));
-                            logger.info("[ ABORTED = "
-                                    + isAborted.get()
-                                    + " ] [ READ ROWS = "
-                                    + recordsRead.get()
-                                    + " ] [ COMMITTED ROWS = "
-                                    + recordsWritten.get()
-                                    + " ] [ ELAPSED TIME = "
-                                    + ((System.currentTimeMillis() - startTime) / 1000.0)
-                                    + " secs ]");
-                        }
-
-                    } catch (Exception e) {
-                        // Increase the error count if exception occurs
-                        errorCount.incrementAndGet();
-                        if (!recordset.isEmpty()) {
-                            for (List<Column> record : recordset) {
-                                // This would throw an exception if
-                                // queue cannot be written
-                                // Idea is to return the elements to the
-                                // queue for other workers to process
-                                dataQueue.add(record);
+                            logger.info("Read " + rows + " rows from "
+                                    + partition);
+                            // an aborted read is not complete
+                            if (journal != null && !isAborted.get()) {
+                                journal.partitionRead(partition.id, rows);
                             }
                         }
-                        throw new RuntimeException(e);
+                    } catch (Exception e) {
+                        // a partial read cannot be committed as complete,
+                        // the writers are stopped rather than left to drain
+                        // what was read
+                        control.abort("Read from the source failed", e);
                     }
                 }
             });
         }
         // No more tasks to this pool
-        writerPool.shutdown();
+        readerPool.shutdown();
+        return readerPool;
+    }
+
+    /**
+     * @return a queue of the batches, spilling to disk and bounded by the
+     *         bytes in flight when configured
+     */
+    private BatchQueue newQueue(int batches, MemoryBudget memory) {
+        BatchRingBuffer ring = new BatchRingBuffer(batches,
+                config.getWaitStrategy());
+        // readers spill to disk rather than wait on a full ring
+        BatchQueue queue = (config.getSpillDir() == null) ? ring
+                : new SpillingBatchQueue(ring, Paths.get(config.getSpillDir()),
+                        config.getSpillSegmentBytes());
+        // readers wait while the batches in flight would go over the bytes
+        return (memory != null) ? new MemoryBoundedQueue(queue, memory)
+                : queue;
+    }
+
+    /**
+     * Give each writer a queue of its own and route the rows to them by the
+     * clustered key of the target, so that the writers insert into ranges of
+     * their own instead of competing for the same pages
+     *
+     * @return the router, null if the source does not select the key
+     */
+    private KeyRouter newRouter(DAO dao, int batches, MemoryBudget memory) {
+        String column = config.getRouteColumn();
+        if (column == null) {
+            column = dao.clusteredKeyColumn(config.getTargetDBConfig());
+        }
+        int keyColumn = (column == null) ? -1 : dao.columnIndex(
+                config.getSourceDBConfig(), column);
+        if (keyColumn < 0) {
+            logger.warn("No clustered key of " + config.getTargetTable()
+                    + " read from the source, rows are not routed");
+            return null;
+        }
+        routeColumn = column;
+        int writers = initialWriters();
+        BatchQueue[] routes = new BatchQueue[writers];
+        for (int i = 0; i < writers; i++) {
+            routes[i] = newQueue(Math.max(1, batches / writers), memory);
+        }
+        // a partition is read by one reader at a time
+        return new KeyRouter(routes, keyColumn, batchSizer, readers());
+    }
+
+    /**
+     * Split the routes over the keys of the partitions to be read, rather
+     * than those of the whole source, so that the rows of an incremental or
+     * resumed copy are spread over every writer
+     */
+    private void routeRange(DAO dao, KeyRouter router,
+            List<Partition> partitions) {
+        Object[] range = dao.keyRange(config.getSourceDBConfig(),
+                routeColumn, partitions);
+        router.setRange(range[0], range[1]);
+        logger.info("Rows routed to " + router.getRoutes().length
+                + " writers by the "
+                + (router.isRanged() ? "range" : "hash") + " of "
+                + routeColumn
+                + ((config.isElasticWriters()) ? ", writers not scaled" : ""));
+    }
+
+    private int readers() {
+        return (grant != null) ? grant.readers : config.getReaderPoolSize();
+    }
+
+    private int cacheRows() {
+        return (grant != null) ? grant.cacheRows : config.getCacheSize();
+    }
+
+    /**
+     * @return bytes in flight, shared with the other tables of a manifest,
+     *         null if the queue is bounded by rows only
+     */
+    private MemoryBudget memory() {
+        if (budget != null && budget.getMemory() != null) {
+            return budget.getMemory();
+        }
+        return (config.getCacheBytes() > 0) ? new MemoryBudget(
+                config.getCacheBytes()) : null;
+    }
+
+    private int requestedWriters() {
+        return Math.max(config.getMinWriters(),
+                Math.min(config.getPoolSize(), config.getMaxWriters()));
+    }
+
+    private int initialWriters() {
+        return (grant != null) ? grant.writers : requestedWriters();
+    }
+
+    /**
+     * Start the scaler adding and removing writers of an elastic writer pool
+     */
+    private WriterScaler startScaler(final ExecutorService writerPool,
+            final JobControl control, final AtomicInteger errorCount,
+            final BatchQueue dataQueue) {
+        final Runnable writer = newWriter(dataQueue, control, errorCount);
+        WriterScaler scaler = new WriterScaler(metrics, wantedWriters,
+                config.getMinWriters(), config.getMaxWriters(), budget,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            writerPool.execute(writer);
+                        } catch (RejectedExecutionException e) {
+                            // the job was aborted, its pool shut down
+                            logger.debug("Writer not added", e);
+                        }
+                    }
+                });
+        scaler.start();
+        return scaler;
+    }
+
+    /**
+     * @param queues
+     *            one queue shared by the writers, or a queue per writer
+     */
+    private ExecutorService startWriters(final BatchQueue[] queues,
+            final JobControl control, final AtomicInteger errorCount) {
+        ExecutorService writerPool = Executors.newFixedThreadPool(
+                config.getMaxWriters(), new ThreadFactory() {
+                    private AtomicInteger suffix = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "WRITER-"
+                                + suffix.incrementAndGet());
+                    }
+                });
+        metrics.watchWriters(runningWriters);
+        wantedWriters.set(initialWriters());
+
+        Runnable writer = newWriter(queues[0], control, errorCount);
+        for (int i = 0; i < wantedWriters.get(); i++) {
+            // a routed writer takes the batches of its own key range
+            writerPool.execute((queues.length > 1) ? newWriter(queues[i],
+                    control, errorCount) : writer);
+        }
         return writerPool;
     }
 
+    /**
+     * Rows of a batch done while it is written, committed or rejected. The
+     * halves of a batch are written in order, so the rows done are always
+     * the first rows of the batch, and a write failing after a half was
+     * committed is tried again from the first row not done
+     */
+    private static class Progress {
+        // first rows of the batch committed or rejected
+        int done;
+        // rows of those committed
+        int written;
+    }
+
+    /**
+     * Write the batch to the target, trying again after a deadlock, a timeout
+     * or a broken connection. With a dead letter file, a batch failing on its
+     * rows is split in halves until the rejected rows are found, and the
+     * other rows are committed
+     *
+     * @param progress
+     *            rows done, kept when the write fails
+     */
+    private void write(RowBatch batch, Progress progress,
+            AtomicBoolean isAborted) {
+        DAO dao = DAO.INSTANCE;
+        try {
+            progress.written += writeRetried(dao, batch, isAborted);
+            progress.done += batch.size();
+        } catch (RuntimeException e) {
+            if (deadLetters == null || isAborted.get() || dao.isTransient(e)) {
+                throw e;
+            }
+            if (batch.size() == 1) {
+                deadLetters.write(batch, 0, e);
+                metrics.rowsRejected(1);
+                progress.done++;
+                logger.warn("Row of partition " + batch.getPartition()
+                        + " rejected by the target, written to "
+                        + config.getDeadLetterFile());
+                return;
+            }
+            int half = batch.size() / 2;
+            write(batch.slice(0, half), progress, isAborted);
+            write(batch.slice(half, batch.size()), progress, isAborted);
+        }
+    }
+
+    private int writeRetried(DAO dao, RowBatch batch, AtomicBoolean isAborted) {
+        for (int attempt = 0;; attempt++) {
+            try {
+                return dao.writeToTarget(config.getTargetDBConfig(), batch,
+                        metrics, isAborted);
+            } catch (RuntimeException e) {
+                if (attempt >= config.getWriteRetries() || isAborted.get()
+                        || !dao.isTransient(e)) {
+                    throw e;
+                }
+                long backoff = config.getRetryBackoffMillis() << attempt;
+                logger.warn("Batch write failed on a transient error, retry "
+                        + (attempt + 1) + " in " + backoff + " ms");
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(ie);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a writer taking batches from the queue until its end, or until
+     *         there are more writers running than wanted. A batch that fails
+     *         is written again by the same writer, so the queue is drained
+     *         for as long as the job is not aborted
+     */
+    private Runnable newWriter(final BatchQueue dataQueue,
+            final JobControl control, final AtomicInteger errorCount) {
+        final AtomicBoolean isAborted = control.getAborted();
+        return new Runnable() {
+            @Override
+            public void run() {
+                logger.info("Started writer thread, "
+                        + runningWriters.incrementAndGet() + " writers running");
+                boolean retired = false;
+                RowBatch batch = null;
+                // first rows of the batch committed before it failed
+                int offset = 0;
+                // failures of the batch counted in the error count
+                int failures = 0;
+                RowBatch spare = null;
+                // each writer of an extract appends to a data file of its own
+                ChunkWriter chunks = (extractIndex != null) ? extractIndex
+                        .newWriter() : null;
+                try {
+                    // the loop will run until the job is aborted, the end of
+                    // the queue is reached or the writer is no longer wanted
+                    // Each batch from the queue is committed as a whole
+                    long idleStart = System.nanoTime();
+                    while (!isAborted.get()) {
+                        // a batch that failed is kept to be written again
+                        if (batch == null
+                                && ((retired = retire()) || (batch = dataQueue
+                                        .take(spare)) == null)) {
+                            break;
+                        }
+                        long writeStart = System.nanoTime();
+                        metrics.writerIdle(writeStart - idleStart);
+                        Progress progress = new Progress();
+                        try {
+                            if (chunks != null) {
+                                progress.written = chunks.write(batch);
+                                progress.done = batch.size();
+                            } else {
+                                write((offset == 0) ? batch : batch.slice(
+                                        offset, batch.size()), progress,
+                                        isAborted);
+                            }
+                        } catch (Exception e) {
+                            // the rows committed are not written again
+                            done(batch, progress);
+                            offset += progress.done;
+                            if (isAborted.get()) {
+                                break;
+                            }
+                            failed(batch, e);
+                            failures++;
+                            idleStart = System.nanoTime();
+                            continue;
+                        }
+                        done(batch, progress);
+                        offset = 0;
+                        if (failures > 0) {
+                            // a failure resolved by writing the batch
+                            // again does not fail the job
+                            errorCount.addAndGet(-failures);
+                            failures = 0;
+                        }
+                        dataQueue.release(batch);
+                        batchSizer.committed(batch.size(), System.nanoTime()
+                                - writeStart);
+                        // the written batch is handed back to the queue
+                        // for the reader to fill again
+                        spare = batch;
+                        batch = null;
+                        idleStart = System.nanoTime();
+                        metrics.writerBusy(idleStart - writeStart);
+                    }
+                    if (retired) {
+                        logger.info("Stopped writer thread, "
+                                + runningWriters.get() + " writers running");
+                    }
+                } catch (InterruptedException e) {
+                    // the job was aborted while the writer waited
+                    logger.debug("Writer thread interrupted", e);
+                } catch (Exception e) {
+                    control.abort("Writer thread failed", e);
+                } finally {
+                    if (chunks != null) {
+                        try {
+                            chunks.close();
+                        } catch (IOException e) {
+                            errorCount.incrementAndGet();
+                            logger.error("Not able to close data file", e);
+                        }
+                    }
+                    if (!retired) {
+                        runningWriters.decrementAndGet();
+                    }
+                }
+            }
+
+            private void done(RowBatch batch, Progress progress) {
+                metrics.rowsWritten(progress.written);
+                if (journal != null && progress.done > 0) {
+                    journal.batchCommitted(batch.getPartition(),
+                            progress.done);
+                }
+            }
+
+            /**
+             * Count the failure of the batch, the job is aborted once the
+             * error count reaches max error. Otherwise the batch is written
+             * again after a pause, and the failure is taken off the count
+             * once it is written
+             */
+            private void failed(RowBatch batch, Exception e)
+                    throws InterruptedException {
+                // next batches are smaller in case the batch was too
+                // large for the target
+                batchSizer.failed();
+                if (errorCount.incrementAndGet() >= MAX_ERROR) {
+                    control.abort("Batch of partition " + batch.getPartition()
+                            + " failed, " + MAX_ERROR + " errors reached", e);
+                    return;
+                }
+                logger.error("Batch of partition " + batch.getPartition()
+                        + " failed, rows not committed are written again", e);
+                Thread.sleep(config.getRetryBackoffMillis());
+            }
+
+            /**
+             * @return true if the writer stops because more writers are
+             *         running than wanted
+             */
+            private boolean retire() {
+                int running = runningWriters.get();
+                return running > wantedWriters.get()
+                        && runningWriters.compareAndSet(running, running - 1);
+            }
+        };
+    }
+
 }
@@ -12,6 +12,22 @@ public class BulkCopyMain {
         setLogFileName();
         BatchConfig config = new BatchConfig(args);
 
+        if (config.getManifest() != null) {
+            // many tables in one JVM, sharing connections and threads
+            new JobScheduler(args).run();
+            return;
+        }
+
+        if (BatchConfig.MODE_VERIFY.equals(config.getMode())) {
+            new VerifyEngine(config).run();
+            return;
+        }
+
+        if (BatchConfig.MODE_PLAN.equals(config.getMode())) {
+            new PlanEngine(config).run();
+            return;
+        }
+
         BulkCopyEngine bulkCopyEngine = new BulkCopyEngine(config);
         bulkCopyEngine.run();
 
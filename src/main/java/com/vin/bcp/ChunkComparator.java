@@ -0,0 +1,162 @@
+package com.vin.bcp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.dao.DAO;
+import com.vin.bcp.dao.Partition;
+import com.vin.bcp.dao.PartitionDigest;
+import com.vin.bcp.util.BatchConfig;
+
+/**
+ * Compares chunks of the source and the target by row count and hash, the
+ * source and the target side each read by a thread pool of its own
+ *
+ */
+class ChunkComparator {
+    private Logger logger = LogManager.getLogger(ChunkComparator.class);
+
+    private final BatchConfig config;
+    private final AtomicBoolean isAborted;
+    private final ExecutorService sourcePool;
+    private final ExecutorService targetPool;
+    private long sourceRows;
+
+    /**
+     * Keys of a chunk that differ between source and target
+     */
+    static class KeyDiff {
+        // normalized keys of the source rows missing from the target
+        final List<Object> missing = new ArrayList<>();
+        // keys of the target rows missing from the source, as read
+        final List<Object> extra = new ArrayList<>();
+        // normalized keys whose rows differ, and the same keys as read from
+        // the target
+        final List<Object> changed = new ArrayList<>();
+        final List<Object> changedTarget = new ArrayList<>();
+        long sourceRows;
+
+        int size() {
+            return missing.size() + extra.size() + changed.size();
+        }
+    }
+
+    ChunkComparator(BatchConfig config, int sourceThreads, int targetThreads,
+            AtomicBoolean isAborted) {
+        this.config = config;
+        this.isAborted = isAborted;
+        this.sourcePool = newPool("COMPARE-SOURCE-", sourceThreads);
+        this.targetPool = newPool("COMPARE-TARGET-", targetThreads);
+    }
+
+    /**
+     * @return the chunks whose row count or hash differ
+     */
+    List<Partition> differing(List<Partition> chunks) throws Exception {
+        List<Future<PartitionDigest>> sources = new ArrayList<>();
+        List<Future<PartitionDigest>> targets = new ArrayList<>();
+        for (Partition chunk : chunks) {
+            sources.add(sourcePool.submit(digest(false, chunk, null)));
+            targets.add(targetPool.submit(digest(true, chunk, null)));
+        }
+        List<Partition> differing = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            PartitionDigest source = sources.get(i).get();
+            PartitionDigest target = targets.get(i).get();
+            sourceRows += source.getRows();
+            if (!source.matches(target)) {
+                differing.add(chunks.get(i));
+                logger.warn("Chunk differs " + chunks.get(i) + " : source "
+                        + source + " ; target " + target);
+            }
+        }
+        return differing;
+    }
+
+    /**
+     * Compare the rows of the chunks key by key. The keys of a chunk are
+     * held in memory, so more partitions make smaller chunks to drill down
+     * into
+     *
+     * @return the keys that differ in each chunk
+     */
+    List<KeyDiff> drillDown(List<Partition> chunks, String key)
+            throws Exception {
+        List<Future<PartitionDigest>> sources = new ArrayList<>();
+        List<Future<PartitionDigest>> targets = new ArrayList<>();
+        for (Partition chunk : chunks) {
+            sources.add(sourcePool.submit(digest(false, chunk, key)));
+            targets.add(targetPool.submit(digest(true, chunk, key)));
+        }
+        List<KeyDiff> diffs = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            PartitionDigest source = sources.get(i).get();
+            PartitionDigest target = targets.get(i).get();
+            Map<Object, Long> targetKeys = target.getKeys();
+            KeyDiff diff = new KeyDiff();
+            diff.sourceRows = source.getRows();
+            for (Map.Entry<Object, Long> row : source.getKeys().entrySet()) {
+                Long hash = targetKeys.remove(row.getKey());
+                if (hash == null) {
+                    diff.missing.add(row.getKey());
+                } else if (!hash.equals(row.getValue())) {
+                    diff.changed.add(row.getKey());
+                    diff.changedTarget.add(target.getKeyValue(row.getKey()));
+                }
+            }
+            // what is left of the target is not in the source
+            for (Object extra : targetKeys.keySet()) {
+                diff.extra.add(target.getKeyValue(extra));
+            }
+            diffs.add(diff);
+        }
+        return diffs;
+    }
+
+    /**
+     * @return rows read from the source by {@link #differing(List)}
+     */
+    long getSourceRows() {
+        return sourceRows;
+    }
+
+    void close() {
+        sourcePool.shutdownNow();
+        targetPool.shutdownNow();
+    }
+
+    private Callable<PartitionDigest> digest(final boolean isTarget,
+            final Partition chunk, final String key) {
+        return new Callable<PartitionDigest>() {
+            @Override
+            public PartitionDigest call() {
+                return DAO.INSTANCE.digest(isTarget ? config
+                        .getTargetDBConfig() : config.getSourceDBConfig(),
+                        isTarget, chunk, key, isAborted);
+            }
+        };
+    }
+
+    private ExecutorService newPool(final String prefix, int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads),
+                new ThreadFactory() {
+                    private AtomicInteger suffix = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, prefix + suffix.incrementAndGet());
+                    }
+                });
+    }
+}
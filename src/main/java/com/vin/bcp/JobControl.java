@@ -0,0 +1,115 @@
+package com.vin.bcp;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Completion and cancellation of the threads of a job. The first fatal error
+ * aborts the job at once: the flag the read and write loops check is set, the
+ * threads of the job blocked on the queue or waiting to retry are
+ * interrupted, and so is the thread waiting for the job to complete
+ *
+ */
+class JobControl {
+    private Logger logger = LogManager.getLogger(JobControl.class);
+
+    private final AtomicBoolean isAborted = new AtomicBoolean(false);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final List<ExecutorService> pools = new CopyOnWriteArrayList<>();
+    // the thread running the job, waiting for its threads to complete
+    private final Thread owner = Thread.currentThread();
+
+    /**
+     * @return the flag checked by the read and write loops of the job
+     */
+    AtomicBoolean getAborted() {
+        return isAborted;
+    }
+
+    boolean isAborted() {
+        return isAborted.get();
+    }
+
+    /**
+     * @return the error the job was aborted on, null if it was not aborted
+     */
+    Throwable getFailure() {
+        return failure.get();
+    }
+
+    /**
+     * Interrupt the threads of the pool when the job is aborted
+     */
+    ExecutorService watch(ExecutorService pool) {
+        pools.add(pool);
+        if (isAborted.get()) {
+            pool.shutdownNow();
+        }
+        return pool;
+    }
+
+    /**
+     * Abort the job, unless it is aborted already
+     */
+    void abort(String reason, Throwable cause) {
+        if (!isAborted.compareAndSet(false, true)) {
+            logger.debug("Job already aborted : " + reason, cause);
+            return;
+        }
+        failure.set(cause);
+        logger.fatal(reason, cause);
+        for (ExecutorService pool : pools) {
+            pool.shutdownNow();
+        }
+        if (Thread.currentThread() != owner) {
+            owner.interrupt();
+        }
+    }
+
+    /**
+     * Wait for every thread of the pool to complete
+     *
+     * @throws InterruptedException
+     *             if the job is aborted while waiting
+     */
+    void await(ExecutorService pool) throws InterruptedException {
+        while (!pool.awaitTermination(1, TimeUnit.HOURS)) {
+            logger.debug("Waiting for the threads of the job to complete");
+        }
+    }
+
+    /**
+     * Wait for the threads of an aborted job to stop, a thread stuck in a
+     * database call is given up on after the drain time
+     *
+     * @return true if every thread stopped
+     */
+    boolean drain(int seconds) {
+        // the interrupt meant for the owner is consumed here
+        Thread.interrupted();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        for (ExecutorService pool : pools) {
+            pool.shutdownNow();
+            try {
+                long left = deadline - System.nanoTime();
+                if (left <= 0
+                        || !pool.awaitTermination(left, TimeUnit.NANOSECONDS)) {
+                    logger.warn("Threads of the aborted job still running after "
+                            + seconds + " seconds, left behind");
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,226 @@
+package com.vin.bcp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.dao.DAO;
+import com.vin.bcp.util.BatchConfig;
+
+/**
+ * Copies the tables of a manifest in one JVM. Each line of the manifest holds
+ * the arguments of one table, added to the arguments of the command line.
+ * Blank lines and lines starting with # are ignored, e.g.
+ *
+ * <pre>
+ * source-table=dbo.ORDERS target-table=ORDERS partitions=8
+ * source-table=dbo.CUSTOMER target-table=CUSTOMER
+ * </pre>
+ *
+ * Tables are started largest first, at most maxConcurrentTables at a time.
+ * They share one connection pool per database and a budget of reader and
+ * writer threads and queue rows. Writers are elastic unless a table says
+ * otherwise, so writers left idle by one table are taken by the tables that
+ * are behind.
+ *
+ */
+public class JobScheduler {
+    private static final String[] PER_TABLE_FILES = { "metrics-file",
+            "checkpoint-file" };
+
+    private Logger logger = LogManager.getLogger(JobScheduler.class);
+
+    private final String[] args;
+    private final BatchConfig config;
+
+    public JobScheduler(String[] args) {
+        this.args = args;
+        this.config = new BatchConfig(args);
+    }
+
+    /**
+     * @return number of tables that were not copied completely
+     */
+    public int run() {
+        List<BatchConfig> tables = readManifest();
+        final ResourceBudget budget = new ResourceBudget(config.getReaderBudget(),
+                config.getWriterBudget(), config.getCacheBudget(),
+                config.getCacheBytesBudget());
+        logger.info("Copy " + tables.size() + " tables with "
+                + config.getReaderBudget() + " readers, "
+                + config.getWriterBudget() + " writers and "
+                + config.getCacheBudget() + " queue rows"
+                + ((budget.getMemory() == null) ? "" : " of at most "
+                        + budget.getMemory().getLimit() + " bytes"));
+        DAO dao = DAO.INSTANCE;
+        int failed = 0;
+        try {
+            // tables of the same database share its pool, sized to the
+            // budget; connections are opened as tables are granted threads
+            for (BatchConfig table : tables) {
+                dao.openPool(table.getSourceDBConfig(),
+                        config.getReaderBudget(), 0);
+                dao.openPool(table.getTargetDBConfig(),
+                        config.getWriterBudget(), 0);
+            }
+            sortLargestFirst(tables);
+
+            ExecutorService tablePool = Executors.newFixedThreadPool(
+                    Math.min(config.getMaxConcurrentTables(), tables.size()),
+                    new ThreadFactory() {
+                        private AtomicInteger suffix = new AtomicInteger(0);
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            return new Thread(r, "TABLE-"
+                                    + suffix.incrementAndGet());
+                        }
+                    });
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (final BatchConfig table : tables) {
+                results.add(tablePool.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        BulkCopyEngine engine = new BulkCopyEngine(table,
+                                budget);
+                        engine.run();
+                        return engine.isCompleted();
+                    }
+                }));
+            }
+            // No more tasks to this pool
+            tablePool.shutdown();
+
+            for (int i = 0; i < tables.size(); i++) {
+                boolean completed;
+                try {
+                    completed = results.get(i).get();
+                } catch (Exception e) {
+                    logger.error("Copy of " + tables.get(i).getSourceTable()
+                            + " failed", e);
+                    completed = false;
+                }
+                if (!completed) {
+                    failed++;
+                    logger.warn("Table " + tables.get(i).getSourceTable()
+                            + " was not copied completely");
+                }
+            }
+            logger.info((tables.size() - failed) + " of " + tables.size()
+                    + " tables copied");
+        } finally {
+            dao.closePools();
+        }
+        return failed;
+    }
+
+    private List<BatchConfig> readManifest() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(config.getManifest()),
+                    StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to read manifest "
+                    + config.getManifest(), e);
+        }
+        List<BatchConfig> tables = new ArrayList<>();
+        for (String line : lines) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            tables.add(new BatchConfig(tableArgs(line.split("\\s+"))));
+        }
+        return tables;
+    }
+
+    /**
+     * @return the command line arguments followed by those of the table, so
+     *         that the table's own arguments win
+     */
+    private String[] tableArgs(String[] line) {
+        Map<String, String> given = new HashMap<>();
+        for (String arg : line) {
+            String[] splits = arg.split("=");
+            if (splits.length == 2) {
+                given.put(splits[0], splits[1]);
+            }
+        }
+        List<String> all = new ArrayList<>();
+        all.add("elasticWriters=true");
+        for (String arg : args) {
+            String[] splits = arg.split("=");
+            if (splits.length == 2 && "manifest".equals(splits[0])) {
+                continue;
+            }
+            all.add(arg);
+        }
+        // files written by a table are not shared with the other tables
+        for (String file : PER_TABLE_FILES) {
+            String common = argument(args, file);
+            if (common != null && !given.containsKey(file)) {
+                all.add(file + "="
+                        + perTable(common, given.get("target-table")));
+            }
+        }
+        Collections.addAll(all, line);
+        return all.toArray(new String[all.size()]);
+    }
+
+    private static String argument(String[] args, String name) {
+        for (String arg : args) {
+            String[] splits = arg.split("=");
+            if (splits.length == 2 && name.equals(splits[0])) {
+                return splits[1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the file name with the table inserted before its extension
+     */
+    private static String perTable(String file, String table) {
+        if (table == null) {
+            return file;
+        }
+        int dot = file.lastIndexOf('.');
+        int slash = Math.max(file.lastIndexOf('/'), file.lastIndexOf('\\'));
+        return (dot > slash) ? file.substring(0, dot) + "-" + table
+                + file.substring(dot) : file + "-" + table;
+    }
+
+    private void sortLargestFirst(List<BatchConfig> tables) {
+        final Map<BatchConfig, Long> rows = new HashMap<>();
+        for (BatchConfig table : tables) {
+            long estimate = DAO.INSTANCE.estimateRows(table
+                    .getSourceDBConfig());
+            logger.info("[ ESTIMATED ROWS OF " + table.getSourceTable()
+                    + " = " + estimate + " ]");
+            rows.put(table, estimate);
+        }
+        // tables without an estimate go last
+        Collections.sort(tables, new Comparator<BatchConfig>() {
+            @Override
+            public int compare(BatchConfig a, BatchConfig b) {
+                return Long.compare(rows.get(b), rows.get(a));
+            }
+        });
+    }
+}
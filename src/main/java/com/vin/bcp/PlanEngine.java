@@ -0,0 +1,326 @@
+package com.vin.bcp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.dao.DAO;
+import com.vin.bcp.dao.LobStager;
+import com.vin.bcp.dao.RowBatch;
+import com.vin.bcp.metrics.CopyMetrics;
+import com.vin.bcp.util.BatchConfig;
+import com.vin.bcp.util.DBConfig;
+
+/**
+ * Recommends the settings of a copy before it runs. The rows of the source
+ * are estimated from its statistics and a sample is read to size them. The
+ * sample is then written to a scratch table created like the target, at a few
+ * batch sizes and numbers of writers, each writer writing a part of the
+ * sample of its own. The fastest trial gives the batch size and the writers,
+ * the read rate of the sample the readers to keep them busy, and the duration
+ * and memory of the copy are predicted from them.
+ *
+ * The scratch table has no indexes, so the trials measure the insert path
+ * only, a target whose indexes are kept while copying writes slower
+ *
+ */
+public class PlanEngine {
+    // batch sizes tried, as long as the sample holds them
+    private static final int[] BATCH_SIZES = { 1000, 10000, 50000 };
+    // a writer count slower than this ratio of the best so far ends the
+    // trials of a batch size
+    private static final double SLOWER = 0.9;
+    // batches each writer holds besides the one it writes
+    private static final int BATCHES_PER_WRITER = 2;
+
+    private Logger logger = LogManager.getLogger(PlanEngine.class);
+
+    private final BatchConfig config;
+    private final List<Trial> trials = new ArrayList<>();
+    private Plan plan;
+
+    public PlanEngine(BatchConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Rows written per second by a number of writers at a batch size
+     */
+    public static class Trial {
+        public final int batchSize;
+        public final int writers;
+        public final double rowsPerSecond;
+
+        Trial(int batchSize, int writers, double rowsPerSecond) {
+            this.batchSize = batchSize;
+            this.writers = writers;
+            this.rowsPerSecond = rowsPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "batchSize=%d writers=%d : %.0f rows/s", batchSize,
+                    writers, rowsPerSecond);
+        }
+    }
+
+    /**
+     * Settings recommended for the copy, with its predicted duration and
+     * memory
+     */
+    public static class Plan {
+        public final int batchSize;
+        public final int writers;
+        public final int readers;
+        public final int cacheRows;
+        public final long rows;
+        public final long rowBytes;
+        public final double seconds;
+        public final long memoryBytes;
+
+        Plan(int batchSize, int writers, int readers, int cacheRows,
+                long rows, long rowBytes, double seconds, long memoryBytes) {
+            this.batchSize = batchSize;
+            this.writers = writers;
+            this.readers = readers;
+            this.cacheRows = cacheRows;
+            this.rows = rows;
+            this.rowBytes = rowBytes;
+            this.seconds = seconds;
+            this.memoryBytes = memoryBytes;
+        }
+
+        /**
+         * @return the settings as arguments of the copy
+         */
+        public String toArguments() {
+            return "batchSize=" + batchSize + " poolSize=" + writers
+                    + " readerPoolSize=" + readers + " cacheSize="
+                    + cacheRows;
+        }
+    }
+
+    /**
+     * @return the trials run, in the order they were run
+     */
+    public List<Trial> getTrials() {
+        return trials;
+    }
+
+    /**
+     * @return the recommended settings, null if the plan failed
+     */
+    public Plan getPlan() {
+        return plan;
+    }
+
+    public void run() {
+        DAO dao = DAO.INSTANCE;
+        DBConfig scratch = config.getPlanDBConfig();
+        LobStager lobs = null;
+        boolean created = false;
+        try {
+            if (config.getTargetSql() != null) {
+                throw new RuntimeException("Plan writes to a table like "
+                        + config.getTargetTable()
+                        + ", not to a target sql file");
+            }
+            if (scratch.table.equalsIgnoreCase(config.getTargetTable())) {
+                throw new RuntimeException("Plan table "
+                        + config.getPlanTable()
+                        + " is the target table, it is dropped by the plan");
+            }
+            logger.info("Plan of " + config.getSourceDBName() + "."
+                    + config.getSourceTable() + " to "
+                    + config.getTargetDBName() + "."
+                    + config.getTargetTable() + " started");
+            int maxWriters = config.getMaxWriters();
+            dao.openPool(config.getSourceDBConfig(), 1, 1);
+            dao.openPool(scratch, maxWriters, maxWriters);
+
+            long rows = dao.estimateRows(config.getSourceDBConfig());
+            if (rows < 0) {
+                rows = dao.countRows(config.getSourceDBConfig());
+            }
+            lobs = new LobStager(config.getLobDir(), config.getLobThreshold(),
+                    config.getLobMemory());
+            long start = System.nanoTime();
+            RowBatch sample = dao.sampleRows(config.getSourceDBConfig(),
+                    config.getPlanSampleRows(), lobs);
+            double readRate = rate(sample.size(), System.nanoTime() - start);
+            if (sample.size() == 0) {
+                logger.warn("Source " + config.getSourceTable()
+                        + " is empty, nothing to plan");
+                return;
+            }
+            long rowBytes = Math.max(1, sample.getBytes() / sample.size());
+            logger.info(String.format(Locale.ROOT,
+                    "Source of about %d rows of %d bytes, read at %.0f"
+                            + " rows/s by a reader", rows, rowBytes, readRate));
+
+            dao.createScratchTable(scratch, config.getTargetTable());
+            created = true;
+            Trial best = runTrials(dao, scratch, sample, maxWriters);
+
+            // readers enough to keep the writers busy
+            int readers = (int) Math.min(
+                    Runtime.getRuntime().availableProcessors(),
+                    Math.max(1, Math.ceil(best.rowsPerSecond / readRate)));
+            int cacheRows = BATCHES_PER_WRITER * best.writers
+                    * best.batchSize;
+            double rowsPerSecond = Math.min(best.rowsPerSecond, readers
+                    * readRate);
+            // rows of the queue, of the batches being written and of those
+            // being read
+            long memoryBytes = rowBytes
+                    * (cacheRows + (long) (best.writers + readers)
+                            * best.batchSize);
+            plan = new Plan(best.batchSize, best.writers, readers, cacheRows,
+                    rows, rowBytes, rows / rowsPerSecond, memoryBytes);
+            logger.info("Recommended : " + plan.toArguments());
+            logger.info(String.format(Locale.ROOT,
+                    "Predicted copy of %d rows in %.0f seconds at %.0f"
+                            + " rows/s, holding %d MB of rows", rows,
+                    plan.seconds, rowsPerSecond, memoryBytes >> 20));
+        } catch (Exception e) {
+            logger.fatal("Plan failed", e);
+        } finally {
+            if (created) {
+                try {
+                    dao.dropTable(scratch, config.getPlanTable());
+                } catch (RuntimeException e) {
+                    logger.warn("Scratch table " + config.getPlanTable()
+                            + " not dropped", e);
+                }
+            }
+            if (lobs != null) {
+                lobs.close();
+            }
+            try {
+                dao.closePool(config.getSourceDBConfig());
+                dao.closePool(scratch);
+            } catch (RuntimeException e) {
+                logger.debug("Connection pools not closed", e);
+            }
+        }
+    }
+
+    /**
+     * Write the sample at each batch size with a growing number of writers,
+     * until more writers are no faster
+     *
+     * @return the fastest trial
+     */
+    private Trial runTrials(DAO dao, DBConfig scratch, RowBatch sample,
+            int maxWriters) throws InterruptedException {
+        Trial best = null;
+        ExecutorService pool = Executors.newFixedThreadPool(maxWriters,
+                new ThreadFactory() {
+                    private AtomicInteger suffix = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "TRIAL-"
+                                + suffix.incrementAndGet());
+                    }
+                });
+        try {
+            for (int size : BATCH_SIZES) {
+                int batchSize = Math.min(size, sample.size());
+                Trial bestOfSize = null;
+                // each writer writes a batch at least
+                for (int writers = 1; writers <= maxWriters
+                        && writers * batchSize <= sample.size(); writers *= 2) {
+                    // an empty table for each trial, not one grown by the
+                    // trials before
+                    dao.truncateTable(scratch, config.getPlanTable());
+                    Trial trial = runTrial(dao, scratch, sample, batchSize,
+                            writers, pool);
+                    trials.add(trial);
+                    logger.info("Trial " + trial);
+                    if (bestOfSize != null
+                            && trial.rowsPerSecond < SLOWER
+                                    * bestOfSize.rowsPerSecond) {
+                        break;
+                    }
+                    if (bestOfSize == null
+                            || trial.rowsPerSecond > bestOfSize.rowsPerSecond) {
+                        bestOfSize = trial;
+                    }
+                }
+                if (bestOfSize != null
+                        && (best == null
+                                || bestOfSize.rowsPerSecond > best.rowsPerSecond)) {
+                    best = bestOfSize;
+                }
+                if (batchSize == sample.size()) {
+                    // larger sizes would write the same batches
+                    break;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return best;
+    }
+
+    /**
+     * Write the sample with a number of writers, each writing a part of its
+     * own in batches of the size
+     */
+    private Trial runTrial(final DAO dao, final DBConfig scratch,
+            final RowBatch sample, final int batchSize, int writers,
+            ExecutorService pool) throws InterruptedException {
+        final CopyMetrics metrics = new CopyMetrics();
+        final AtomicBoolean isAborted = new AtomicBoolean(false);
+        int part = sample.size() / writers;
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            final int from = i * part;
+            final int to = (i == writers - 1) ? sample.size() : from + part;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int rows = 0;
+                    for (int row = from; row < to && !isAborted.get();
+                            row += batchSize) {
+                        rows += dao.writeToTarget(scratch, sample.slice(row,
+                                Math.min(to, row + batchSize)), metrics,
+                                isAborted);
+                    }
+                    return rows;
+                }
+            });
+        }
+        long start = System.nanoTime();
+        int rows = 0;
+        try {
+            for (Future<Integer> written : pool.invokeAll(tasks)) {
+                rows += written.get();
+            }
+        } catch (ExecutionException e) {
+            isAborted.set(true);
+            throw new RuntimeException("Trial of " + writers
+                    + " writers at batch size " + batchSize + " failed",
+                    e.getCause());
+        }
+        return new Trial(batchSize, writers, rate(rows, System.nanoTime()
+                - start));
+    }
+
+    private static double rate(long rows, long nanos) {
+        return rows * 1e9 / Math.max(1, nanos);
+    }
+}
@@ -0,0 +1,107 @@
+package com.vin.bcp;
+
+import com.vin.bcp.queue.MemoryBudget;
+
+/**
+ * Reader threads, writer threads and queue rows shared by the tables of a
+ * manifest. A table starts once at least one reader, one writer and its queue
+ * rows are free, and takes up to what it asked for. Writers handed back by a
+ * table are taken by the tables that are behind
+ *
+ */
+public class ResourceBudget {
+    private final int cacheRows;
+    // bytes in flight across all tables, null if not bounded
+    private final MemoryBudget memory;
+    private int freeReaders;
+    private int freeWriters;
+    private int freeCacheRows;
+
+    /**
+     * Share of the budget held by a table
+     */
+    public static class Grant {
+        public final int readers;
+        public final int writers;
+        public final int cacheRows;
+
+        Grant(int readers, int writers, int cacheRows) {
+            this.readers = readers;
+            this.writers = writers;
+            this.cacheRows = cacheRows;
+        }
+    }
+
+    public ResourceBudget(int readers, int writers, int cacheRows) {
+        this(readers, writers, cacheRows, 0);
+    }
+
+    /**
+     * @param cacheBytes
+     *            bytes of the batches in flight of all tables, 0 if not
+     *            bounded
+     */
+    public ResourceBudget(int readers, int writers, int cacheRows,
+            long cacheBytes) {
+        this.memory = (cacheBytes > 0) ? new MemoryBudget(cacheBytes) : null;
+        this.freeReaders = Math.max(1, readers);
+        this.freeWriters = Math.max(1, writers);
+        this.cacheRows = Math.max(1, cacheRows);
+        this.freeCacheRows = this.cacheRows;
+    }
+
+    /**
+     * @return bytes in flight shared by the tables, null if not bounded
+     */
+    public MemoryBudget getMemory() {
+        return memory;
+    }
+
+    /**
+     * Wait for a share of the budget
+     *
+     * @return at least one reader and one writer, at most the numbers asked
+     *         for, and the queue rows asked for capped to the whole budget
+     */
+    public synchronized Grant acquire(int readers, int writers, int rows)
+            throws InterruptedException {
+        int wantedRows = Math.max(1, Math.min(rows, cacheRows));
+        while (freeReaders == 0 || freeWriters == 0
+                || freeCacheRows < wantedRows) {
+            wait();
+        }
+        Grant grant = new Grant(Math.max(1, Math.min(readers, freeReaders)),
+                Math.max(1, Math.min(writers, freeWriters)), wantedRows);
+        freeReaders -= grant.readers;
+        freeWriters -= grant.writers;
+        freeCacheRows -= grant.cacheRows;
+        return grant;
+    }
+
+    /**
+     * @return true if a writer was free and is now held by the caller
+     */
+    public synchronized boolean tryAcquireWriter() {
+        if (freeWriters == 0) {
+            return false;
+        }
+        freeWriters--;
+        return true;
+    }
+
+    public synchronized void releaseWriter() {
+        freeWriters++;
+        notifyAll();
+    }
+
+    /**
+     * Hand back the readers and queue rows of a grant and the writers the
+     * table still holds
+     */
+    public synchronized void release(Grant grant, int writers) {
+        freeReaders += grant.readers;
+        freeWriters += writers;
+        freeCacheRows += grant.cacheRows;
+        notifyAll();
+    }
+}
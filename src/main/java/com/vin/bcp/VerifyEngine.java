@@ -0,0 +1,135 @@
+package com.vin.bcp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.dao.DAO;
+import com.vin.bcp.dao.Partition;
+import com.vin.bcp.util.BatchConfig;
+
+/**
+ * Compares the source and the target without copying. The key space is split
+ * into chunks the way a copy splits its read, and the row count and an order
+ * independent hash of each chunk are computed on both sides in parallel. Only
+ * the chunks that differ are reported, and with drill down the rows of those
+ * chunks are compared key by key
+ *
+ */
+public class VerifyEngine {
+    // keys listed per chunk and kind of difference
+    private static final int MAX_REPORTED_KEYS = 20;
+
+    private Logger logger = LogManager.getLogger(VerifyEngine.class);
+
+    private final BatchConfig config;
+    private List<Partition> mismatches = new ArrayList<>();
+    private volatile boolean completed = false;
+
+    public VerifyEngine(BatchConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * @return true if every chunk was compared
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return the chunks whose rows differ between source and target
+     */
+    public List<Partition> getMismatches() {
+        return mismatches;
+    }
+
+    public void run() {
+        AtomicBoolean isAborted = new AtomicBoolean(false);
+        ChunkComparator comparator = null;
+        try {
+            DAO dao = DAO.INSTANCE;
+            logger.info("Verify of " + config.getSourceDBName() + "."
+                    + config.getSourceTable() + " against "
+                    + config.getTargetDBName() + "." + config.getTargetTable()
+                    + " started");
+            dao.openPool(config.getSourceDBConfig(),
+                    config.getReaderPoolSize(), config.getReaderPoolSize());
+            dao.openPool(config.getTargetDBConfig(), config.getPoolSize(),
+                    config.getPoolSize());
+
+            List<Partition> chunks = chunks(dao, config);
+            comparator = new ChunkComparator(config,
+                    config.getReaderPoolSize(), config.getPoolSize(),
+                    isAborted);
+            mismatches = comparator.differing(chunks);
+
+            String key = dao.keyColumn(config.getSourceDBConfig(),
+                    config.getSourceSplitColumn());
+            if (!mismatches.isEmpty() && config.isVerifyDrillDown()) {
+                if (key == null) {
+                    logger.warn("No key column to drill down into the chunks"
+                            + " that differ");
+                } else {
+                    report(comparator.drillDown(mismatches, key));
+                }
+            }
+
+            completed = !isAborted.get();
+            logger.info("Verified " + comparator.getSourceRows()
+                    + " source rows in " + chunks.size() + " chunks, "
+                    + mismatches.size() + " chunks differ");
+        } catch (Exception e) {
+            isAborted.set(true);
+            logger.fatal(e);
+        } finally {
+            if (comparator != null) {
+                comparator.close();
+            }
+            try {
+                DAO.INSTANCE.closePool(config.getSourceDBConfig());
+                DAO.INSTANCE.closePool(config.getTargetDBConfig());
+            } catch (RuntimeException e) {
+                logger.debug("Connection pools not closed", e);
+            }
+        }
+    }
+
+    /**
+     * @return the chunks of the key space, split the way a copy splits its
+     *         read
+     */
+    static List<Partition> chunks(DAO dao, BatchConfig config) {
+        List<String> predicates = config.isPartitionedRead() ? dao
+                .partitionPredicates(config.getSourceDBConfig(),
+                        config.getSourceSplitColumn(), config.getSplitMode(),
+                        config.getPartitions(), null) : new ArrayList<String>();
+        if (predicates.isEmpty()) {
+            predicates.add(null);
+        }
+        List<Partition> chunks = new ArrayList<>();
+        for (int i = 0; i < predicates.size(); i++) {
+            chunks.add(new Partition(i, predicates.get(i)));
+        }
+        return chunks;
+    }
+
+    private void report(List<ChunkComparator.KeyDiff> diffs) {
+        for (int i = 0; i < diffs.size(); i++) {
+            ChunkComparator.KeyDiff diff = diffs.get(i);
+            logger.warn("Chunk " + mismatches.get(i) + " : "
+                    + diff.missing.size() + " keys missing from the target "
+                    + first(diff.missing) + " ; " + diff.extra.size()
+                    + " keys only in the target " + first(diff.extra) + " ; "
+                    + diff.changed.size() + " keys with other values "
+                    + first(diff.changed));
+        }
+    }
+
+    private static List<Object> first(List<Object> keys) {
+        return keys.subList(0, Math.min(MAX_REPORTED_KEYS, keys.size()));
+    }
+}
@@ -0,0 +1,169 @@
+package com.vin.bcp;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.metrics.CopyMetrics;
+import com.vin.bcp.util.LatencyHistogram;
+
+/**
+ * Scales the writer pool to what the target absorbs. A writer is added while
+ * the queue keeps filling up and the commit latency stays flat, and removed
+ * when the commit latency rises or writes fail on lock conflicts. Writers
+ * check the wanted count between batches and stop when there are too many.
+ *
+ * Tables of a manifest take their writers from a shared budget. A table whose
+ * queue stays empty hands writers back, for the tables that are behind
+ *
+ */
+class WriterScaler extends Thread {
+    private static final long INTERVAL_MILLIS = 5000;
+    // intervals to wait after a change before judging its effect
+    private static final int SETTLE_INTERVALS = 2;
+    // latency within this ratio of the baseline counts as flat
+    private static final double FLAT = 1.25;
+    // latency above this ratio of the baseline counts as risen
+    private static final double RISEN = 1.5;
+
+    private Logger logger = LogManager.getLogger(WriterScaler.class);
+
+    private final CopyMetrics metrics;
+    private final AtomicInteger wanted;
+    private final int min;
+    private final int max;
+    private final ResourceBudget budget;
+    private final Runnable addWriter;
+
+    private long lastCount;
+    private long lastTotal;
+    private long lastConflicts;
+    private int lastDepth;
+    private double baseline = -1;
+    private int settle = SETTLE_INTERVALS;
+
+    /**
+     * @param wanted
+     *            number of writers wanted, raised and lowered by the scaler
+     * @param budget
+     *            budget the writers are taken from, null if not shared
+     * @param addWriter
+     *            starts one more writer
+     */
+    WriterScaler(CopyMetrics metrics, AtomicInteger wanted, int min,
+            int max, ResourceBudget budget, Runnable addWriter) {
+        super("WRITER-SCALER");
+        setDaemon(true);
+        this.metrics = metrics;
+        this.wanted = wanted;
+        this.min = min;
+        this.max = max;
+        this.budget = budget;
+        this.addWriter = addWriter;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!isInterrupted()) {
+                Thread.sleep(INTERVAL_MILLIS);
+                scale();
+            }
+        } catch (InterruptedException e) {
+            // the queue is complete
+        }
+    }
+
+    /**
+     * Stop scaling, the writers left drain the queue
+     */
+    void finish() {
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scale() {
+        LatencyHistogram latency = metrics.getBatchWriteLatency();
+        long count = latency.getCount();
+        long total = latency.getTotal();
+        long conflicts = metrics.getLockConflicts();
+        int depth = metrics.getQueueDepth();
+        int capacity = metrics.getQueueCapacity();
+
+        long commits = count - lastCount;
+        double millis = (commits == 0) ? 0 : (total - lastTotal) / 1000.0
+                / commits;
+        long newConflicts = conflicts - lastConflicts;
+        boolean growing = depth >= capacity / 2 && depth >= lastDepth;
+        boolean drained = depth == 0 && lastDepth == 0;
+        lastCount = count;
+        lastTotal = total;
+        lastConflicts = conflicts;
+        lastDepth = depth;
+
+        int writers = wanted.get();
+        if (newConflicts > 0) {
+            if (writers > min) {
+                change(writers - 1, newConflicts
+                        + " lock conflicts in the last interval");
+            }
+            return;
+        }
+        if (budget != null && drained && writers > min) {
+            change(writers - 1, "queue empty, writer handed back to the "
+                    + "budget");
+            return;
+        }
+        if (commits == 0) {
+            // nothing to judge by
+            return;
+        }
+        if (baseline < 0) {
+            baseline = millis;
+        }
+        if (settle > 0) {
+            settle--;
+            // the latency seen once the last change settled is the
+            // reference for the next one
+            if (settle == 0) {
+                baseline = millis;
+            }
+            return;
+        }
+        if (millis > baseline * RISEN && writers > min) {
+            change(writers - 1, String.format(Locale.ROOT,
+                    "commit latency rose from %.0f to %.0f ms", baseline,
+                    millis));
+        } else if (growing && millis <= baseline * FLAT && writers < max) {
+            change(writers + 1, String.format(Locale.ROOT,
+                    "queue at %d/%d and growing, commit latency flat at "
+                            + "%.0f ms", depth, capacity, millis));
+        }
+    }
+
+    private void change(int writers, String reason) {
+        int previous = wanted.get();
+        if (budget != null) {
+            if (writers > previous && !budget.tryAcquireWriter()) {
+                logger.debug("No free writer in the budget");
+                return;
+            }
+            if (writers < previous) {
+                budget.releaseWriter();
+            }
+        }
+        wanted.set(writers);
+        logger.info("Writer count " + ((writers > previous) ? "raised" : "lowered")
+                + " from " + previous + " to " + writers + " : " + reason);
+        for (int i = previous; i < writers; i++) {
+            addWriter.run();
+        }
+        settle = SETTLE_INTERVALS;
+    }
+}
@@ -0,0 +1,72 @@
+package com.vin.bcp.chunk;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.vin.bcp.dao.RowBatch;
+
+/**
+ * Reads the chunks of an extract, checking each against its index entry and
+ * checksum. Not thread safe, each loader thread has its own
+ *
+ */
+public class ChunkReader {
+    private final ExtractIndex index;
+    private final Inflater inflater = new Inflater();
+    private final CRC32 crc = new CRC32();
+
+    public ChunkReader(ExtractIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * @param spare
+     *            an empty batch to read into if it has the same columns, may be
+     *            null
+     */
+    public RowBatch read(ExtractIndex.Chunk chunk, RowBatch spare)
+            throws IOException {
+        byte[] bytes = new byte[chunk.length];
+        try (RandomAccessFile file = new RandomAccessFile(index.getDir()
+                .resolve(chunk.file).toFile(), "r")) {
+            file.seek(chunk.offset);
+            file.readFully(bytes);
+        }
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(
+                bytes, 0, ChunkWriter.HEADER_BYTES));
+        int magic = header.readInt();
+        int rows = header.readInt();
+        int length = header.readInt();
+        long checksum = header.readLong();
+        if (magic != ChunkWriter.MAGIC || rows != chunk.rows
+                || length != chunk.length - ChunkWriter.HEADER_BYTES
+                || checksum != chunk.crc) {
+            throw new IOException("Chunk header does not match the index "
+                    + chunk);
+        }
+        crc.reset();
+        crc.update(bytes, ChunkWriter.HEADER_BYTES, length);
+        if (crc.getValue() != checksum) {
+            throw new IOException("Checksum mismatch in " + chunk);
+        }
+        inflater.reset();
+        try (DataInputStream data = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(bytes,
+                        ChunkWriter.HEADER_BYTES, length), inflater, 64 * 1024))) {
+            RowBatch batch = RowBatch.readFrom(data, spare);
+            if (batch.size() != rows) {
+                throw new IOException("Row count mismatch in " + chunk);
+            }
+            return batch;
+        }
+    }
+
+    public void close() {
+        inflater.end();
+    }
+}
@@ -0,0 +1,82 @@
+package com.vin.bcp.chunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import com.vin.bcp.dao.RowBatch;
+
+/**
+ * Appends batches as compressed chunks to one data file of an extract. Each
+ * chunk is a header followed by the deflated binary form of the batch:
+ *
+ * <pre>
+ * magic  rows  compressed length  crc32 of the compressed bytes
+ * </pre>
+ *
+ * Not thread safe, each writer thread has its own
+ */
+public class ChunkWriter {
+    static final int MAGIC = 0x42435058;
+    static final int HEADER_BYTES = 20;
+
+    private final ExtractIndex index;
+    private final Path file;
+    private final OutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    private final CRC32 crc = new CRC32();
+    private long offset;
+
+    ChunkWriter(ExtractIndex index, Path file) {
+        this.index = index;
+        this.file = file;
+        try {
+            this.out = Files.newOutputStream(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to create data file " + file,
+                    e);
+        }
+    }
+
+    /**
+     * Write the batch as one chunk
+     *
+     * @return number of rows written
+     */
+    public int write(RowBatch batch) throws IOException {
+        compressed.reset();
+        deflater.reset();
+        try (DataOutputStream data = new DataOutputStream(
+                new DeflaterOutputStream(compressed, deflater, 64 * 1024))) {
+            batch.writeTo(data);
+        }
+        byte[] bytes = compressed.toByteArray();
+        crc.reset();
+        crc.update(bytes, 0, bytes.length);
+
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(batch.size());
+        header.writeInt(bytes.length);
+        header.writeLong(crc.getValue());
+        out.write(bytes);
+
+        int length = HEADER_BYTES + bytes.length;
+        index.chunkWritten(file.getFileName().toString(), offset, length,
+                batch.size(), crc.getValue(), batch.getPartition());
+        offset += length;
+        return batch.size();
+    }
+
+    public void close() throws IOException {
+        deflater.end();
+        out.close();
+    }
+}
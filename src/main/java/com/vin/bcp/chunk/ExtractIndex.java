@@ -0,0 +1,259 @@
+package com.vin.bcp.chunk;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vin.bcp.dao.Partition;
+import com.vin.bcp.dao.Watermark;
+import com.vin.bcp.util.WatermarkStore;
+
+/**
+ * Index of an extract directory. It lists the source partitions the extract
+ * was read with and every chunk written, and is marked complete once the
+ * extract finished. Lines are tab separated:
+ *
+ * <pre>
+ * EXTRACT   source table
+ * WATERMARK column  low  high
+ * PARTITION id  predicate
+ * CHUNK     file  offset  length  rows  crc  partition
+ * COMPLETE  chunks  rows
+ * </pre>
+ */
+public class ExtractIndex {
+    public static final String INDEX_FILE = "extract.index";
+
+    private static final String EXTRACT = "EXTRACT";
+    private static final String WATERMARK = "WATERMARK";
+    private static final String PARTITION = "PARTITION";
+    private static final String CHUNK = "CHUNK";
+    private static final String COMPLETE = "COMPLETE";
+    private static final String NULL = "";
+
+    private final Path dir;
+    private String sourceTable;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final Map<Integer, Partition> partitions = new HashMap<>();
+    private BufferedWriter out;
+    private int files;
+    private long rows;
+    private boolean complete;
+
+    /**
+     * A chunk of rows in a data file of the extract
+     */
+    public static class Chunk {
+        public final int id;
+        public final String file;
+        public final long offset;
+        public final int length;
+        public final int rows;
+        public final long crc;
+        public final int partition;
+
+        Chunk(int id, String file, long offset, int length, int rows,
+                long crc, int partition) {
+            this.id = id;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.rows = rows;
+            this.crc = crc;
+            this.partition = partition;
+        }
+
+        /**
+         * @return the chunk as a name unique within the extract
+         */
+        public String key() {
+            return file + "@" + offset;
+        }
+
+        @Override
+        public String toString() {
+            return "[ CHUNK " + id + " = " + key() + ", " + rows + " rows ]";
+        }
+    }
+
+    private ExtractIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Start the index of a new extract, replacing any extract in the directory
+     */
+    public static ExtractIndex create(String dir, String sourceTable) {
+        ExtractIndex index = new ExtractIndex(Paths.get(dir));
+        try {
+            Files.createDirectories(index.dir);
+            // data files of an earlier extract are not part of this one
+            try (DirectoryStream<Path> old = Files.newDirectoryStream(
+                    index.dir, "chunks-*.bcpx")) {
+                for (Path file : old) {
+                    Files.delete(file);
+                }
+            }
+            index.sourceTable = sourceTable;
+            index.out = Files.newBufferedWriter(index.dir.resolve(INDEX_FILE),
+                    StandardCharsets.UTF_8);
+            index.append(EXTRACT + "\t" + sourceTable);
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to create extract index in "
+                    + dir, e);
+        }
+        return index;
+    }
+
+    /**
+     * Read the index of a complete extract
+     */
+    public static ExtractIndex load(String dir) {
+        ExtractIndex index = new ExtractIndex(Paths.get(dir));
+        Watermark watermark = null;
+        try {
+            for (String line : Files.readAllLines(
+                    index.dir.resolve(INDEX_FILE), StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t", -1);
+                switch (fields[0]) {
+                case EXTRACT:
+                    index.sourceTable = fields[1];
+                    break;
+                case WATERMARK:
+                    watermark = new Watermark(fields[1],
+                            WatermarkStore.parse(nullable(fields[2])),
+                            WatermarkStore.parse(nullable(fields[3])));
+                    break;
+                case PARTITION:
+                    int id = Integer.parseInt(fields[1]);
+                    index.partitions.put(id, new Partition(id,
+                            nullable(fields[2]), watermark));
+                    break;
+                case CHUNK:
+                    index.chunks.add(new Chunk(index.chunks.size(),
+                            fields[1], Long.parseLong(fields[2]), Integer
+                                    .parseInt(fields[3]), Integer
+                                    .parseInt(fields[4]), Long
+                                    .parseLong(fields[5]), Integer
+                                    .parseInt(fields[6])));
+                    break;
+                case COMPLETE:
+                    index.complete = true;
+                    break;
+                default:
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new RuntimeException("Not able to read extract index in "
+                    + dir, e);
+        }
+        if (!index.complete) {
+            throw new RuntimeException("Extract in " + dir
+                    + " did not complete");
+        }
+        return index;
+    }
+
+    /**
+     * Record the partitions the source is read with
+     */
+    public synchronized void writePlan(List<Partition> plan) {
+        if (!plan.isEmpty() && plan.get(0).watermark != null) {
+            Watermark watermark = plan.get(0).watermark;
+            append(WATERMARK + "\t" + watermark.column + "\t"
+                    + text(WatermarkStore.format(watermark.low)) + "\t"
+                    + text(WatermarkStore.format(watermark.high)));
+        }
+        for (Partition partition : plan) {
+            append(PARTITION + "\t" + partition.id + "\t"
+                    + text(partition.predicate));
+        }
+    }
+
+    /**
+     * @return a writer of chunks into a data file of its own
+     */
+    public synchronized ChunkWriter newWriter() {
+        String file = String.format("chunks-%03d.bcpx", ++files);
+        return new ChunkWriter(this, dir.resolve(file));
+    }
+
+    synchronized void chunkWritten(String file, long offset, int length,
+            int rows, long crc, int partition) {
+        append(CHUNK + "\t" + file + "\t" + offset + "\t" + length + "\t"
+                + rows + "\t" + crc + "\t" + partition);
+        chunks.add(new Chunk(chunks.size(), file, offset, length, rows, crc,
+                partition));
+        this.rows += rows;
+    }
+
+    /**
+     * Mark the extract complete, once every data file is closed
+     */
+    public synchronized void complete() {
+        append(COMPLETE + "\t" + chunks.size() + "\t" + rows);
+        complete = true;
+        close();
+    }
+
+    public synchronized void close() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to write extract index in "
+                    + dir, e);
+        } finally {
+            out = null;
+        }
+    }
+
+    public List<Chunk> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return the source partition the chunk was read from
+     */
+    public Partition getPartition(int id) {
+        return partitions.get(id);
+    }
+
+    public String getSourceTable() {
+        return sourceTable;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    private void append(String line) {
+        try {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to write extract index in "
+                    + dir, e);
+        }
+    }
+
+    private static String text(String value) {
+        return (value == null) ? NULL : value;
+    }
+
+    private static String nullable(String value) {
+        return NULL.equals(value) ? null : value;
+    }
+}
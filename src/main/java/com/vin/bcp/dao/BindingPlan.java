@@ -0,0 +1,492 @@
+package com.vin.bcp.dao;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Binds the rows of a batch to the parameters of the target statement with
+ * one typed binder per column. The binders are chosen once from the source
+ * column types and the target parameter types, so the conversions between
+ * the source and target types are known ahead of time and no value goes
+ * through setObject unless no typed setter fits
+ *
+ */
+class BindingPlan {
+    private static Logger logger = LogManager.getLogger(BindingPlan.class);
+
+    private final int[] sourceTypes;
+    private final int[] targetTypes;
+    private final Binder[] binders;
+
+    /**
+     * Sets one non null value of a batch column
+     */
+    private static abstract class Binder {
+        private final String name;
+
+        Binder(String name) {
+            this.name = name;
+        }
+
+        abstract void bind(PreparedStatement ps, int position, RowBatch batch,
+                int row, int column, int targetType) throws SQLException;
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private BindingPlan(int[] sourceTypes, int[] targetTypes) {
+        this.sourceTypes = sourceTypes;
+        this.targetTypes = targetTypes;
+        this.binders = new Binder[sourceTypes.length];
+        for (int i = 0; i < binders.length; i++) {
+            binders[i] = binder(sourceTypes[i], targetTypes[i]);
+        }
+    }
+
+    /**
+     * Compile the plan of the batch columns, taking the target types from the
+     * parameters of the statement. The source types are used for the target
+     * when the driver does not describe the parameters
+     */
+    static BindingPlan compile(PreparedStatement ps, RowBatch batch) {
+        int columnCount = batch.getColumnCount();
+        int[] sourceTypes = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            sourceTypes[i] = batch.getType(i);
+        }
+        int[] targetTypes = sourceTypes.clone();
+        try {
+            ParameterMetaData pmd = ps.getParameterMetaData();
+            if (pmd != null && pmd.getParameterCount() >= columnCount) {
+                for (int i = 0; i < columnCount; i++) {
+                    targetTypes[i] = pmd.getParameterType(i + 1);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            logger.debug("Target parameter types not available, binding with "
+                    + "the source types", e);
+            targetTypes = sourceTypes.clone();
+        }
+        BindingPlan plan = new BindingPlan(sourceTypes, targetTypes);
+        logger.info("[ BINDING PLAN = " + plan + " ]");
+        return plan;
+    }
+
+    /**
+     * @return true if the plan was compiled for the columns of the batch
+     */
+    boolean matches(RowBatch batch) {
+        if (batch.getColumnCount() != sourceTypes.length) {
+            return false;
+        }
+        for (int i = 0; i < sourceTypes.length; i++) {
+            if (batch.getType(i) != sourceTypes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Bind a row of the batch to the parameters of the statement, starting
+     * after the given number of parameters
+     */
+    void bindRow(PreparedStatement ps, RowBatch batch, int row, int offset)
+            throws SQLException {
+        for (int i = 0; i < binders.length; i++) {
+            int position = offset + i + 1;
+            if (batch.isNull(row, i)) {
+                ps.setNull(position, targetTypes[i]);
+            } else {
+                binders[i].bind(ps, position, batch, row, i, targetTypes[i]);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < binders.length; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            text.append(i + 1).append(":").append(binders[i]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the binder setting a value read as the source type into a
+     *         parameter of the target type
+     */
+    private static Binder binder(int sourceType, int targetType) {
+        switch (sourceType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+            if (isDecimal(targetType)) {
+                return INT_AS_DECIMAL;
+            } else if (isText(targetType)) {
+                return INT_AS_STRING;
+            } else if (targetType == Types.BIGINT) {
+                return INT_AS_LONG;
+            }
+            return INT;
+        case Types.BIGINT:
+            if (isDecimal(targetType)) {
+                return LONG_AS_DECIMAL;
+            } else if (isText(targetType)) {
+                return LONG_AS_STRING;
+            }
+            return LONG;
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+            return isDecimal(targetType) ? DOUBLE_AS_DECIMAL : DOUBLE;
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+            if (targetType == Types.DOUBLE || targetType == Types.FLOAT
+                    || targetType == Types.REAL) {
+                return DECIMAL_AS_DOUBLE;
+            }
+            return DECIMAL;
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.NCHAR:
+        case Types.NVARCHAR:
+            return STRING;
+        case Types.LONGVARCHAR:
+        case Types.LONGNVARCHAR:
+        case Types.CLOB:
+        case Types.NCLOB:
+            return CHARACTER_STREAM;
+        case Types.TIMESTAMP:
+            return (targetType == Types.DATE) ? TIMESTAMP_AS_DATE : TIMESTAMP;
+        case Types.DATE:
+            return (targetType == Types.TIMESTAMP) ? DATE_AS_TIMESTAMP : DATE;
+        case Types.TIME:
+            return TIME;
+        case Types.BINARY:
+        case Types.VARBINARY:
+            return BYTES;
+        case Types.LONGVARBINARY:
+        case Types.BLOB:
+            return BINARY_STREAM;
+        case Types.BIT:
+        case Types.BOOLEAN:
+            // DB2 before 11.1 has no boolean, Sybase bit goes to a small
+            // integer column
+            return (targetType == Types.BIT || targetType == Types.BOOLEAN) ? BOOLEAN
+                    : BOOLEAN_AS_INT;
+        default:
+            return OBJECT;
+        }
+    }
+
+    private static boolean isDecimal(int type) {
+        return type == Types.DECIMAL || type == Types.NUMERIC;
+    }
+
+    private static boolean isText(int type) {
+        return type == Types.CHAR || type == Types.VARCHAR
+                || type == Types.NCHAR || type == Types.NVARCHAR;
+    }
+
+    private static final Binder INT = new Binder("setInt") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            ps.setInt(position, batch.getInt(row, column));
+        }
+    };
+
+    private static final Binder INT_AS_LONG = new Binder("setLong") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            ps.setLong(position, batch.getInt(row, column));
+        }
+    };
+
+    private static final Binder INT_AS_DECIMAL = new Binder("setBigDecimal") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            ps.setBigDecimal(position,
+                    BigDecimal.valueOf(batch.getInt(row, column)));
+        }
+    };
+
+    private static final Binder INT_AS_STRING = new Binder("setString") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            ps.setString(position, Integer.toString(batch.getInt(row, column)));
+        }
+    };
+
+    private static final Binder LONG = new Binder("setLong") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            ps.setLong(position, batch.getLong(row, column));
+        }
+    };
+
+    private static final Binder LONG_AS_DECIMAL = new Binder("setBigDecimal") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            ps.setBigDecimal(position,
+                    BigDecimal.valueOf(batch.getLong(row, column)));
+        }
+    };
+
+    private static final Binder LONG_AS_STRING = new Binder("setString") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            ps.setString(position, Long.toString(batch.getLong(row, column)));
+        }
+    };
+
+    private static final Binder DOUBLE = new Binder("setDouble") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            ps.setDouble(position, batch.getDouble(row, column));
+        }
+    };
+
+    private static final Binder DOUBLE_AS_DECIMAL = new Binder("setBigDecimal") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            ps.setBigDecimal(position,
+                    BigDecimal.valueOf(batch.getDouble(row, column)));
+        }
+    };
+
+    // the binders below fall back to setObject when the driver of the source
+    // returned another class than the one of its column type
+
+    private static final Binder DECIMAL = new Binder("setBigDecimal") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof BigDecimal) {
+                ps.setBigDecimal(position, (BigDecimal) value);
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static final Binder DECIMAL_AS_DOUBLE = new Binder("setDouble") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof Number) {
+                ps.setDouble(position, ((Number) value).doubleValue());
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static final Binder STRING = new Binder("setString") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof String) {
+                ps.setString(position, (String) value);
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static final Binder TIMESTAMP = new Binder("setTimestamp") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof Timestamp) {
+                ps.setTimestamp(position, (Timestamp) value);
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static final Binder TIMESTAMP_AS_DATE = new Binder("setDate") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof Timestamp) {
+                ps.setDate(position,
+                        new Date(((Timestamp) value).getTime()));
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static final Binder DATE = new Binder("setDate") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof Date) {
+                ps.setDate(position, (Date) value);
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static final Binder DATE_AS_TIMESTAMP = new Binder("setTimestamp") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof Date) {
+                ps.setTimestamp(position,
+                        new Timestamp(((Date) value).getTime()));
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static final Binder TIME = new Binder("setTime") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof Time) {
+                ps.setTime(position, (Time) value);
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static final Binder BYTES = new Binder("setBytes") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof byte[]) {
+                ps.setBytes(position, (byte[]) value);
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    // LOB values staged in files are streamed, the int length setters being
+    // the ones every driver implements
+
+    private static final Binder BINARY_STREAM = new Binder("setBinaryStream") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof LobValue) {
+                LobValue lob = (LobValue) value;
+                try {
+                    ps.setBinaryStream(position, lob.openStream(),
+                            length(lob));
+                } catch (IOException e) {
+                    throw new SQLException("Not able to read " + lob, e);
+                }
+            } else if (value instanceof byte[]) {
+                ps.setBytes(position, (byte[]) value);
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static final Binder CHARACTER_STREAM = new Binder(
+            "setCharacterStream") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof LobValue) {
+                LobValue lob = (LobValue) value;
+                try {
+                    ps.setCharacterStream(position, lob.openReader(),
+                            length(lob));
+                } catch (IOException e) {
+                    throw new SQLException("Not able to read " + lob, e);
+                }
+            } else if (value instanceof String) {
+                ps.setString(position, (String) value);
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static int length(LobValue lob) throws SQLException {
+        if (lob.getLength() > Integer.MAX_VALUE) {
+            throw new SQLException("Not able to bind " + lob
+                    + ", larger than 2 GB");
+        }
+        return (int) lob.getLength();
+    }
+
+    private static final Binder BOOLEAN = new Binder("setBoolean") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof Boolean) {
+                ps.setBoolean(position, (Boolean) value);
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static final Binder BOOLEAN_AS_INT = new Binder("setInt") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            Object value = batch.value(row, column);
+            if (value instanceof Boolean) {
+                ps.setInt(position, ((Boolean) value) ? 1 : 0);
+            } else {
+                ps.setObject(position, value, targetType);
+            }
+        }
+    };
+
+    private static final Binder OBJECT = new Binder("setObject") {
+        @Override
+        void bind(PreparedStatement ps, int position, RowBatch batch, int row,
+                int column, int targetType) throws SQLException {
+            ps.setObject(position, batch.value(row, column), targetType);
+        }
+    };
+}
@@ -0,0 +1,187 @@
+package com.vin.bcp.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.util.DBConfig;
+
+/**
+ * Bounded pool of connections to one database. Connections are validated only
+ * after they have been idle for a while, and a connection that failed is
+ * discarded instead of being returned to the pool
+ *
+ */
+class ConnectionPool {
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 30000;
+    private static final long BORROW_TIMEOUT_MINUTES = 10;
+
+    private Logger logger = LogManager.getLogger(ConnectionPool.class);
+
+    private final DBConfig config;
+    private final Semaphore permits;
+    private int maxSize;
+    // most recently used connection is borrowed first
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private volatile boolean closed = false;
+
+    ConnectionPool(DBConfig config, int maxSize) {
+        this.config = config;
+        this.permits = new Semaphore(maxSize, true);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Raise the most connections of the pool to the size, a pool is never
+     * shrunk
+     */
+    synchronized void grow(int size) {
+        if (size > maxSize) {
+            permits.release(size - maxSize);
+            logger.debug("Connection pool grown from " + maxSize + " to "
+                    + size + " connections");
+            maxSize = size;
+        }
+    }
+
+    PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new IllegalStateException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(BORROW_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                throw new SQLException("No connection available after "
+                        + BORROW_TIMEOUT_MINUTES + " minutes");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a connection", e);
+        }
+        try {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null) {
+                if (isUsable(pc)) {
+                    return pc;
+                }
+                logger.debug("Discard stale database connection");
+                pc.close();
+            }
+            return open();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    void release(PooledConnection pc) {
+        pc.lastUsed = System.currentTimeMillis();
+        if (closed) {
+            pc.close();
+        } else {
+            idle.offerFirst(pc);
+        }
+        permits.release();
+    }
+
+    /**
+     * Close a connection that failed instead of returning it to the pool
+     */
+    void discard(PooledConnection pc) {
+        pc.close();
+        permits.release();
+    }
+
+    /**
+     * Open connections ahead of time so that threads do not wait on
+     * connection setup when the job starts
+     */
+    synchronized void warmUp(int count) {
+        // connections in use count against the pool size, a pool shared by
+        // several jobs is not opened beyond it
+        int size = Math.min(count, permits.availablePermits()) - idle.size();
+        if (size <= 0) {
+            return;
+        }
+        ExecutorService opener = Executors.newFixedThreadPool(size);
+        List<Future<PooledConnection>> opened = new ArrayList<>();
+        try {
+            for (int i = 0; i < size; i++) {
+                opened.add(opener.submit(new Callable<PooledConnection>() {
+                    @Override
+                    public PooledConnection call() throws SQLException {
+                        return open();
+                    }
+                }));
+            }
+            List<PooledConnection> connections = new ArrayList<>();
+            for (Future<PooledConnection> future : opened) {
+                connections.add(future.get());
+            }
+            idle.addAll(connections);
+            logger.info("Opened " + size + " connections to "
+                    + config.dbServerName + "/" + config.dbName);
+        } catch (Exception e) {
+            closeOpened(opened);
+            throw new RuntimeException("Connection pool warm up failed", e);
+        } finally {
+            opener.shutdown();
+        }
+    }
+
+    /**
+     * Close the connections a failed warm up opened, waiting for those still
+     * being opened
+     */
+    private void closeOpened(List<Future<PooledConnection>> opened) {
+        for (Future<PooledConnection> future : opened) {
+            try {
+                future.get().close();
+            } catch (ExecutionException e) {
+                // not opened
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+            }
+        }
+    }
+
+    void close() {
+        closed = true;
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            pc.close();
+        }
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        if (System.currentTimeMillis() - pc.lastUsed < VALIDATE_AFTER_IDLE_MILLIS) {
+            return true;
+        }
+        try {
+            return pc.connection.isValid(config.connValidTimeout);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        logger.debug("Establish a new database connection");
+        PooledConnection pc = new PooledConnection(
+                DAO.INSTANCE.getDBConnection(config));
+        if (config.isolation >= 0) {
+            pc.connection.setTransactionIsolation(config.isolation);
+        }
+        return pc;
+    }
+}
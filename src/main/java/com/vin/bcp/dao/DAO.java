@@ -1,22 +1,30 @@
 package com.vin.bcp.dao;
 
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientException;
+import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.vin.bcp.metrics.CopyMetrics;
+import com.vin.bcp.queue.BatchPublisher;
+import com.vin.bcp.util.BatchSizer;
 import com.vin.bcp.util.DBConfig;
 
 /**
@@ -26,41 +34,174 @@ import com.vin.bcp.util.DBConfig;
 public enum DAO {
     INSTANCE;
     private Logger logger = LogManager.getLogger(DAO.class);
-    private ThreadLocal<Map<String, Object>> cache = new ThreadLocal<>();
-    private static final String FETCH_PS = "fetchPS";
-    private static final String WRITE_PS = "writePS";
+    private static final int DEFAULT_POOL_SIZE = 16;
+    private static final int DIGEST_BATCH_SIZE = 1024;
+    private static final int DELETE_BATCH_SIZE = 1000;
+    // one pool per database url and user, shared by all threads
+    private Map<String, ConnectionPool> pools = new ConcurrentHashMap<>();
+    // one writer per target configuration, holding its cached statements
+    // until the pool of the configuration is closed
+    private Map<DBConfig, TargetWriter> writers = new ConcurrentHashMap<>();
 
-    public int fetchData(DBConfig config,
-            BlockingQueue<List<Column>> dataQueue, AtomicInteger recordsRead,
-            AtomicBoolean isAborted) {
+    /**
+     * Open the connection pool of a database and warm it up
+     * 
+     * @param size
+     *            maximum number of connections, also the number opened
+     *            ahead of time
+     */
+    public void openPool(DBConfig config, int size) {
+        openPool(config, size, size);
+    }
+
+    /**
+     * Open the connection pool of a database and warm up part of it. The
+     * source and the target have pools of their own, a pool already open for
+     * the same role is grown to the size
+     * 
+     * @param size
+     *            maximum number of connections
+     * @param warm
+     *            number of connections opened ahead of time
+     */
+    public void openPool(DBConfig config, int size, int warm) {
+        String key = poolKey(config);
+        ConnectionPool pool;
+        synchronized (pools) {
+            pool = pools.get(key);
+            if (pool == null) {
+                pool = new ConnectionPool(config, size);
+                pools.put(key, pool);
+            } else {
+                // a pool opened by an earlier caller, with fewer connections
+                pool.grow(size);
+            }
+        }
+        pool.warmUp(warm);
+    }
+
+    /**
+     * Close the connection pool of a database, and forget the writer of its
+     * configuration. Connections in use are closed as they are released
+     */
+    public void closePool(DBConfig config) {
+        writers.remove(config);
+        ConnectionPool pool = pools.remove(poolKey(config));
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Close the connection pools of all databases
+     */
+    public void closePools() {
+        synchronized (pools) {
+            for (ConnectionPool pool : pools.values()) {
+                pool.close();
+            }
+            pools.clear();
+        }
+        writers.clear();
+    }
+
+    private ConnectionPool getPool(DBConfig config) {
+        String key = poolKey(config);
+        ConnectionPool pool = pools.get(key);
+        if (pool == null) {
+            synchronized (pools) {
+                pool = pools.get(key);
+                if (pool == null) {
+                    pool = new ConnectionPool(config, DEFAULT_POOL_SIZE);
+                    pools.put(key, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    private String poolKey(DBConfig config) {
+        // the source and the target of a copy within one database each get
+        // a pool of their own, sized and set up for their role
+        return getJdbcUrl(config) + ";user=" + config.dbUserId + ";role="
+                + config.role + ";isolation=" + config.isolation;
+    }
+
+    /**
+     * Read the rows of one partition of the source into the queue
+     * 
+     * @param sizer
+     *            number of rows in each batch put into the queue
+     * @param lobs
+     *            stager the LOB columns are streamed through, null to read
+     *            them with getObject
+     * @return number of rows read
+     */
+    public int fetchData(DBConfig config, Partition partition,
+            BatchPublisher dataQueue, BatchSizer sizer, LobStager lobs,
+            CopyMetrics metrics, AtomicBoolean isAborted) {
         int rowCount = 0;
+        ConnectionPool pool = getPool(config);
+        PooledConnection source = null;
+        boolean failed = true;
         try {
-            String sql = sourceSql(config);
+            String sql = sourceSql(config, partition.where());
 
-            Map<String, Object> cached = getCached();
-            PreparedStatement ps = getFetchPS(cached, FETCH_PS, config, sql);
+            source = pool.borrow();
+            PreparedStatement ps = getFetchPS(source, config, sql);
+            partition.bind(ps);
 
             logger.info("Fetch SQL --> " + sql);
             logger.trace("Execute Query");
-            ResultSet rs = ps.executeQuery();
-            logger.trace("Execute Metadata");
-            ResultSetMetaData rsmd = rs.getMetaData();
-
-            // isAborted will convey whether the job is aborted
-            // No need to read data if aborted
-            while (rs.next() && !isAborted.get()) {
-                rowCount++;
-                List<Column> row = new ArrayList<Column>(rsmd.getColumnCount());
-                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-                    row.add(new Column(i, rs.getObject(i), rsmd
-                            .getColumnType(i)));
+            try (ResultSet rs = ps.executeQuery()) {
+                logger.trace("Execute Metadata");
+                // column metadata is read once per query
+                // batches are allocated at the largest size so that they can
+                // be reused whatever the current batch size
+                RowBatch batch = new RowBatch(
+                        RowBatch.columnTypes(rs.getMetaData()),
+                        sizer.getMaxBatchSize());
+                batch.setPartition(partition.id);
+                batch.setLobStager(lobs);
+                int key = (partition.keys == null) ? -1 : columnIndex(
+                        rs.getMetaData(), partition.keyColumn, config);
+
+                // isAborted will convey whether the job is aborted
+                // No need to read data if aborted
+                while (rs.next() && !isAborted.get()) {
+                    batch.readRow(rs);
+                    if (key >= 0
+                            && !partition.keys.contains(PartitionDigest
+                                    .normalize(batch.getObject(
+                                            batch.size() - 1, key)))) {
+                        // a row of a key left out of the partition
+                        batch.removeLast();
+                        continue;
+                    }
+                    rowCount++;
+                    // wide rows fill a batch by bytes before they fill it
+                    // by rows
+                    if (batch.size() >= sizer.getBatchSize()
+                            || batch.getBytes() >= sizer.getMaxBatchBytes()) {
+                        metrics.rowsRead(batch.size());
+                        batch = publish(dataQueue, batch, metrics);
+                        batch.setPartition(partition.id);
+                        batch.setLobStager(lobs);
+                        logger.trace("Read " + rowCount + " rows");
+                    }
+                }
+                if (batch.size() > 0) {
+                    metrics.rowsRead(batch.size());
+                    publish(dataQueue, batch, metrics);
                 }
-                dataQueue.put(row);
-                recordsRead.incrementAndGet();
-                logger.trace("Read " + rowCount + " row --> " + row);
+            } finally {
+                // fetch statements are not cached, each partition has its
+                // own sql
+                ps.close();
             }
 
             logger.debug("Total rows = " + rowCount);
+            failed = false;
         } catch (SQLException e) {
             SQLException roote = e.getNextException();
             while (roote != null) {
@@ -70,45 +211,171 @@ public enum DAO {
             logger.error("Database exception occurred", e);
             throw new RuntimeException(e);
         } catch (InterruptedException e) {
-            logger.error("Data queue interaction interrupted", e);
+            // a reader waiting on the queue is interrupted when the job is
+            // aborted
+            if (!isAborted.get()) {
+                logger.error("Data queue interaction interrupted", e);
+            }
             throw new RuntimeException(e);
+        } finally {
+            if (source != null) {
+                // end the read transaction before the connection is reused
+                rollbackQuietly(source);
+                giveBack(pool, source, failed);
+            }
         }
         return rowCount;
     }
 
-    public int writeToTarget(DBConfig config, List<List<Column>> recordset,
-            AtomicBoolean isAborted) {
+    /**
+     * Publish the batch and return the next batch to fill, reusing the one
+     * handed back by the queue when possible
+     */
+    private RowBatch publish(BatchPublisher dataQueue, RowBatch batch,
+            CopyMetrics metrics) throws InterruptedException {
+        long start = System.nanoTime();
+        RowBatch recycled = dataQueue.publish(batch);
+        metrics.readerBlocked(System.nanoTime() - start);
+        return batch.isCompatible(recycled) ? recycled : batch.newBatch();
+    }
+
+    public int writeToTarget(DBConfig config, RowBatch batch,
+            CopyMetrics metrics, AtomicBoolean isAborted) {
 
+        ConnectionPool pool = getPool(config);
+        PooledConnection target = null;
+        boolean failed = true;
         try {
-            Map<String, Object> cached = getCached();
-            Connection target = getConnection(cached, config,
-                    WRITE_PS + "Conn", false);
-            String sql = targetSql(config, recordset.get(0).size());
-            PreparedStatement ps = getCachedPS(cached, WRITE_PS, config, sql);
-            ps.setQueryTimeout(600); // 10 minute timeout for query execution
-
-            for (List<Column> list : recordset) {
-                // In multi-threaded world, check the job abortion flag
-                if (isAborted.get()) {
-                    ps.clearBatch();
-                    throw new RuntimeException("DB write aborted");
+            target = pool.borrow();
+            target.setAutoCommit(false);
+            long start = System.nanoTime();
+            int rows = getWriter(config).write(target, batch, isAborted);
+            long written = System.nanoTime();
+            target.connection.commit();
+            metrics.executeBatch(written - start);
+            metrics.commit(System.nanoTime() - written);
+            failed = false;
+            return rows;
+        } catch (SQLException e) {
+            if (isLockConflict(e)) {
+                metrics.lockConflict();
+            }
+            SQLException roote = e.getNextException();
+            while (roote != null) {
+                e = roote;
+                roote = e.getNextException();
+            }
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (target != null) {
+                if (failed) {
+                    rollbackQuietly(target);
+                }
+                giveBack(pool, target, failed);
+            }
+        }
+    }
+
+    /**
+     * @return true if the write failed on a deadlock, a lock or query timeout
+     *         or a broken connection, so that the same rows may be written
+     *         when tried again
+     */
+    public boolean isTransient(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                SQLException e = (SQLException) cause;
+                if (isLockConflict(e)) {
+                    return true;
                 }
-                for (Column column : list) {
-                    ps.setObject(column.position, column.value, column.type);
+                for (SQLException next = e; next != null; next = next
+                        .getNextException()) {
+                    if (next instanceof SQLTransientException
+                            || next instanceof SQLRecoverableException
+                            || (next.getSQLState() != null && next
+                                    .getSQLState().startsWith("08"))) {
+                        return true;
+                    }
                 }
-                ps.addBatch();
             }
+        }
+        return false;
+    }
 
-            int[] rows = ps.executeBatch();
-            target.commit();
-            ps.clearBatch();
-            if (rows.length > 1) {
-                return rows.length;
-            } else if ((rows.length == 1) && (rows[0] > 0)) {
-                return rows[0];
+    /**
+     * @return true if the exception, or one chained to it, is a deadlock or a
+     *         lock wait timeout
+     */
+    private boolean isLockConflict(SQLException e) {
+        for (SQLException next = e; next != null; next = next
+                .getNextException()) {
+            String state = next.getSQLState();
+            if (next instanceof SQLTimeoutException
+                    || (state != null && (state.startsWith("40")
+                            || "57033".equals(state) || "HYT00"
+                                .equals(state)))
+                    // Sybase deadlock and lock wait timeout
+                    || next.getErrorCode() == 1205
+                    || next.getErrorCode() == 12205) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the rows of a partition into a digest of their count and hash.
+     * The partition predicate is applied to a target table as is
+     * 
+     * @param isTarget
+     *            true to read the target table rather than the source
+     * @param keyColumn
+     *            column whose values key the rows of a drill down digest,
+     *            null for a digest of the whole partition only
+     */
+    public PartitionDigest digest(DBConfig config, boolean isTarget,
+            Partition partition, String keyColumn, AtomicBoolean isAborted) {
+        ConnectionPool pool = getPool(config);
+        PooledConnection conn = null;
+        boolean failed = true;
+        try {
+            String sql;
+            if (isTarget) {
+                sql = "SELECT "
+                        + ((config.columns == null) ? "*" : config.columns)
+                        + " FROM " + config.table;
+                if (partition.where() != null) {
+                    sql += " WHERE " + partition.where();
+                }
             } else {
-                return recordset.size();
+                sql = sourceSql(config, partition.where());
             }
+            logger.debug("[ DIGEST SQL = " + sql + " ]");
+
+            conn = pool.borrow();
+            PreparedStatement ps = getFetchPS(conn, config, sql);
+            partition.bind(ps);
+            PartitionDigest digest = new PartitionDigest(keyColumn != null);
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData rsmd = rs.getMetaData();
+                int key = (keyColumn == null) ? -1 : columnIndex(rsmd,
+                        keyColumn, config);
+                // rows are hashed a batch at a time, as read by the copy
+                RowBatch batch = new RowBatch(RowBatch.columnTypes(rsmd),
+                        DIGEST_BATCH_SIZE);
+                while (rs.next() && !isAborted.get()) {
+                    batch.readRow(rs);
+                    if (batch.isFull()) {
+                        hash(digest, batch, key);
+                    }
+                }
+                hash(digest, batch, key);
+            } finally {
+                ps.close();
+            }
+            failed = false;
+            return digest;
         } catch (SQLException e) {
             SQLException roote = e.getNextException();
             while (roote != null) {
@@ -117,132 +384,888 @@ public enum DAO {
             }
             logger.error("Database exception occurred", e);
             throw new RuntimeException(e);
+        } finally {
+            if (conn != null) {
+                rollbackQuietly(conn);
+                giveBack(pool, conn, failed);
+            }
         }
     }
 
-    private String sourceSql(DBConfig config) {
-        if (config.sql == null) {
-            StringBuilder sql = new StringBuilder("SELECT ");
-            if (null != config.columns) {
-                sql.append(config.columns).append(" ");
+    /**
+     * @return index from 0 of the column in the result set
+     */
+    private int columnIndex(ResultSetMetaData rsmd, String column,
+            DBConfig config) throws SQLException {
+        for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+            if (column.equalsIgnoreCase(rsmd.getColumnLabel(i))) {
+                return i - 1;
+            }
+        }
+        throw new RuntimeException("Key column " + column
+                + " is not selected from " + config.table);
+    }
+
+    /**
+     * Delete the rows of the given keys from the target in one transaction.
+     * A null key deletes the rows whose key is null
+     * 
+     * @param values
+     *            values of the key column as read from the target
+     * @return number of rows deleted
+     */
+    public int deleteKeys(DBConfig config, String keyColumn,
+            List<Object> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        ConnectionPool pool = getPool(config);
+        PooledConnection target = null;
+        boolean failed = true;
+        try {
+            target = pool.borrow();
+            target.setAutoCommit(false);
+            String sql = "DELETE FROM " + config.table + " WHERE "
+                    + keyColumn + " = ?";
+            logger.info("Delete SQL --> " + sql + " ; " + values.size()
+                    + " keys");
+            int rows = 0;
+            // key = ? never matches a null key
+            List<Object> keys = new ArrayList<>(values);
+            if (keys.removeAll(Collections.singleton(null))) {
+                String nullSql = "DELETE FROM " + config.table + " WHERE "
+                        + keyColumn + " IS NULL";
+                logger.info("Delete SQL --> " + nullSql);
+                rows += target.prepare(nullSql).executeUpdate();
+            }
+            PreparedStatement ps = target.prepare(sql);
+            try {
+                for (int i = 0; i < keys.size(); i++) {
+                    ps.setObject(1, keys.get(i));
+                    ps.addBatch();
+                    if ((i + 1) % DELETE_BATCH_SIZE == 0
+                            || i == keys.size() - 1) {
+                        for (int count : ps.executeBatch()) {
+                            rows += Math.max(0, count);
+                        }
+                    }
+                }
+            } finally {
+                ps.clearBatch();
+            }
+            target.connection.commit();
+            failed = false;
+            return rows;
+        } catch (SQLException e) {
+            SQLException roote = e.getNextException();
+            while (roote != null) {
+                e = roote;
+                roote = e.getNextException();
+            }
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (target != null) {
+                if (failed) {
+                    rollbackQuietly(target);
+                }
+                giveBack(pool, target, failed);
+            }
+        }
+    }
+
+    private void hash(PartitionDigest digest, RowBatch batch, int key) {
+        for (int row = 0; row < batch.size(); row++) {
+            digest.add(batch, row, key);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Delete the rows of a partition from the target, so that a partially
+     * committed partition can be copied again. The partition predicate is
+     * applied to the target table as is
+     * 
+     * @return number of rows deleted
+     */
+    public int deletePartition(DBConfig config, Partition partition) {
+        ConnectionPool pool = getPool(config);
+        PooledConnection target = null;
+        boolean failed = true;
+        try {
+            target = pool.borrow();
+            target.setAutoCommit(false);
+            String sql = "DELETE FROM " + config.table;
+            if (partition.where() != null) {
+                sql += " WHERE " + partition.where();
+            }
+            logger.info("Delete SQL --> " + sql);
+            int rows;
+            try (PreparedStatement ps = target.connection.prepareStatement(sql)) {
+                partition.bind(ps);
+                rows = ps.executeUpdate();
+            }
+            target.connection.commit();
+            failed = false;
+            return rows;
+        } catch (SQLException e) {
+            SQLException roote = e.getNextException();
+            while (roote != null) {
+                e = roote;
+                roote = e.getNextException();
+            }
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (target != null) {
+                if (failed) {
+                    rollbackQuietly(target);
+                }
+                giveBack(pool, target, failed);
+            }
+        }
+    }
+
+    private TargetWriter getWriter(DBConfig config) {
+        return writers.computeIfAbsent(config,
+                new Function<DBConfig, TargetWriter>() {
+                    @Override
+                    public TargetWriter apply(DBConfig config) {
+                        return TargetWriter.forConfig(config);
+                    }
+                });
+    }
+
+    /**
+     * Return a connection to its pool, or close it if the work on it failed
+     */
+    private void giveBack(ConnectionPool pool, PooledConnection pc,
+            boolean failed) {
+        if (failed) {
+            pool.discard(pc);
+        } else {
+            pool.release(pc);
+        }
+    }
+
+    private void rollbackQuietly(PooledConnection pc) {
+        try {
+            if (!pc.isAutoCommit()) {
+                pc.connection.rollback();
+            }
+        } catch (SQLException e) {
+            logger.debug("Rollback failed", e);
+        }
+    }
+
+    /**
+     * Split the source read into partitions on the split column. If no split
+     * column is given, the first primary key column of the source table is
+     * used. Returns a single null predicate when the read cannot be split
+     * 
+     * @param splitMode
+     *            range for key ranges between MIN and MAX of the split column,
+     *            mod for modulo buckets
+     * @return where clause of each partition
+     */
+    public List<String> partitionPredicates(DBConfig config,
+            String splitColumn, String splitMode, int partitions,
+            Watermark watermark) {
+        List<String> predicates = new ArrayList<>();
+        try {
+            String column = splitColumn;
+            if (column == null && config.sql == null) {
+                column = primaryKeyColumn(config);
+            }
+            if (column == null || partitions < 2) {
+                logger.warn("Source read cannot be split. Split column = "
+                        + column + " ; partitions = " + partitions);
+                predicates.add(null);
+                return predicates;
+            }
+
+            if ("mod".equalsIgnoreCase(splitMode)) {
+                for (int i = 0; i < partitions; i++) {
+                    predicates.add(modPredicate(config, column, partitions, i));
+                }
             } else {
-                sql.append("* ");
+                predicates.addAll(rangePredicates(config, column, partitions,
+                        watermark));
             }
-            sql.append("FROM ").append(config.table);
-            logger.debug("[ SOURCE SQL = " + sql + " ]");
-            return sql.toString().trim();
+            logger.info("Source read split on " + column + " into "
+                    + predicates.size() + " partitions");
+            return predicates;
+        } catch (SQLException e) {
+            SQLException roote = e.getNextException();
+            while (roote != null) {
+                e = roote;
+                roote = e.getNextException();
+            }
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
         }
-        logger.debug("[ SOURCE SQL = " + config.sql + " ]");
-        return config.sql;
     }
 
-    private String targetSql(DBConfig config, int columnCount) {
-        if (config.sql == null) {
+    private String modPredicate(DBConfig config, String column,
+            int partitions, int bucket) {
+        String mod;
+        if ("SYBASE".equalsIgnoreCase(config.dbType)) {
+            mod = "ABS(" + column + " % " + partitions + ")";
+        } else {
+            mod = "ABS(MOD(" + column + ", " + partitions + "))";
+        }
+        String predicate = mod + " = " + bucket;
+        if (bucket == 0) {
+            // rows with null keys belong to the first bucket
+            predicate = "(" + predicate + " OR " + column + " IS NULL)";
+        }
+        return predicate;
+    }
+
+    private List<String> rangePredicates(DBConfig config, String column,
+            int partitions, Watermark watermark) throws SQLException {
+        List<String> predicates = new ArrayList<>();
+        // only the rows of the watermark range need to be split
+        Object[] range = minMax(config, column, new Partition(0, null,
+                watermark));
+        Object min = range[0];
+        Object max = range[1];
+
+        if (!(min instanceof Number) || !(max instanceof Number)) {
+            logger.warn("Split column " + column
+                    + " is empty or not numeric. Source read is not split");
+            predicates.add(null);
+            return predicates;
+        }
+
+        long low = (long) Math.floor(((Number) min).doubleValue());
+        long high = (long) Math.ceil(((Number) max).doubleValue());
+        long step = Math.max(1, (high - low + 1) / partitions);
+        long lower = low;
+        for (int i = 0; i < partitions; i++) {
+            long upper = lower + step;
+            if (i == 0) {
+                // rows with null keys belong to the first range
+                predicates.add("(" + column + " < " + upper + " OR " + column
+                        + " IS NULL)");
+            } else if (i == partitions - 1 || upper > high) {
+                // last range is open ended
+                predicates.add(column + " >= " + lower);
+                break;
+            } else {
+                predicates.add(column + " >= " + lower + " AND " + column
+                        + " < " + upper);
+            }
+            lower = upper;
+        }
+        return predicates;
+    }
+
+    /**
+     * @return lowest and highest value of the column in the rows of the
+     *         source within the scope
+     */
+    private Object[] minMax(DBConfig config, String column, Partition scope)
+            throws SQLException {
+        String sql = "SELECT MIN(" + column + "), MAX(" + column + ") FROM "
+                + sourceFrom(config);
+        if (scope.where() != null) {
+            sql += " WHERE " + scope.where();
+        }
+        logger.debug("[ SPLIT SQL = " + sql + " ]");
 
-            String params = "";
-            for (int i = 0; i < columnCount; i++) {
-                params += "?";
-                if (i < columnCount - 1) {
-                    params += ",";
+        ConnectionPool pool = getPool(config);
+        PooledConnection source = pool.borrow();
+        boolean failed = true;
+        Object[] range = new Object[2];
+        try {
+            PreparedStatement ps = getFetchPS(source, config, sql);
+            scope.bind(ps);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    range[0] = rs.getObject(1);
+                    range[1] = rs.getObject(2);
                 }
+            } finally {
+                ps.close();
             }
+            failed = false;
+        } finally {
+            rollbackQuietly(source);
+            giveBack(pool, source, failed);
+        }
+        return range;
+    }
 
-            StringBuilder sql = new StringBuilder("INSERT INTO ")
-                    .append(config.table);
-            if (config.columns != null) {
-                sql.append(" ( ").append(config.columns).append(" ) ");
+    /**
+     * @return lowest and highest value of the column in the rows of the
+     *         partitions, nulls if they have no rows
+     */
+    public Object[] keyRange(DBConfig config, String column,
+            List<Partition> partitions) {
+        Object[] range = new Object[2];
+        try {
+            for (Partition partition : partitions) {
+                Object[] part = minMax(config, column, partition);
+                if (range[0] == null || (part[0] != null
+                        && compareKeys(part[0], range[0]) < 0)) {
+                    range[0] = part[0];
+                }
+                if (range[1] == null || (part[1] != null
+                        && compareKeys(part[1], range[1]) > 0)) {
+                    range[1] = part[1];
+                }
             }
+        } catch (SQLException e) {
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        }
+        return range;
+    }
 
-            sql.append(" VALUES ( ").append(params).append(" )");
-            logger.debug("[ TARGET SQL = " + sql + " ]");
-            return sql.toString().trim();
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareKeys(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(),
+                    ((Number) b).doubleValue());
         }
-        logger.debug("[ TARGET SQL = " + config.sql + " ]");
-        return config.sql;
+        return ((Comparable) a).compareTo(b);
     }
 
-    private Map<String, Object> getCached() {
-        Map<String, Object> cached = cache.get();
-        if (cached == null) {
-            logger.debug("Nothing cached. init cache");
-            cached = new HashMap<>();
-            cache.set(cached);
+    /**
+     * @return position from 0 of the column in the rows read from the
+     *         source, -1 if the column is not selected
+     */
+    public int columnIndex(DBConfig config, String column) {
+        ConnectionPool pool = getPool(config);
+        PooledConnection source = null;
+        boolean failed = true;
+        try {
+            source = pool.borrow();
+            // no row is read, only the columns are described
+            try (PreparedStatement ps = getFetchPS(source, config,
+                    sourceSql(config, "1 = 0"));
+                    ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData rsmd = rs.getMetaData();
+                failed = false;
+                for (int i = 1; i <= rsmd.getColumnCount(); i++) {
+                    if (column.equalsIgnoreCase(rsmd.getColumnLabel(i))) {
+                        return i - 1;
+                    }
+                }
+                return -1;
+            }
+        } catch (SQLException e) {
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (source != null) {
+                rollbackQuietly(source);
+                giveBack(pool, source, failed);
+            }
         }
-        return cached;
     }
 
-    private PreparedStatement getCachedPS(Map<String, Object> cached,
-            String key, DBConfig config, String sql) throws SQLException {
-        PreparedStatement ps = (PreparedStatement) cached.get(key);
-        Connection conn = getConnection(cached, config, key + "Conn", false);
-        if (ps == null) {
+    /**
+     * @return the first column of the clustered index of the table, or of
+     *         its primary key if none is reported clustered. null if the
+     *         table has neither
+     */
+    public String clusteredKeyColumn(DBConfig config) {
+        ConnectionPool pool = getPool(config);
+        PooledConnection target = null;
+        try {
+            target = pool.borrow();
+            DatabaseMetaData dbmd = target.connection.getMetaData();
+            String[] name = qualifiedName(config.table);
+            String column = clusteredColumn(dbmd, name[0], name[1], name[2]);
+            if (column == null) {
+                column = clusteredColumn(dbmd, name[0], (name[1] == null) ? null
+                        : name[1].toUpperCase(), name[2].toUpperCase());
+            }
+            if (column == null) {
+                column = primaryKeyColumn(config, dbmd);
+            }
+            logger.debug("[ CLUSTERED KEY OF " + config.table + " = "
+                    + column + " ]");
+            return column;
+        } catch (SQLException e) {
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (target != null) {
+                pool.release(target);
+            }
+        }
+    }
 
-            logger.debug("Prepare new fetch sql");
-            ps = conn.prepareStatement(sql);
-            cached.put(key, ps);
+    private String clusteredColumn(DatabaseMetaData dbmd, String catalog,
+            String schema, String table) throws SQLException {
+        try (ResultSet rs = dbmd.getIndexInfo(catalog, schema, table, false,
+                true)) {
+            while (rs.next()) {
+                if (rs.getShort("TYPE") == DatabaseMetaData.tableIndexClustered
+                        && rs.getShort("ORDINAL_POSITION") == 1) {
+                    return rs.getString("COLUMN_NAME");
+                }
+            }
         }
-        return ps;
+        return null;
     }
-    
-    private PreparedStatement getFetchPS(Map<String, Object> cached,
-            String key, DBConfig config, String sql) throws SQLException {
-        logger.debug("Prepare new fetch sql");
-        Connection conn = getConnection(cached, config, key + "Conn", false);
-        PreparedStatement ps = conn.prepareStatement(sql);
-        
-        return ps;
+
+    /**
+     * @return highest value of the column in the source, null if the source
+     *         is empty
+     */
+    public Object maxValue(DBConfig config, String column) {
+        String sql = "SELECT MAX(" + column + ") FROM " + sourceFrom(config);
+        logger.debug("[ MAX SQL = " + sql + " ]");
+        ConnectionPool pool = getPool(config);
+        PooledConnection source = null;
+        boolean failed = true;
+        try {
+            source = pool.borrow();
+            Object max = null;
+            try (PreparedStatement ps = getFetchPS(source, config, sql);
+                    ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    max = rs.getObject(1);
+                }
+            }
+            failed = false;
+            return max;
+        } catch (SQLException e) {
+            SQLException roote = e.getNextException();
+            while (roote != null) {
+                e = roote;
+                roote = e.getNextException();
+            }
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (source != null) {
+                rollbackQuietly(source);
+                giveBack(pool, source, failed);
+            }
+        }
+    }
+
+    /**
+     * Estimate the rows of the source table from the statistics the database
+     * keeps, without counting them
+     * 
+     * @return estimated number of rows, -1 if the database keeps no
+     *         statistics or the source is a query
+     */
+    public long estimateRows(DBConfig config) {
+        if (config.sql != null) {
+            return -1;
+        }
+        ConnectionPool pool = getPool(config);
+        PooledConnection source = null;
+        boolean failed = true;
+        try {
+            source = pool.borrow();
+            String[] name = qualifiedName(config.table);
+            DatabaseMetaData dbmd = source.connection.getMetaData();
+            long rows = estimateRows(dbmd, name[0], name[1], name[2]);
+            if (rows < 0) {
+                rows = estimateRows(dbmd, name[0], (name[1] == null) ? null
+                        : name[1].toUpperCase(), name[2].toUpperCase());
+            }
+            failed = false;
+            return rows;
+        } catch (SQLException e) {
+            logger.warn("No row estimate for " + config.table, e);
+            return -1;
+        } finally {
+            if (source != null) {
+                rollbackQuietly(source);
+                giveBack(pool, source, failed);
+            }
+        }
+    }
+
+    private long estimateRows(DatabaseMetaData dbmd, String catalog,
+            String schema, String table) throws SQLException {
+        try (ResultSet rs = dbmd.getIndexInfo(catalog, schema, table, false,
+                true)) {
+            while (rs.next()) {
+                if (rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) {
+                    return rs.getLong("CARDINALITY");
+                }
+            }
+        }
+        return -1;
     }
 
-    private Connection getConnection(Map<String, Object> cached,
-            DBConfig config, String key, boolean autoCommit)
+    /**
+     * Count the rows of the source
+     */
+    public long countRows(DBConfig config) {
+        String sql = "SELECT COUNT(*) FROM " + sourceFrom(config);
+        logger.debug("[ COUNT SQL = " + sql + " ]");
+        ConnectionPool pool = getPool(config);
+        PooledConnection source = null;
+        boolean failed = true;
+        try {
+            source = pool.borrow();
+            long rows = 0;
+            try (PreparedStatement ps = getFetchPS(source, config, sql);
+                    ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    rows = rs.getLong(1);
+                }
+            }
+            failed = false;
+            return rows;
+        } catch (SQLException e) {
+            SQLException roote = e.getNextException();
+            while (roote != null) {
+                e = roote;
+                roote = e.getNextException();
+            }
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (source != null) {
+                rollbackQuietly(source);
+                giveBack(pool, source, failed);
+            }
+        }
+    }
+
+    /**
+     * Read the first rows of the source into a batch
+     * 
+     * @param rows
+     *            most rows read
+     * @param lobs
+     *            stager the LOB columns are streamed through
+     */
+    public RowBatch sampleRows(DBConfig config, int rows, LobStager lobs) {
+        ConnectionPool pool = getPool(config);
+        PooledConnection source = null;
+        boolean failed = true;
+        try {
+            String sql = sourceSql(config, null);
+            source = pool.borrow();
+            RowBatch batch;
+            try (PreparedStatement ps = getFetchPS(source, config, sql)) {
+                ps.setMaxRows(rows);
+                try (ResultSet rs = ps.executeQuery()) {
+                    batch = new RowBatch(RowBatch.columnTypes(rs
+                            .getMetaData()), rows);
+                    batch.setLobStager(lobs);
+                    while (!batch.isFull() && rs.next()) {
+                        batch.readRow(rs);
+                    }
+                }
+            }
+            failed = false;
+            return batch;
+        } catch (SQLException e) {
+            SQLException roote = e.getNextException();
+            while (roote != null) {
+                e = roote;
+                roote = e.getNextException();
+            }
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (source != null) {
+                rollbackQuietly(source);
+                giveBack(pool, source, failed);
+            }
+        }
+    }
+
+    /**
+     * Create the table of the config, empty, with the columns of a template
+     * table and without its indexes and constraints. A table left under the
+     * same name is dropped first
+     * 
+     * @param template
+     *            name of the table whose columns are copied
+     */
+    public void createScratchTable(DBConfig config, String template) {
+        if (config.table.equalsIgnoreCase(template)) {
+            throw new RuntimeException("Scratch table " + config.table
+                    + " would replace the table it is created like");
+        }
+        dropTable(config, config.table);
+        String sql;
+        if ("SYBASE".equalsIgnoreCase(config.dbType)) {
+            sql = "SELECT * INTO " + config.table + " FROM " + template
+                    + " WHERE 1 = 0";
+        } else if ("DB2".equalsIgnoreCase(config.dbType)) {
+            sql = "CREATE TABLE " + config.table + " LIKE " + template;
+        } else {
+            sql = "CREATE TABLE " + config.table + " AS SELECT * FROM "
+                    + template + " WHERE 1 = 0";
+        }
+        executeDdl(config, sql);
+    }
+
+    /**
+     * Delete every row of the table
+     */
+    public void truncateTable(DBConfig config, String table) {
+        executeDdl(config, "TRUNCATE TABLE " + table
+                + ("DB2".equalsIgnoreCase(config.dbType) ? " IMMEDIATE" : ""));
+    }
+
+    /**
+     * Drop the table if it exists
+     */
+    public void dropTable(DBConfig config, String table) {
+        ConnectionPool pool = getPool(config);
+        PooledConnection target = null;
+        boolean failed = true;
+        boolean exists;
+        try {
+            target = pool.borrow();
+            String[] name = qualifiedName(table);
+            DatabaseMetaData dbmd = target.connection.getMetaData();
+            exists = tableExists(dbmd, name[0], name[1], name[2])
+                    || tableExists(dbmd, name[0], (name[1] == null) ? null
+                            : name[1].toUpperCase(), name[2].toUpperCase());
+            failed = false;
+        } catch (SQLException e) {
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (target != null) {
+                giveBack(pool, target, failed);
+            }
+        }
+        if (exists) {
+            executeDdl(config, "DROP TABLE " + table);
+        }
+    }
+
+    private boolean tableExists(DatabaseMetaData dbmd, String catalog,
+            String schema, String table) throws SQLException {
+        try (ResultSet rs = dbmd.getTables(catalog, schema, table, null)) {
+            return rs.next();
+        }
+    }
+
+    private void executeDdl(DBConfig config, String sql) {
+        ConnectionPool pool = getPool(config);
+        PooledConnection target = null;
+        boolean failed = true;
+        try {
+            target = pool.borrow();
+            // Sybase runs DDL outside of a transaction only
+            target.setAutoCommit(true);
+            logger.info("DDL --> " + sql);
+            try (Statement st = target.connection.createStatement()) {
+                st.execute(sql);
+            }
+            failed = false;
+        } catch (SQLException e) {
+            SQLException roote = e.getNextException();
+            while (roote != null) {
+                e = roote;
+                roote = e.getNextException();
+            }
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (target != null) {
+                giveBack(pool, target, failed);
+            }
+        }
+    }
+
+    /**
+     * @return the split column if given, otherwise the first primary key
+     *         column of the table. null if the table has no primary key or
+     *         the source is a query
+     */
+    public String keyColumn(DBConfig config, String splitColumn) {
+        if (splitColumn != null || config.sql != null) {
+            return splitColumn;
+        }
+        try {
+            return primaryKeyColumn(config);
+        } catch (SQLException e) {
+            logger.error("Database exception occurred", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String primaryKeyColumn(DBConfig config) throws SQLException {
+        ConnectionPool pool = getPool(config);
+        PooledConnection source = pool.borrow();
+        try {
+            return primaryKeyColumn(config, source.connection.getMetaData());
+        } finally {
+            pool.release(source);
+        }
+    }
+
+    private String primaryKeyColumn(DBConfig config, DatabaseMetaData dbmd)
             throws SQLException {
-        Connection conn = (Connection) cached.get(key);
+        String[] name = qualifiedName(config.table);
+        String catalog = name[0];
+        String schema = name[1];
+        String table = name[2];
 
-        if ((conn == null) || (!conn.isValid(config.connValidTimeout))) {
-            logger.debug("Establish a new database connection");
-            conn = getDBConnection(config.dbType, config.dbServerName,
-                    config.dbServerPort, config.dbName, config.dbUserId,
-                    config.dbPassword);
-            cached.put(key, conn);
+        String column = primaryKeyColumn(dbmd, catalog, schema, table);
+        if (column == null) {
+            column = primaryKeyColumn(dbmd, catalog,
+                    (schema == null) ? null : schema.toUpperCase(),
+                    table.toUpperCase());
         }
-        conn.setAutoCommit(autoCommit);
-        return conn;
+        logger.debug("[ PRIMARY KEY OF " + config.table + " = " + column
+                + " ]");
+        return column;
+    }
+
+    /**
+     * @return catalog, schema and table of a table name given as table,
+     *         owner.table or db.owner.table
+     */
+    static String[] qualifiedName(String name) {
+        String[] parts = name.split("\\.");
+        String table = parts[parts.length - 1];
+        String schema = (parts.length > 1 && !parts[parts.length - 2]
+                .isEmpty()) ? parts[parts.length - 2] : null;
+        String catalog = (parts.length > 2) ? parts[0] : null;
+        return new String[] { catalog, schema, table };
     }
 
-    private Connection getDBConnection(String dbType, String serverName,
-            String port, String database, String userName, String password) {
-        if ("SYBASE".equalsIgnoreCase(dbType)) {
-            return getSybaseConnection(serverName, port, database, userName,
-                    password);
-        } else if ("DB2".equalsIgnoreCase(dbType)) {
-            return getDb2Connection(serverName, port, database, userName,
-                    password);
+    private String primaryKeyColumn(DatabaseMetaData dbmd, String catalog,
+            String schema, String table) throws SQLException {
+        try (ResultSet rs = dbmd.getPrimaryKeys(catalog, schema, table)) {
+            while (rs.next()) {
+                if (rs.getShort("KEY_SEQ") == 1) {
+                    return rs.getString("COLUMN_NAME");
+                }
+            }
         }
         return null;
     }
 
-    private Connection getSybaseConnection(String serverName, String port,
-            String database, String userName, String password) {
-        String jdbcUrl = getSybaseJdbcUrl(serverName, port, database);
-        // String driver = "com.sybase.jdbc4.jdbc.SybDriver";
-        return getConnection(jdbcUrl, userName, password);
+    private String sourceFrom(DBConfig config) {
+        if (config.sql == null) {
+            return config.table;
+        }
+        return "( " + config.sql + " ) SRC";
     }
 
-    private Connection getDb2Connection(String serverName, String port,
-            String database, String userName, String password) {
-        String jdbcUrl = getDb2JdbcUrl(serverName, port, database);
-        // String driver = "com.ibm.db2.jcc.DB2Driver";
-        return getConnection(jdbcUrl, userName, password);
+    private String sourceSql(DBConfig config, String predicate) {
+        if (predicate != null) {
+            StringBuilder sql = new StringBuilder("SELECT ");
+            if (null != config.columns && config.sql == null) {
+                sql.append(config.columns).append(" ");
+            } else {
+                sql.append("* ");
+            }
+            sql.append("FROM ").append(sourceFrom(config)).append(" WHERE ")
+                    .append(predicate);
+            logger.debug("[ SOURCE SQL = " + sql + " ]");
+            return sql.toString().trim();
+        }
+        if (config.sql == null) {
+            StringBuilder sql = new StringBuilder("SELECT ");
+            if (null != config.columns) {
+                sql.append(config.columns).append(" ");
+            } else {
+                sql.append("* ");
+            }
+            sql.append("FROM ").append(config.table);
+            logger.debug("[ SOURCE SQL = " + sql + " ]");
+            return sql.toString().trim();
+        }
+        logger.debug("[ SOURCE SQL = " + config.sql + " ]");
+        return config.sql;
+    }
+
+    private PreparedStatement getFetchPS(PooledConnection source,
+            DBConfig config, String sql) throws SQLException {
+        logger.debug("Prepare new fetch sql");
+        source.setAutoCommit(false);
+        Connection conn = source.connection;
+        // the source is read once from start to end, so ask the driver for
+        // a streaming cursor rather than a buffered result set
+        PreparedStatement ps = conn.prepareStatement(sql,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        ps.setFetchDirection(ResultSet.FETCH_FORWARD);
+        if (config.fetchSize > 0) {
+            ps.setFetchSize(config.fetchSize);
+        }
+
+        return ps;
+    }
+
+    Connection getDBConnection(DBConfig config) {
+        return getConnection(getJdbcUrl(config), config.dbUserId,
+                config.dbPassword);
+    }
+
+    private String getJdbcUrl(DBConfig config) {
+        if ("SYBASE".equalsIgnoreCase(config.dbType)) {
+            // String driver = "com.sybase.jdbc4.jdbc.SybDriver";
+            return getSybaseJdbcUrl(config);
+        } else if ("DB2".equalsIgnoreCase(config.dbType)) {
+            // String driver = "com.ibm.db2.jcc.DB2Driver";
+            return getDb2JdbcUrl(config);
+        } else if ("H2".equalsIgnoreCase(config.dbType)) {
+            // String driver = "org.h2.Driver";
+            return getH2JdbcUrl(config);
+        }
+        throw new RuntimeException("Unsupported database type "
+                + config.dbType);
+    }
+
+    private String getSybaseJdbcUrl(DBConfig config) {
+        StringBuilder url = new StringBuilder("jdbc:sybase:Tds:")
+                .append(config.dbServerName).append(":")
+                .append(config.dbServerPort).append("/").append(config.dbName)
+                .append("?DYNAMIC_PREPARE=true&CHARSET=iso_1");
+        if (TargetWriter.BULK.equalsIgnoreCase(config.writeStrategy)) {
+            // batches of inserts are sent as a bulk copy
+            url.append("&ENABLE_BULK_LOAD=BCP");
+        } else {
+            url.append("&ENABLE_BULK_LOAD=true");
+        }
+        if (config.packetSize > 0) {
+            url.append("&PACKETSIZE=").append(config.packetSize);
+        }
+        if (config.cursor) {
+            // fetch size is honoured only when select opens a cursor
+            url.append("&SELECT_OPENS_CURSOR=true");
+        }
+        return url.toString();
     }
 
-    private String getSybaseJdbcUrl(String serverName, String port,
-            String database) {
-        return "jdbc:sybase:Tds:" + serverName + ":" + port + "/" + database
-                + "?DYNAMIC_PREPARE=true&ENABLE_BULK_LOAD=true&CHARSET=iso_1";
+    private String getDb2JdbcUrl(DBConfig config) {
+        StringBuilder url = new StringBuilder("jdbc:db2://")
+                .append(config.dbServerName).append(":")
+                .append(config.dbServerPort).append("/").append(config.dbName);
+        StringBuilder properties = new StringBuilder();
+        if (config.isolation >= 0) {
+            properties.append("defaultIsolationLevel=")
+                    .append(config.isolation).append(";");
+        }
+        if (config.fetchSize > 0) {
+            properties.append("fetchSize=").append(config.fetchSize)
+                    .append(";");
+        }
+        if (properties.length() > 0) {
+            url.append(":").append(properties);
+        }
+        return url.toString();
     }
 
-    private String getDb2JdbcUrl(String serverName, String port, String database) {
-        return "jdbc:db2://" + serverName + ":" + port + "/" + database;
+    /**
+     * In process database, used by benchmarks to copy without a server
+     */
+    private String getH2JdbcUrl(DBConfig config) {
+        return "jdbc:h2:mem:" + config.dbName + ";DB_CLOSE_DELAY=-1";
     }
 
     private Connection getConnection(String jdbcUrl, String userName,
@@ -0,0 +1,79 @@
+package com.vin.bcp.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes a single row insert per row, sent together through the JDBC batch.
+ * Rows with LOB values staged in files are sent every few hundred files
+ * within the transaction, each file being open until its row is sent
+ *
+ */
+class JdbcBatchWriter extends TargetWriter {
+
+    JdbcBatchWriter(TargetSql targetSql) {
+        super(targetSql);
+    }
+
+    @Override
+    int write(PooledConnection target, RowBatch batch, AtomicBoolean isAborted)
+            throws SQLException {
+        return write(target, batch, 0, isAborted);
+    }
+
+    /**
+     * Send the rows of the batch from the given one to the last
+     *
+     * @return number of rows written
+     */
+    int write(PooledConnection target, RowBatch batch, int from,
+            AtomicBoolean isAborted) throws SQLException {
+        String sql = targetSql.insert(batch.getColumnCount());
+        PreparedStatement ps = target.prepare(sql);
+        ps.setQueryTimeout(600); // 10 minute timeout for query execution
+        BindingPlan plan = plan(sql, ps, batch);
+
+        int written = 0;
+        // first row of the statements not yet sent, and the staged values
+        // they hold open
+        int sent = from;
+        int open = 0;
+        try {
+            for (int row = from; row < batch.size(); row++) {
+                checkAborted(isAborted);
+                plan.bindRow(ps, batch, row, 0);
+                ps.addBatch();
+                open += batch.stagedValues(row);
+                if (open >= MAX_OPEN_STREAMS) {
+                    written += execute(ps, row + 1 - sent);
+                    batch.closeStaged(sent, row + 1);
+                    sent = row + 1;
+                    open = 0;
+                }
+            }
+            if (sent < batch.size()) {
+                written += execute(ps, batch.size() - sent);
+                batch.closeStaged(sent, batch.size());
+            }
+            return written;
+        } finally {
+            ps.clearBatch();
+        }
+    }
+
+    /**
+     * @return rows written by the statements added to the JDBC batch
+     */
+    private static int execute(PreparedStatement ps, int rows)
+            throws SQLException {
+        int[] counts = ps.executeBatch();
+        if (counts.length > 1) {
+            return counts.length;
+        } else if ((counts.length == 1) && (counts[0] > 0)) {
+            return counts[0];
+        } else {
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.vin.bcp.dao;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.queue.MemoryBudget;
+
+/**
+ * Reads the LOB columns of the source as streams. A value up to the threshold
+ * is held on the heap while the LOB memory allows it, any other value is
+ * streamed from the result set into a file of the LOB directory and from
+ * there to the target, so a table of large documents is copied without
+ * holding them on the heap
+ *
+ */
+public class LobStager {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Logger logger = LogManager.getLogger(LobStager.class);
+
+    private final Path baseDir;
+    private final int threshold;
+    private final MemoryBudget memory;
+    // created with the first value staged
+    private Path dir;
+    private final AtomicLong staged = new AtomicLong();
+    private final AtomicLong stagedBytes = new AtomicLong();
+
+    /**
+     * @param dir
+     *            directory the files of the job are created in
+     * @param threshold
+     *            bytes of a value above which it is staged
+     * @param memory
+     *            bytes of the values held on the heap by the batches in
+     *            flight
+     */
+    public LobStager(String dir, long threshold, long memory) {
+        this.baseDir = Paths.get(dir);
+        this.threshold = (int) Math.min(threshold, Integer.MAX_VALUE - 8);
+        this.memory = new MemoryBudget(memory);
+    }
+
+    /**
+     * @return true if values of the column type are read through the stager
+     */
+    static boolean isLob(int type) {
+        switch (type) {
+        case Types.BLOB:
+        case Types.LONGVARBINARY:
+        case Types.CLOB:
+        case Types.NCLOB:
+        case Types.LONGVARCHAR:
+        case Types.LONGNVARCHAR:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    static boolean isBinary(int type) {
+        return type == Types.BLOB || type == Types.LONGVARBINARY;
+    }
+
+    /**
+     * Read the value of a LOB column of the current row
+     *
+     * @return a byte array or a string held on the heap, a {@link LobValue}
+     *         staged in a file, null for SQL NULL
+     */
+    Object read(ResultSet rs, int position, int type) throws SQLException {
+        try {
+            return isBinary(type) ? readBinary(rs, position) : readCharacters(
+                    rs, position);
+        } catch (IOException e) {
+            throw new SQLException("Not able to stage LOB value of column "
+                    + position, e);
+        }
+    }
+
+    private Object readBinary(ResultSet rs, int position) throws IOException,
+            SQLException {
+        try (InputStream in = rs.getBinaryStream(position)) {
+            if (in == null) {
+                return null;
+            }
+            byte[] head = new byte[Math.min(threshold + 1, BUFFER_SIZE)];
+            int length = 0;
+            int read;
+            while (length <= threshold
+                    && (read = in.read(head, length, head.length - length)) >= 0) {
+                length += read;
+                if (length == head.length && length <= threshold) {
+                    head = Arrays.copyOf(head,
+                            (int) Math.min(threshold + 1L, 2L * length));
+                }
+            }
+            if (length <= threshold && memory.tryAcquire(length)) {
+                return Arrays.copyOf(head, length);
+            }
+            Path file = newFile();
+            long total = length;
+            try (OutputStream out = Files.newOutputStream(file)) {
+                out.write(head, 0, length);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                    total += read;
+                }
+            }
+            staged(total);
+            return new LobValue(file, true, total);
+        }
+    }
+
+    private Object readCharacters(ResultSet rs, int position)
+            throws IOException, SQLException {
+        try (Reader in = rs.getCharacterStream(position)) {
+            if (in == null) {
+                return null;
+            }
+            // characters take two bytes on the heap
+            int limit = threshold / 2;
+            char[] head = new char[Math.min(limit + 1, BUFFER_SIZE)];
+            int length = 0;
+            int read;
+            while (length <= limit
+                    && (read = in.read(head, length, head.length - length)) >= 0) {
+                length += read;
+                if (length == head.length && length <= limit) {
+                    head = Arrays.copyOf(head,
+                            (int) Math.min(limit + 1L, 2L * length));
+                }
+            }
+            if (length <= limit && memory.tryAcquire(2L * length)) {
+                return new String(head, 0, length);
+            }
+            Path file = newFile();
+            long total = length;
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(file), StandardCharsets.UTF_8))) {
+                out.write(head, 0, length);
+                char[] buffer = new char[BUFFER_SIZE];
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                    total += read;
+                }
+            }
+            staged(Files.size(file));
+            return new LobValue(file, false, total);
+        }
+    }
+
+    /**
+     * @return heap bytes taken from the LOB memory by a value read by
+     *         {@link #read(ResultSet, int, int)}
+     */
+    static long heapBytes(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        } else if (value instanceof String) {
+            return 2L * ((String) value).length();
+        }
+        return 0;
+    }
+
+    /**
+     * Give back the LOB memory of the values of an emptied batch
+     */
+    void release(long bytes) {
+        if (bytes > 0) {
+            memory.release(bytes);
+        }
+    }
+
+    /**
+     * @return number of values staged in files
+     */
+    public long getStaged() {
+        return staged.get();
+    }
+
+    /**
+     * @return bytes of the values staged in files
+     */
+    public long getStagedBytes() {
+        return stagedBytes.get();
+    }
+
+    /**
+     * Delete the files left by batches never emptied, the job is over
+     */
+    public synchronized void close() {
+        if (dir == null) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            logger.warn("Not able to delete LOB directory " + dir, e);
+        }
+        if (staged.get() > 0) {
+            logger.info("Staged " + staged.get() + " LOB values of "
+                    + stagedBytes.get() + " bytes in " + dir);
+        }
+    }
+
+    private synchronized Path newFile() throws IOException {
+        if (dir == null) {
+            Files.createDirectories(baseDir);
+            dir = Files.createTempDirectory(baseDir, "bcp-lob");
+        }
+        return Files.createTempFile(dir, "lob", ".dat");
+    }
+
+    private void staged(long bytes) {
+        staged.incrementAndGet();
+        stagedBytes.addAndGet(bytes);
+    }
+}
@@ -0,0 +1,129 @@
+package com.vin.bcp.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A LOB value staged in a local file instead of being held on the heap.
+ * Binary values are kept as read, character values in UTF-8. The file is
+ * deleted once the batch holding the value is emptied
+ *
+ */
+public final class LobValue {
+    private final Path file;
+    private final boolean binary;
+    // bytes of a binary value, characters of a character value
+    private final long length;
+    // stream bound to the last statement, closed once the value is bound
+    // again or dropped
+    private Closeable open;
+    // the file belongs to the batch the value was spilled to
+    private boolean handedOver;
+
+    LobValue(Path file, boolean binary, long length) {
+        this.file = file;
+        this.binary = binary;
+        this.length = length;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @return bytes of a binary value, characters of a character value
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return bytes of the file
+     */
+    long getFileBytes() throws IOException {
+        return Files.size(file);
+    }
+
+    /**
+     * @return the bytes of the file from the start, the stream opened before
+     *         is closed
+     */
+    synchronized InputStream openStream() throws IOException {
+        closeOpen();
+        InputStream in = new BufferedInputStream(Files.newInputStream(file));
+        open = in;
+        return in;
+    }
+
+    /**
+     * @return the characters of a character value from the start, the
+     *         reader opened before is closed
+     */
+    synchronized Reader openReader() throws IOException {
+        closeOpen();
+        Reader reader = new BufferedReader(new InputStreamReader(
+                Files.newInputStream(file), StandardCharsets.UTF_8));
+        open = reader;
+        return reader;
+    }
+
+    /**
+     * Close the stream bound to the last statement, once the statement is
+     * executed
+     */
+    synchronized void closeStream() {
+        closeOpen();
+    }
+
+    /**
+     * Leave the file to the batch the value is handed over to
+     */
+    synchronized void handOver() {
+        handedOver = true;
+    }
+
+    /**
+     * Delete the file, unless it was handed over
+     */
+    synchronized void delete() {
+        closeOpen();
+        if (handedOver) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // left for the LOB directory to be cleaned up
+        }
+    }
+
+    private void closeOpen() {
+        if (open != null) {
+            try {
+                open.close();
+            } catch (IOException e) {
+                // nothing was written to it
+            }
+            open = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (binary ? "binary LOB of " + length + " bytes"
+                : "character LOB of " + length + " characters")
+                + " staged in " + file;
+    }
+}
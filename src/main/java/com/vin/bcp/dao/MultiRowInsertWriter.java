@@ -0,0 +1,71 @@
+package com.vin.bcp.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes many rows per insert statement, as many as the parameter limit of
+ * the target driver allows. Full statements are sent through the JDBC batch,
+ * the remaining rows as single row inserts through the JDBC batch as well, so
+ * the target only ever prepares two statements
+ *
+ */
+class MultiRowInsertWriter extends TargetWriter {
+    private static final int MAX_ROWS_PER_STATEMENT = 1000;
+
+    // writes the rows left after the full statements
+    private final JdbcBatchWriter rest;
+
+    MultiRowInsertWriter(TargetSql targetSql) {
+        super(targetSql);
+        this.rest = new JdbcBatchWriter(targetSql);
+    }
+
+    @Override
+    int write(PooledConnection target, RowBatch batch, AtomicBoolean isAborted)
+            throws SQLException {
+        int columnCount = batch.getColumnCount();
+        int rowsPerStatement = Math.max(1, Math.min(MAX_ROWS_PER_STATEMENT,
+                targetSql.maxParameters() / columnCount));
+        int fullStatements = batch.size() / rowsPerStatement;
+        int remaining = batch.size() % rowsPerStatement;
+        int row = 0;
+
+        if (fullStatements > 0) {
+            String sql = targetSql.insert(columnCount, rowsPerStatement);
+            PreparedStatement ps = target.prepare(sql);
+            ps.setQueryTimeout(600); // 10 minute timeout for query execution
+            BindingPlan plan = plan(sql, ps, batch);
+            // first row of the statements not yet sent, and the staged
+            // values they hold open
+            int sent = 0;
+            int open = 0;
+            try {
+                for (int i = 0; i < fullStatements; i++) {
+                    checkAborted(isAborted);
+                    for (int j = 0; j < rowsPerStatement; j++) {
+                        open += batch.stagedValues(row);
+                        plan.bindRow(ps, batch, row++, j * columnCount);
+                    }
+                    ps.addBatch();
+                    if (open >= MAX_OPEN_STREAMS || i == fullStatements - 1) {
+                        ps.executeBatch();
+                        batch.closeStaged(sent, row);
+                        sent = row;
+                        open = 0;
+                    }
+                }
+            } finally {
+                ps.clearBatch();
+            }
+        }
+
+        if (remaining > 0) {
+            // single row inserts rather than a statement of each remainder
+            // size, prepared again for every size batches leave
+            rest.write(target, batch, row, isAborted);
+        }
+        return batch.size();
+    }
+}
@@ -0,0 +1,77 @@
+package com.vin.bcp.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Set;
+
+/**
+ * Represent a part of the source read, selected by a where clause
+ *
+ */
+public class Partition {
+    public final int id;
+    public final String predicate;
+    public final Watermark watermark;
+    // only the rows of these keys are read, when not null
+    public final String keyColumn;
+    public final Set<Object> keys;
+
+    /**
+     * @param predicate
+     *            where clause of the partition, null for the whole source
+     */
+    public Partition(int id, String predicate) {
+        this(id, predicate, null);
+    }
+
+    /**
+     * @param watermark
+     *            range of an incremental copy, null to copy all rows
+     */
+    public Partition(int id, String predicate, Watermark watermark) {
+        this(id, predicate, watermark, null, null);
+    }
+
+    /**
+     * @param keys
+     *            values of the key column, normalized by
+     *            {@link PartitionDigest#normalize(Object)}, of the rows to
+     *            read. null to read every row of the partition
+     */
+    public Partition(int id, String predicate, Watermark watermark,
+            String keyColumn, Set<Object> keys) {
+        this.id = id;
+        this.predicate = predicate;
+        this.watermark = watermark;
+        this.keyColumn = keyColumn;
+        this.keys = keys;
+    }
+
+    /**
+     * @return where clause of the partition within the watermark range, null
+     *         if the whole source is selected
+     */
+    public String where() {
+        if (watermark == null) {
+            return predicate;
+        } else if (predicate == null) {
+            return watermark.predicate();
+        }
+        return "(" + predicate + ") AND " + watermark.predicate();
+    }
+
+    /**
+     * Bind the parameters of the where clause
+     */
+    public void bind(PreparedStatement ps) throws SQLException {
+        if (watermark != null) {
+            watermark.bind(ps, 1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "[ PARTITION " + id + " = " + where()
+                + ((keys == null) ? "" : " ; " + keys.size() + " keys") + " ]";
+    }
+}
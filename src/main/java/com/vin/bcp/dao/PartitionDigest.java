@@ -0,0 +1,287 @@
+package com.vin.bcp.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Row count and order independent hash of the rows of a partition. Values
+ * are normalized before they are hashed, so the same row read from Sybase
+ * and from DB2 hashes the same: integral numbers of any type hash as a long,
+ * decimals without their trailing zeros, dates and timestamps as instants,
+ * text without trailing blanks and bit as 0 or 1. The contents of LOB values
+ * are streamed into the hash, a CLOB hashes like the same text read as a
+ * string and a BLOB like the same bytes
+ *
+ */
+public class PartitionDigest {
+    private static final long NULL_HASH = 0x9E3779B97F4A7C15L;
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private long rows;
+    private long sum;
+    private long xor;
+    // hash of the rows of each key and the key as read, null unless the
+    // digest drills down
+    private final Map<Object, Long> keys;
+    private final Map<Object, Object> keyValues;
+
+    /**
+     * @param drillDown
+     *            true to keep the hash of each key for a row by row compare
+     */
+    public PartitionDigest(boolean drillDown) {
+        this.keys = drillDown ? new HashMap<Object, Long>() : null;
+        this.keyValues = drillDown ? new HashMap<Object, Object>() : null;
+    }
+
+    /**
+     * Add a row of the batch to the digest
+     *
+     * @param keyColumn
+     *            column of the key of the row, -1 if there is none
+     */
+    void add(RowBatch batch, int row, int keyColumn) {
+        long hash = rowHash(batch, row);
+        rows++;
+        // sum and xor of two different mixes, neither depends on row order
+        sum += mix(hash);
+        xor ^= mix(hash ^ NULL_HASH);
+        if (keys != null && keyColumn >= 0) {
+            Object value = batch.getObject(row, keyColumn);
+            Object key = normalize(value);
+            Long seen = keys.get(key);
+            // rows of a duplicate key add up
+            keys.put(key, (seen == null) ? hash : seen + hash);
+            keyValues.put(key, value);
+        }
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return hash of the rows in any order
+     */
+    public long getHash() {
+        return mix(sum) ^ xor;
+    }
+
+    /**
+     * @return the hash of each key, null unless the digest drills down
+     */
+    public Map<Object, Long> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return the key as read from the database, to bind it in a statement
+     */
+    public Object getKeyValue(Object key) {
+        return keyValues.get(key);
+    }
+
+    public boolean matches(PartitionDigest other) {
+        return rows == other.rows && sum == other.sum && xor == other.xor;
+    }
+
+    @Override
+    public String toString() {
+        return rows + " rows, hash " + Long.toHexString(getHash());
+    }
+
+    private static long rowHash(RowBatch batch, int row) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < batch.getColumnCount(); i++) {
+            hash = mix(hash ^ valueHash(normalize(batch.getObject(row, i))))
+                    + i;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the value in a form that does not depend on the database it
+     *         was read from
+     */
+    public static Object normalize(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = ((BigDecimal) value).signum() == 0 ? BigDecimal.ZERO
+                    : ((BigDecimal) value).stripTrailingZeros();
+            if (decimal.scale() <= 0) {
+                try {
+                    return decimal.longValueExact();
+                } catch (ArithmeticException e) {
+                    // too large for a long, hashed as a decimal
+                }
+            }
+            return decimal;
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (number == Math.rint(number) && Math.abs(number) < 1e18) {
+                return (long) number;
+            }
+            return number;
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value) ? 1L : 0L;
+        } else if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            return Math.floorDiv(timestamp.getTime(), 1000) * 1000000000L
+                    + timestamp.getNanos();
+        } else if (value instanceof java.util.Date) {
+            // dates and times as nanoseconds, like timestamps
+            return ((java.util.Date) value).getTime() * 1000000L;
+        } else if (value instanceof String) {
+            String text = (String) value;
+            int end = text.length();
+            while (end > 0 && text.charAt(end - 1) == ' ') {
+                end--;
+            }
+            return text.substring(0, end);
+        }
+        return value;
+    }
+
+    private static long valueHash(Object value) {
+        if (value == null) {
+            return NULL_HASH;
+        } else if (value instanceof Long) {
+            return (Long) value;
+        } else if (value instanceof Double) {
+            return Double.doubleToLongBits((Double) value);
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            return fnv(decimal.unscaledValue().toByteArray()) * 31
+                    + decimal.scale();
+        } else if (value instanceof byte[]) {
+            return fnv((byte[]) value);
+        } else if (value instanceof Clob || value instanceof Blob
+                || value instanceof LobValue) {
+            return lobHash(value);
+        }
+        return fnv(value.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long fnv(byte[] bytes) {
+        return fnv(FNV_OFFSET, bytes, 0, bytes.length);
+    }
+
+    private static long fnv(long hash, byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ (bytes[i] & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the hash of the contents of a LOB value, read as a stream
+     */
+    private static long lobHash(Object value) {
+        try {
+            if (value instanceof Blob) {
+                try (InputStream in = ((Blob) value).getBinaryStream()) {
+                    return binaryHash(in);
+                }
+            } else if (value instanceof Clob) {
+                try (Reader in = ((Clob) value).getCharacterStream()) {
+                    return textHash(in);
+                }
+            }
+            LobValue lob = (LobValue) value;
+            try (InputStream in = Files.newInputStream(lob.getFile())) {
+                // staged text is kept in UTF-8
+                return lob.isBinary() ? binaryHash(in)
+                        : textHash(new InputStreamReader(in,
+                                StandardCharsets.UTF_8));
+            }
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException("Not able to read LOB value to hash",
+                    e);
+        }
+    }
+
+    private static long binaryHash(InputStream in) throws IOException {
+        long hash = FNV_OFFSET;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            hash = fnv(hash, buffer, 0, read);
+        }
+        return hash;
+    }
+
+    /**
+     * @return the hash of the text the way a string is hashed, in UTF-8
+     *         without its trailing blanks
+     */
+    private static long textHash(Reader in) throws IOException {
+        long hash = FNV_OFFSET;
+        // blanks not yet hashed, they are once followed by other text
+        int blanks = 0;
+        char[] buffer = new char[BUFFER_SIZE];
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+            length += read;
+            // a surrogate pair is encoded once both halves are read
+            int end = Character.isHighSurrogate(buffer[length - 1])
+                    ? length - 1 : length;
+            int text = end;
+            while (text > 0 && buffer[text - 1] == ' ') {
+                text--;
+            }
+            if (text > 0) {
+                hash = blanks(hash, blanks);
+                byte[] bytes = new String(buffer, 0, text)
+                        .getBytes(StandardCharsets.UTF_8);
+                hash = fnv(hash, bytes, 0, bytes.length);
+                blanks = end - text;
+            } else {
+                blanks += end;
+            }
+            System.arraycopy(buffer, end, buffer, 0, length - end);
+            length -= end;
+        }
+        if (length > 0) {
+            hash = blanks(hash, blanks);
+            byte[] bytes = new String(buffer, 0, length)
+                    .getBytes(StandardCharsets.UTF_8);
+            hash = fnv(hash, bytes, 0, bytes.length);
+        }
+        return hash;
+    }
+
+    private static long blanks(long hash, int blanks) {
+        for (int i = 0; i < blanks; i++) {
+            hash = (hash ^ ' ') * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Finalizer of SplitMix64, spreading every input bit over the output
+     */
+    private static long mix(long value) {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
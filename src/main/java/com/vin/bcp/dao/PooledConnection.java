@@ -0,0 +1,90 @@
+package com.vin.bcp.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A physical connection owned by a {@link ConnectionPool} together with its
+ * cache of prepared statements
+ *
+ */
+class PooledConnection {
+    private static final int STATEMENT_CACHE_SIZE = 32;
+
+    final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    private Boolean autoCommit = null;
+    long lastUsed;
+
+    PooledConnection(Connection connection) {
+        this.connection = connection;
+        this.lastUsed = System.currentTimeMillis();
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16,
+                0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > STATEMENT_CACHE_SIZE) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached statement for the sql, prepared on first use
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null) {
+            ps = connection.prepareStatement(sql);
+            statements.put(sql, ps);
+        }
+        return ps;
+    }
+
+    /**
+     * @return auto commit as last set, a connection never set is in the auto
+     *         commit mode of a new connection
+     */
+    boolean isAutoCommit() {
+        return autoCommit == null || autoCommit.booleanValue();
+    }
+
+    /**
+     * Change auto commit only when it differs, avoiding a round trip per call
+     */
+    void setAutoCommit(boolean value) throws SQLException {
+        if (autoCommit == null || autoCommit.booleanValue() != value) {
+            connection.setAutoCommit(value);
+            autoCommit = value;
+        }
+    }
+
+    void close() {
+        for (PreparedStatement ps : statements.values()) {
+            closeQuietly(ps);
+        }
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // the connection is discarded anyway
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            // the statement is discarded anyway
+        }
+    }
+}
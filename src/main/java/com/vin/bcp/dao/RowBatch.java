@@ -0,0 +1,848 @@
+package com.vin.bcp.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Represent a batch of database rows stored column wise. Column types are read
+ * once per query, integral and floating point values are kept in primitive
+ * arrays with a null bitmap and only the remaining types are kept as objects
+ *
+ */
+public class RowBatch {
+    private static final int INT = 0;
+    private static final int LONG = 1;
+    private static final int DOUBLE = 2;
+    private static final int OBJECT = 3;
+    private static final int LOB = 4;
+
+    // tags of object values in the binary form
+    private static final byte STRING = 0;
+    private static final byte DECIMAL = 1;
+    private static final byte TIMESTAMP = 2;
+    private static final byte DATE = 3;
+    private static final byte TIME = 4;
+    private static final byte BYTES = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte SERIALIZED = 7;
+    private static final byte LOB_FILE = 8;
+
+    private final int[] types;
+    private final int[] kinds;
+    private final int capacity;
+    private int size;
+    private int partition;
+    // estimated bytes of the rows, and the bytes held for the batch while it
+    // is in flight
+    private final int fixedRowBytes;
+    private long objectBytes;
+    private long reservedBytes;
+    // reads the LOB columns, null to read them with getObject
+    private LobStager lobs;
+    // LOB memory taken by the values read through the stager
+    private long lobBytes;
+    // a slice shares the staged values of the batch it was cut from
+    private boolean shared;
+
+    private final int[][] ints;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final Object[][] objects;
+    private final long[][] nulls;
+
+    /**
+     * @param types
+     *            java.sql.Types of each column
+     * @param capacity
+     *            maximum number of rows in the batch
+     */
+    public RowBatch(int[] types, int capacity) {
+        this.types = types;
+        this.capacity = capacity;
+        int columnCount = types.length;
+        kinds = new int[columnCount];
+        ints = new int[columnCount][];
+        longs = new long[columnCount][];
+        doubles = new double[columnCount][];
+        objects = new Object[columnCount][];
+        nulls = new long[columnCount][];
+        int rowBytes = 0;
+        for (int i = 0; i < columnCount; i++) {
+            kinds[i] = kind(types[i]);
+            rowBytes += (kinds[i] == INT) ? 4 : 8;
+            switch (kinds[i]) {
+            case INT:
+                ints[i] = new int[capacity];
+                break;
+            case LONG:
+                longs[i] = new long[capacity];
+                break;
+            case DOUBLE:
+                doubles[i] = new double[capacity];
+                break;
+            default:
+                objects[i] = new Object[capacity];
+                break;
+            }
+            nulls[i] = new long[(capacity + 63) >>> 6];
+        }
+        this.fixedRowBytes = rowBytes;
+    }
+
+    /**
+     * @return java.sql.Types of each column of the result set
+     */
+    public static int[] columnTypes(ResultSetMetaData rsmd)
+            throws SQLException {
+        int[] types = new int[rsmd.getColumnCount()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = rsmd.getColumnType(i + 1);
+        }
+        return types;
+    }
+
+    private static int kind(int type) {
+        switch (type) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+            return INT;
+        case Types.BIGINT:
+            return LONG;
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+            return DOUBLE;
+        default:
+            return LobStager.isLob(type) ? LOB : OBJECT;
+        }
+    }
+
+    /**
+     * @return an empty batch with the same columns and capacity
+     */
+    public RowBatch newBatch() {
+        RowBatch batch = new RowBatch(types, capacity);
+        batch.lobs = lobs;
+        return batch;
+    }
+
+    /**
+     * @param lobs
+     *            stager the LOB columns are read through, null to read them
+     *            with getObject
+     */
+    public void setLobStager(LobStager lobs) {
+        this.lobs = lobs;
+    }
+
+    /**
+     * @return true if the other batch has the same columns and capacity, so
+     *         it can be reused in place of this one
+     */
+    public boolean isCompatible(RowBatch other) {
+        return (other != null) && (other.capacity == capacity)
+                && Arrays.equals(other.types, types);
+    }
+
+    /**
+     * Append the current row of the result set to the batch
+     */
+    public void readRow(ResultSet rs) throws SQLException {
+        int row = size;
+        for (int i = 0; i < kinds.length; i++) {
+            int position = i + 1;
+            boolean isNull;
+            switch (kinds[i]) {
+            case INT:
+                ints[i][row] = rs.getInt(position);
+                isNull = rs.wasNull();
+                break;
+            case LONG:
+                longs[i][row] = rs.getLong(position);
+                isNull = rs.wasNull();
+                break;
+            case DOUBLE:
+                doubles[i][row] = rs.getDouble(position);
+                isNull = rs.wasNull();
+                break;
+            case LOB:
+                if (lobs != null) {
+                    objects[i][row] = lobs.read(rs, position, types[i]);
+                    lobBytes += LobStager.heapBytes(objects[i][row]);
+                } else {
+                    objects[i][row] = rs.getObject(position);
+                }
+                isNull = objects[i][row] == null;
+                objectBytes += estimateBytes(objects[i][row]);
+                break;
+            default:
+                objects[i][row] = rs.getObject(position);
+                isNull = objects[i][row] == null;
+                objectBytes += estimateBytes(objects[i][row]);
+                break;
+            }
+            setNull(i, row, isNull);
+        }
+        size++;
+    }
+
+    /**
+     * @return a new batch with a copy of the rows from the first, inclusive,
+     *         to the last, exclusive
+     */
+    public RowBatch slice(int from, int to) {
+        RowBatch slice = new RowBatch(types, Math.max(1, to - from));
+        slice.partition = partition;
+        slice.shared = true;
+        for (int row = from; row < to; row++) {
+            int copy = slice.size++;
+            for (int i = 0; i < kinds.length; i++) {
+                switch (kinds[i]) {
+                case INT:
+                    slice.ints[i][copy] = ints[i][row];
+                    break;
+                case LONG:
+                    slice.longs[i][copy] = longs[i][row];
+                    break;
+                case DOUBLE:
+                    slice.doubles[i][copy] = doubles[i][row];
+                    break;
+                default:
+                    slice.objects[i][copy] = objects[i][row];
+                    slice.objectBytes += estimateBytes(objects[i][row]);
+                    break;
+                }
+                slice.setNull(i, copy, isNull(row, i));
+            }
+        }
+        return slice;
+    }
+
+    /**
+     * Move a row of a batch with the same columns to the end of this batch.
+     * Values kept as objects, staged LOB values included, belong to this
+     * batch from then on
+     */
+    public void moveRow(RowBatch from, int row) {
+        int copy = size++;
+        if (lobs == null) {
+            lobs = from.lobs;
+        }
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+            case INT:
+                ints[i][copy] = from.ints[i][row];
+                break;
+            case LONG:
+                longs[i][copy] = from.longs[i][row];
+                break;
+            case DOUBLE:
+                doubles[i][copy] = from.doubles[i][row];
+                break;
+            default:
+                Object value = from.objects[i][row];
+                objects[i][copy] = value;
+                objectBytes += estimateBytes(value);
+                if (kinds[i] == LOB) {
+                    long bytes = LobStager.heapBytes(value);
+                    from.lobBytes -= bytes;
+                    lobBytes += bytes;
+                }
+                // emptying the other batch no longer drops the value
+                from.objects[i][row] = null;
+                break;
+            }
+            setNull(i, copy, from.isNull(row, i));
+        }
+    }
+
+    /**
+     * Move the rows into an empty batch with the same columns, in the order
+     * of the values of the column, nulls first. This batch is left empty
+     *
+     * @return the batch the rows were moved to
+     */
+    public RowBatch sortInto(RowBatch into, final int column) {
+        Integer[] order = new Integer[size];
+        for (int row = 0; row < size; row++) {
+            order[row] = row;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareValues(getObject(a, column), getObject(b, column));
+            }
+        });
+        into.partition = partition;
+        for (int row : order) {
+            into.moveRow(this, row);
+        }
+        clear();
+        return into;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static int compareValues(Object a, Object b) {
+        if (a == null || b == null) {
+            return (a == null) ? ((b == null) ? 0 : -1) : 1;
+        } else if (a instanceof Number && b instanceof Number
+                && a.getClass() != b.getClass()) {
+            return Double.compare(((Number) a).doubleValue(),
+                    ((Number) b).doubleValue());
+        } else if (a instanceof Comparable && a.getClass() == b.getClass()) {
+            return ((Comparable) a).compareTo(b);
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    /**
+     * Drop the last row appended to the batch
+     */
+    void removeLast() {
+        size--;
+        for (int i = 0; i < kinds.length; i++) {
+            if (objects[i] != null) {
+                Object value = objects[i][size];
+                objectBytes -= estimateBytes(value);
+                if (kinds[i] == LOB && lobs != null) {
+                    long bytes = LobStager.heapBytes(value);
+                    lobs.release(bytes);
+                    lobBytes -= bytes;
+                    drop(value);
+                }
+                objects[i][size] = null;
+            }
+        }
+    }
+
+    private void setNull(int column, int row, boolean isNull) {
+        if (isNull) {
+            nulls[column][row >>> 6] |= 1L << row;
+        } else {
+            nulls[column][row >>> 6] &= ~(1L << row);
+        }
+    }
+
+    public boolean isNull(int row, int column) {
+        return (nulls[column][row >>> 6] & (1L << row)) != 0;
+    }
+
+    public int getInt(int row, int column) {
+        return ints[column][row];
+    }
+
+    public long getLong(int row, int column) {
+        return longs[column][row];
+    }
+
+    public double getDouble(int row, int column) {
+        return doubles[column][row];
+    }
+
+    /**
+     * @return the value of any column boxed, null for SQL NULL
+     */
+    public Object getObject(int row, int column) {
+        if (isNull(row, column)) {
+            return null;
+        }
+        switch (kinds[column]) {
+        case INT:
+            return ints[column][row];
+        case LONG:
+            return longs[column][row];
+        case DOUBLE:
+            return doubles[column][row];
+        default:
+            return objects[column][row];
+        }
+    }
+
+    /**
+     * @return the value of a column kept as an object, without checking for
+     *         SQL NULL
+     */
+    Object value(int row, int column) {
+        return objects[column][row];
+    }
+
+    /**
+     * @return id of the source partition the rows were read from
+     */
+    public int getPartition() {
+        return partition;
+    }
+
+    public void setPartition(int partition) {
+        this.partition = partition;
+    }
+
+    /**
+     * @return java.sql.Types of the column
+     */
+    public int getType(int column) {
+        return types[column];
+    }
+
+    public int getColumnCount() {
+        return types.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Write the batch in a compact binary form, read back by
+     * {@link #readFrom(DataInput, RowBatch)}. Staged LOB values are written
+     * in full
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        writeTo(out, false);
+    }
+
+    /**
+     * Write the batch in a compact binary form, read back by
+     * {@link #readFrom(DataInput, RowBatch)}
+     *
+     * @param lobFiles
+     *            true to write staged LOB values as their files, handed over
+     *            to the batch read back. Only for batches read back by the
+     *            same job
+     */
+    public void writeTo(DataOutput out, boolean lobFiles) throws IOException {
+        out.writeInt(types.length);
+        for (int type : types) {
+            out.writeInt(type);
+        }
+        out.writeInt(capacity);
+        out.writeInt(partition);
+        out.writeInt(size);
+        int words = (size + 63) >>> 6;
+        for (int i = 0; i < kinds.length; i++) {
+            for (int w = 0; w < words; w++) {
+                out.writeLong(nulls[i][w]);
+            }
+            for (int row = 0; row < size; row++) {
+                switch (kinds[i]) {
+                case INT:
+                    out.writeInt(ints[i][row]);
+                    break;
+                case LONG:
+                    out.writeLong(longs[i][row]);
+                    break;
+                case DOUBLE:
+                    out.writeDouble(doubles[i][row]);
+                    break;
+                default:
+                    if (isNull(row, i)) {
+                        break;
+                    } else if (objects[i][row] instanceof LobValue) {
+                        writeLob(out, (LobValue) objects[i][row], lobFiles);
+                    } else {
+                        writeValue(out, objects[i][row]);
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return exact number of bytes {@link #writeTo(DataOutput, boolean)}
+     *         writes, for the batch to be written in place
+     */
+    public long serializedSize(boolean lobFiles) throws IOException {
+        int words = (size + 63) >>> 6;
+        long bytes = 4 + 4L * types.length + 12 + 8L * words * kinds.length;
+        for (int i = 0; i < kinds.length; i++) {
+            for (int row = 0; row < size; row++) {
+                switch (kinds[i]) {
+                case INT:
+                    bytes += 4;
+                    break;
+                case LONG:
+                case DOUBLE:
+                    bytes += 8;
+                    break;
+                default:
+                    if (isNull(row, i)) {
+                        break;
+                    } else if (objects[i][row] instanceof LobValue) {
+                        bytes += lobSize((LobValue) objects[i][row], lobFiles);
+                    } else {
+                        bytes += valueSize(objects[i][row]);
+                    }
+                    break;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Read a batch written by {@link #writeTo(DataOutput)}
+     *
+     * @param spare
+     *            an empty batch to read into if it has the same columns and
+     *            capacity, may be null
+     */
+    public static RowBatch readFrom(DataInput in, RowBatch spare)
+            throws IOException {
+        int[] types = new int[in.readInt()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = in.readInt();
+        }
+        int capacity = in.readInt();
+        RowBatch batch = (spare != null && spare.capacity == capacity && Arrays
+                .equals(spare.types, types)) ? spare : new RowBatch(types,
+                capacity);
+        batch.clear();
+        batch.partition = in.readInt();
+        batch.size = in.readInt();
+        int words = (batch.size + 63) >>> 6;
+        for (int i = 0; i < batch.kinds.length; i++) {
+            for (int w = 0; w < words; w++) {
+                batch.nulls[i][w] = in.readLong();
+            }
+            for (int row = 0; row < batch.size; row++) {
+                switch (batch.kinds[i]) {
+                case INT:
+                    batch.ints[i][row] = in.readInt();
+                    break;
+                case LONG:
+                    batch.longs[i][row] = in.readLong();
+                    break;
+                case DOUBLE:
+                    batch.doubles[i][row] = in.readDouble();
+                    break;
+                default:
+                    batch.objects[i][row] = batch.isNull(row, i) ? null
+                            : readValue(in);
+                    batch.objectBytes += estimateBytes(batch.objects[i][row]);
+                    break;
+                }
+            }
+        }
+        return batch;
+    }
+
+    private static void writeValue(DataOutput out, Object value)
+            throws IOException {
+        if (value instanceof String) {
+            out.writeByte(STRING);
+            writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            out.writeByte(DECIMAL);
+            out.writeInt(decimal.scale());
+            writeBytes(out, decimal.unscaledValue().toByteArray());
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof Date) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Time) {
+            out.writeByte(TIME);
+            out.writeLong(((Time) value).getTime());
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(value);
+            }
+            out.writeByte(SERIALIZED);
+            writeBytes(out, bytes.toByteArray());
+        } else {
+            throw new IOException("Not able to write a value of "
+                    + value.getClass().getName());
+        }
+    }
+
+    /**
+     * @return bytes written by {@link #writeValue(DataOutput, Object)}
+     */
+    private static long valueSize(Object value) throws IOException {
+        if (value instanceof String) {
+            return 5 + utf8Length((String) value);
+        } else if (value instanceof BigDecimal) {
+            return 9 + ((BigDecimal) value).unscaledValue().bitLength() / 8 + 1;
+        } else if (value instanceof Timestamp) {
+            return 13;
+        } else if (value instanceof Date || value instanceof Time) {
+            return 9;
+        } else if (value instanceof byte[]) {
+            return 5 + ((byte[]) value).length;
+        } else if (value instanceof Boolean) {
+            return 2;
+        } else if (value instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(value);
+            }
+            return 5 + bytes.size();
+        }
+        throw new IOException("Not able to write a value of "
+                + value.getClass().getName());
+    }
+
+    /**
+     * @return bytes written by {@link #writeLob(DataOutput, LobValue,
+     *         boolean)}
+     */
+    private static long lobSize(LobValue lob, boolean lobFiles)
+            throws IOException {
+        if (!lobFiles) {
+            return 5 + lob.getFileBytes();
+        }
+        // writeUTF of the path, in modified UTF-8
+        String file = lob.getFile().toString();
+        long bytes = 2;
+        for (int i = 0; i < file.length(); i++) {
+            char c = file.charAt(i);
+            bytes += (c >= 0x0001 && c <= 0x007f) ? 1 : (c <= 0x07ff) ? 2 : 3;
+        }
+        return 1 + bytes + 1 + 8;
+    }
+
+    /**
+     * @return length of the string in UTF-8, a lone surrogate being encoded
+     *         as one replacement byte
+     */
+    private static int utf8Length(String value) {
+        int length = value.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            } else if (c < 0x800) {
+                length += 1;
+            } else if (!Character.isSurrogate(c)) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // four bytes for the two chars of the pair
+                length += 2;
+                i++;
+            }
+        }
+        return length;
+    }
+
+    private static void writeLob(DataOutput out, LobValue lob,
+            boolean lobFiles) throws IOException {
+        if (lobFiles) {
+            out.writeByte(LOB_FILE);
+            out.writeUTF(lob.getFile().toString());
+            out.writeBoolean(lob.isBinary());
+            out.writeLong(lob.getLength());
+            lob.handOver();
+            return;
+        }
+        // in the form of a byte array or a string, UTF-8 being the form
+        // of both a string and a staged character value
+        long bytes = lob.getFileBytes();
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Not able to write " + lob
+                    + ", larger than 2 GB");
+        }
+        out.writeByte(lob.isBinary() ? BYTES : STRING);
+        out.writeInt((int) bytes);
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = lob.openStream()) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static Object readValue(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+        case LOB_FILE:
+            String file = in.readUTF();
+            boolean binary = in.readBoolean();
+            return new LobValue(Paths.get(file), binary, in.readLong());
+        case STRING:
+            return new String(readBytes(in), StandardCharsets.UTF_8);
+        case DECIMAL:
+            int scale = in.readInt();
+            return new BigDecimal(new BigInteger(readBytes(in)), scale);
+        case TIMESTAMP:
+            Timestamp timestamp = new Timestamp(in.readLong());
+            timestamp.setNanos(in.readInt());
+            return timestamp;
+        case DATE:
+            return new Date(in.readLong());
+        case TIME:
+            return new Time(in.readLong());
+        case BYTES:
+            return readBytes(in);
+        case BOOLEAN:
+            return in.readBoolean();
+        case SERIALIZED:
+            try (ObjectInputStream ois = new ObjectInputStream(
+                    new ByteArrayInputStream(readBytes(in)))) {
+                return ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        default:
+            throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes)
+            throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Empty the batch for reuse. Object references are released so that
+     * values are not kept alive by a reused batch
+     */
+    public void clear() {
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == LOB && !shared) {
+                for (int row = 0; row < size; row++) {
+                    drop(objects[i][row]);
+                }
+            }
+            if (objects[i] != null) {
+                Arrays.fill(objects[i], 0, size, null);
+            }
+        }
+        if (lobs != null) {
+            lobs.release(lobBytes);
+        }
+        lobBytes = 0;
+        size = 0;
+        objectBytes = 0;
+    }
+
+    /**
+     * @return number of values of the row staged in files, each bound to a
+     *         statement as an open stream
+     */
+    int stagedValues(int row) {
+        int staged = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == LOB && objects[i][row] instanceof LobValue) {
+                staged++;
+            }
+        }
+        return staged;
+    }
+
+    /**
+     * Close the streams of the staged values of the rows from the first,
+     * inclusive, to the last, exclusive, once the statements they were bound
+     * to are executed
+     */
+    void closeStaged(int from, int to) {
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] != LOB) {
+                continue;
+            }
+            for (int row = from; row < to; row++) {
+                if (objects[i][row] instanceof LobValue) {
+                    ((LobValue) objects[i][row]).closeStream();
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete the file of a staged LOB value no longer in the batch
+     */
+    private static void drop(Object value) {
+        if (value instanceof LobValue) {
+            ((LobValue) value).delete();
+        }
+    }
+
+    /**
+     * @return estimated heap bytes of the rows in the batch
+     */
+    public long getBytes() {
+        return (long) size * fixedRowBytes + objectBytes;
+    }
+
+    /**
+     * @return bytes held for the batch while it is in flight, 0 if none
+     */
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    public void setReservedBytes(long reservedBytes) {
+        this.reservedBytes = reservedBytes;
+    }
+
+    /**
+     * @return rough heap size of a value read from the source, header and
+     *         fields of the object included
+     */
+    private static long estimateBytes(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        } else if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        } else if (value instanceof BigDecimal) {
+            return 72 + ((BigDecimal) value).unscaledValue().bitLength() / 8;
+        } else if (value instanceof Timestamp) {
+            return 32;
+        } else if (value instanceof java.util.Date) {
+            return 24;
+        } else if (value instanceof Boolean) {
+            return 0;
+        }
+        return 64;
+    }
+}
@@ -0,0 +1,558 @@
+package com.vin.bcp.dao;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.util.DBConfig;
+
+/**
+ * Secondary indexes, foreign keys and triggers of the target table, dropped
+ * or disabled before rows are written and rebuilt after. Unique and
+ * clustered indexes are left in place. The statements restoring the objects
+ * are saved to a file before anything is dropped, so the objects of a job
+ * that dies before the rebuild are restored by the next run
+ *
+ */
+public class TargetObjects {
+    private static Logger logger = LogManager.getLogger(TargetObjects.class);
+
+    static final String INDEX = "INDEX";
+    static final String FOREIGN_KEY = "FOREIGN KEY";
+    static final String TRIGGER = "TRIGGER";
+    // ends the statement of an object in the file
+    private static final String END = "/";
+
+    /**
+     * An object of the target, with the statement dropping or disabling it
+     * and the one restoring it
+     */
+    static class TargetObject {
+        final String kind;
+        final String name;
+        final String drop;
+        final String restore;
+
+        TargetObject(String kind, String name, String drop, String restore) {
+            this.kind = kind;
+            this.name = name;
+            this.drop = drop;
+            this.restore = restore;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + name;
+        }
+    }
+
+    private final DBConfig config;
+    private final Path file;
+    private final List<TargetObject> objects;
+
+    private TargetObjects(DBConfig config, Path file,
+            List<TargetObject> objects) {
+        this.config = config;
+        this.file = file;
+        this.objects = objects;
+    }
+
+    /**
+     * Drop the secondary indexes and foreign keys of the target table and
+     * disable its triggers. Objects left dropped by a job that died are
+     * restored first
+     *
+     * @param file
+     *            the file the restoring statements are saved to
+     */
+    public static TargetObjects drop(DBConfig config, String file,
+            int threads) {
+        Path path = Paths.get(file);
+        try (Connection conn = DAO.INSTANCE.getDBConnection(config)) {
+            conn.setAutoCommit(true);
+            if (Files.exists(path)) {
+                logger.warn("Restoring the objects of " + config.table
+                        + " left dropped in " + file);
+                restoreLeft(config, conn, path, threads);
+            }
+            List<TargetObject> objects = capture(config, conn);
+            TargetObjects target = new TargetObjects(config, path, objects);
+            if (objects.isEmpty()) {
+                logger.info("No index, foreign key or trigger to drop on "
+                        + config.table);
+                return target;
+            }
+            target.save();
+            try {
+                // foreign keys first, an index may back one of them
+                try (Statement stmt = conn.createStatement()) {
+                    for (String kind : new String[] { FOREIGN_KEY, INDEX,
+                            TRIGGER }) {
+                        for (TargetObject object : objects) {
+                            if (object.kind.equals(kind)) {
+                                logger.info("Drop SQL --> " + object.drop);
+                                stmt.execute(object.drop);
+                            }
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                logger.error("Not able to drop the objects of "
+                        + config.table + ", restoring the ones dropped", e);
+                restoreLeft(config, conn, path, threads);
+                throw e;
+            }
+            logger.info("Dropped " + objects.size() + " objects of "
+                    + config.table + ", restored by " + file);
+            return target;
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException("Not able to drop the objects of "
+                    + config.table, e);
+        }
+    }
+
+    /**
+     * Restore the objects saved to the file that the table no longer has
+     */
+    private static void restoreLeft(DBConfig config, Connection conn,
+            Path file, int threads) throws SQLException {
+        TargetObjects left = load(config, file);
+        left.skipExisting(capture(config, conn));
+        if (!left.restore(threads, false)) {
+            throw new RuntimeException("Not able to restore the objects of "
+                    + file + ", restore them before writing to "
+                    + config.table);
+        }
+    }
+
+    /**
+     * Rebuild the indexes and then the foreign keys in parallel, enable the
+     * triggers and refresh the statistics of the table. The file is deleted
+     * once every object is restored
+     *
+     * @return true if every object was restored
+     */
+    public boolean restore(int threads) {
+        return restore(threads, true);
+    }
+
+    private boolean restore(int threads, boolean statistics) {
+        if (objects.isEmpty()) {
+            deleteFile();
+            return true;
+        }
+        logger.info("Restoring " + objects.size() + " objects of "
+                + config.table);
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, threads), new ThreadFactory() {
+                    private AtomicInteger suffix = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "REBUILD-"
+                                + suffix.incrementAndGet());
+                    }
+                });
+        int failed = 0;
+        try {
+            // a foreign key may need the index of the table it refers to
+            failed += restore(pool, INDEX);
+            failed += restore(pool, FOREIGN_KEY);
+        } finally {
+            pool.shutdownNow();
+        }
+        for (TargetObject object : objects) {
+            if (object.kind.equals(TRIGGER)) {
+                try {
+                    execute(object.restore);
+                } catch (SQLException | RuntimeException e) {
+                    failed++;
+                    logger.error("Not able to restore " + object, e);
+                }
+            }
+        }
+        if (statistics) {
+            updateStatistics();
+        }
+        if (failed > 0) {
+            logger.error(failed + " objects of " + config.table
+                    + " not restored, their statements are in " + file);
+            return false;
+        }
+        deleteFile();
+        logger.info("Restored " + objects.size() + " objects of "
+                + config.table);
+        return true;
+    }
+
+    /**
+     * @return number of objects of the kind not restored
+     */
+    private int restore(ExecutorService pool, String kind) {
+        List<TargetObject> restored = new ArrayList<>();
+        List<Future<Void>> results = new ArrayList<>();
+        for (final TargetObject object : objects) {
+            if (object.kind.equals(kind)) {
+                restored.add(object);
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws SQLException {
+                        execute(object.restore);
+                        return null;
+                    }
+                }));
+            }
+        }
+        int failed = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                results.get(i).get();
+            } catch (ExecutionException e) {
+                failed++;
+                logger.error("Not able to restore " + restored.get(i),
+                        e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return failed + results.size() - i;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Leave out the indexes and foreign keys the table has, a job that died
+     * may not have dropped them all. Triggers are enabled in any case
+     */
+    private void skipExisting(List<TargetObject> existing) {
+        List<String> names = new ArrayList<>();
+        for (TargetObject object : existing) {
+            if (!object.kind.equals(TRIGGER)) {
+                names.add(object.toString());
+            }
+        }
+        List<TargetObject> left = new ArrayList<>();
+        for (TargetObject object : objects) {
+            if (!names.contains(object.toString())) {
+                left.add(object);
+            }
+        }
+        objects.retainAll(left);
+    }
+
+    private void execute(String sql) throws SQLException {
+        long start = System.nanoTime();
+        try (Connection conn = DAO.INSTANCE.getDBConnection(config);
+                Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(true);
+            logger.info("Restore SQL --> " + sql);
+            stmt.execute(sql);
+        }
+        logger.info("Restored in " + (System.nanoTime() - start) / 1000000
+                + " ms --> " + sql);
+    }
+
+    /**
+     * Refresh the statistics of the table and its indexes after the load
+     */
+    private void updateStatistics() {
+        String sql;
+        if ("SYBASE".equalsIgnoreCase(config.dbType)) {
+            sql = "UPDATE INDEX STATISTICS " + config.table;
+        } else if ("DB2".equalsIgnoreCase(config.dbType)) {
+            String[] name = DAO.qualifiedName(config.table);
+            String schema = (name[1] != null) ? name[1] : config.dbUserId;
+            sql = "CALL SYSPROC.ADMIN_CMD('RUNSTATS ON TABLE "
+                    + schema.toUpperCase() + "." + name[2].toUpperCase()
+                    + " WITH DISTRIBUTION AND INDEXES ALL')";
+        } else {
+            sql = "ANALYZE TABLE " + config.table;
+        }
+        try {
+            execute(sql);
+        } catch (SQLException | RuntimeException e) {
+            logger.warn("Statistics of " + config.table + " not refreshed", e);
+        }
+    }
+
+    /**
+     * @return the secondary indexes and foreign keys of the table and its
+     *         triggers
+     */
+    private static List<TargetObject> capture(DBConfig config,
+            Connection conn) throws SQLException {
+        String[] name = DAO.qualifiedName(config.table);
+        DatabaseMetaData dbmd = conn.getMetaData();
+        List<TargetObject> objects = indexes(config, dbmd, name[0], name[1],
+                name[2]);
+        if (objects == null) {
+            objects = indexes(config, dbmd, name[0], (name[1] == null) ? null
+                    : name[1].toUpperCase(), name[2].toUpperCase());
+        }
+        if (objects == null) {
+            throw new SQLException("Table " + config.table + " not found");
+        }
+        List<TargetObject> keys = foreignKeys(config, dbmd, name[0], name[1],
+                name[2]);
+        if (keys.isEmpty()) {
+            keys = foreignKeys(config, dbmd, name[0], (name[1] == null) ? null
+                    : name[1].toUpperCase(), name[2].toUpperCase());
+        }
+        objects.addAll(keys);
+        objects.addAll(triggers(config, conn, name));
+        for (TargetObject object : objects) {
+            logger.debug("[ TARGET " + object + " = " + object.restore + " ]");
+        }
+        return objects;
+    }
+
+    /**
+     * @return the non unique, non clustered indexes, null if the table is
+     *         not found under the name
+     */
+    private static List<TargetObject> indexes(DBConfig config,
+            DatabaseMetaData dbmd, String catalog, String schema, String table)
+            throws SQLException {
+        Map<String, TreeMap<Integer, String>> columns = new LinkedHashMap<>();
+        Map<String, String> qualifiers = new LinkedHashMap<>();
+        boolean found = false;
+        try (ResultSet rs = dbmd.getIndexInfo(catalog, schema, table, false,
+                true)) {
+            while (rs.next()) {
+                found = true;
+                short type = rs.getShort("TYPE");
+                String index = rs.getString("INDEX_NAME");
+                if (type == DatabaseMetaData.tableIndexStatistic
+                        || type == DatabaseMetaData.tableIndexClustered
+                        || !rs.getBoolean("NON_UNIQUE") || index == null) {
+                    continue;
+                }
+                if (!columns.containsKey(index)) {
+                    columns.put(index, new TreeMap<Integer, String>());
+                    qualifiers.put(index, rs.getString("INDEX_QUALIFIER"));
+                }
+                String column = rs.getString("COLUMN_NAME");
+                if ("D".equals(rs.getString("ASC_OR_DESC"))) {
+                    column += " DESC";
+                }
+                columns.get(index).put((int) rs.getShort("ORDINAL_POSITION"),
+                        column);
+            }
+        }
+        if (!found) {
+            return null;
+        }
+        List<TargetObject> objects = new ArrayList<>();
+        for (Map.Entry<String, TreeMap<Integer, String>> index : columns
+                .entrySet()) {
+            String qualifier = qualifiers.get(index.getKey());
+            String indexName = index.getKey();
+            String drop;
+            if ("SYBASE".equalsIgnoreCase(config.dbType)) {
+                drop = "DROP INDEX " + config.table + "." + indexName;
+            } else if ("DB2".equalsIgnoreCase(config.dbType)) {
+                // the qualifier of a DB2 index is its schema
+                if (qualifier != null && !qualifier.trim().isEmpty()) {
+                    indexName = qualifier.trim() + "." + indexName;
+                }
+                drop = "DROP INDEX " + indexName;
+            } else {
+                // the index of a foreign key goes with the foreign key
+                drop = "DROP INDEX IF EXISTS " + indexName;
+            }
+            String restore = "CREATE INDEX " + indexName + " ON "
+                    + config.table + " ("
+                    + String.join(", ", index.getValue().values()) + ")";
+            objects.add(new TargetObject(INDEX, indexName, drop, restore));
+        }
+        return objects;
+    }
+
+    private static List<TargetObject> foreignKeys(DBConfig config,
+            DatabaseMetaData dbmd, String catalog, String schema, String table)
+            throws SQLException {
+        Map<String, TreeMap<Integer, String[]>> keys = new LinkedHashMap<>();
+        Map<String, String> references = new LinkedHashMap<>();
+        Map<String, Short> deleteRules = new LinkedHashMap<>();
+        try (ResultSet rs = dbmd.getImportedKeys(catalog, schema, table)) {
+            while (rs.next()) {
+                String key = rs.getString("FK_NAME");
+                if (key == null) {
+                    continue;
+                }
+                if (!keys.containsKey(key)) {
+                    keys.put(key, new TreeMap<Integer, String[]>());
+                    String referenced = rs.getString("PKTABLE_NAME");
+                    String referencedSchema = rs.getString("PKTABLE_SCHEM");
+                    if (referencedSchema != null
+                            && !referencedSchema.trim().isEmpty()) {
+                        referenced = referencedSchema.trim() + "." + referenced;
+                    }
+                    references.put(key, referenced);
+                    deleteRules.put(key, rs.getShort("DELETE_RULE"));
+                }
+                keys.get(key).put((int) rs.getShort("KEY_SEQ"),
+                        new String[] { rs.getString("FKCOLUMN_NAME"),
+                                rs.getString("PKCOLUMN_NAME") });
+            }
+        }
+        List<TargetObject> objects = new ArrayList<>();
+        for (Map.Entry<String, TreeMap<Integer, String[]>> key : keys
+                .entrySet()) {
+            List<String> columns = new ArrayList<>();
+            List<String> referencedColumns = new ArrayList<>();
+            for (String[] pair : key.getValue().values()) {
+                columns.add(pair[0]);
+                referencedColumns.add(pair[1]);
+            }
+            String drop = "ALTER TABLE " + config.table
+                    + ("DB2".equalsIgnoreCase(config.dbType) ? " DROP FOREIGN KEY "
+                            : " DROP CONSTRAINT ") + key.getKey();
+            String restore = "ALTER TABLE " + config.table
+                    + " ADD CONSTRAINT " + key.getKey() + " FOREIGN KEY ("
+                    + String.join(", ", columns) + ") REFERENCES "
+                    + references.get(key.getKey()) + " ("
+                    + String.join(", ", referencedColumns) + ")";
+            // Sybase declares no referential actions
+            if (!"SYBASE".equalsIgnoreCase(config.dbType)) {
+                short rule = deleteRules.get(key.getKey());
+                if (rule == DatabaseMetaData.importedKeyCascade) {
+                    restore += " ON DELETE CASCADE";
+                } else if (rule == DatabaseMetaData.importedKeySetNull) {
+                    restore += " ON DELETE SET NULL";
+                }
+            }
+            objects.add(new TargetObject(FOREIGN_KEY, key.getKey(), drop,
+                    restore));
+        }
+        return objects;
+    }
+
+    /**
+     * Triggers of DB2 are dropped and created again from their text in the
+     * catalog, triggers of Sybase are disabled and enabled
+     */
+    private static List<TargetObject> triggers(DBConfig config,
+            Connection conn, String[] name) throws SQLException {
+        List<TargetObject> objects = new ArrayList<>();
+        if ("DB2".equalsIgnoreCase(config.dbType)) {
+            String sql = "SELECT TRIGSCHEMA, TRIGNAME, TEXT FROM SYSCAT.TRIGGERS"
+                    + " WHERE TABSCHEMA = COALESCE(?, CURRENT SCHEMA)"
+                    + " AND TABNAME = ?";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, (name[1] == null) ? null : name[1]
+                        .toUpperCase());
+                ps.setString(2, name[2].toUpperCase());
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String trigger = rs.getString(1).trim() + "."
+                                + rs.getString(2);
+                        objects.add(new TargetObject(TRIGGER, trigger,
+                                "DROP TRIGGER " + trigger, rs.getString(3)));
+                    }
+                }
+            }
+        } else if ("SYBASE".equalsIgnoreCase(config.dbType)) {
+            String sql = "SELECT name FROM sysobjects WHERE type = 'TR'"
+                    + " AND deltrig = object_id(?)";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, config.table);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        String trigger = rs.getString(1);
+                        objects.add(new TargetObject(TRIGGER, trigger,
+                                "ALTER TABLE " + config.table
+                                        + " DISABLE TRIGGER " + trigger,
+                                "ALTER TABLE " + config.table
+                                        + " ENABLE TRIGGER " + trigger));
+                    }
+                }
+            }
+        } else {
+            logger.debug("Triggers of " + config.dbType + " are left in place");
+        }
+        return objects;
+    }
+
+    /**
+     * Save the restoring statements, each after a comment naming the object
+     * and ended by a line of its own
+     */
+    private void save() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp,
+                StandardCharsets.UTF_8)) {
+            for (TargetObject object : objects) {
+                out.write("-- " + object.kind + " " + object.name);
+                out.newLine();
+                out.write(object.restore);
+                out.newLine();
+                out.write(END);
+                out.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static TargetObjects load(DBConfig config, Path file) {
+        List<TargetObject> objects = new ArrayList<>();
+        try {
+            String kind = null;
+            String name = null;
+            StringBuilder restore = new StringBuilder();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (kind == null && line.startsWith("-- ")) {
+                    String header = line.substring(3);
+                    kind = header.startsWith(FOREIGN_KEY) ? FOREIGN_KEY
+                            : header.substring(0, header.indexOf(' '));
+                    name = header.substring(kind.length() + 1);
+                } else if (END.equals(line.trim()) && kind != null) {
+                    objects.add(new TargetObject(kind, name, null, restore
+                            .toString()));
+                    kind = null;
+                    restore.setLength(0);
+                } else if (kind != null) {
+                    if (restore.length() > 0) {
+                        restore.append('\n');
+                    }
+                    restore.append(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to read " + file, e);
+        }
+        return new TargetObjects(config, file, objects);
+    }
+
+    private void deleteFile() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Not able to delete " + file, e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.vin.bcp.dao;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.util.DBConfig;
+
+/**
+ * Builds the insert statements of a target table and caches them by the
+ * number of columns and of rows per statement
+ *
+ */
+public class TargetSql {
+    private Logger logger = LogManager.getLogger(TargetSql.class);
+
+    private final DBConfig config;
+    private final Map<Long, String> statements = new ConcurrentHashMap<>();
+
+    public TargetSql(DBConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * @return true if the statement comes from a target sql file and cannot be
+     *         rewritten
+     */
+    public boolean isCustom() {
+        return config.sql != null;
+    }
+
+    /**
+     * @return single row insert statement
+     */
+    public String insert(int columnCount) {
+        if (config.sql != null) {
+            return config.sql;
+        }
+        return insert(columnCount, 1);
+    }
+
+    /**
+     * @return insert statement of the given number of rows, with the
+     *         parameters of each row following the ones of the row before
+     */
+    public String insert(int columnCount, int rows) {
+        Long key = ((long) columnCount << 32) | rows;
+        String sql = statements.get(key);
+        if (sql == null) {
+            sql = buildInsert(columnCount, rows);
+            statements.put(key, sql);
+            logger.debug("[ TARGET SQL = " + sql + " ]");
+        }
+        return sql;
+    }
+
+    private String buildInsert(int columnCount, int rows) {
+        StringBuilder params = new StringBuilder();
+        for (int i = 0; i < columnCount; i++) {
+            params.append("?");
+            if (i < columnCount - 1) {
+                params.append(",");
+            }
+        }
+
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(config.table);
+        if (config.columns != null) {
+            sql.append(" ( ").append(config.columns).append(" ) ");
+        }
+
+        if (rows == 1) {
+            sql.append(" VALUES ( ").append(params).append(" )");
+        } else if ("SYBASE".equalsIgnoreCase(config.dbType)) {
+            // ASE has no multi-row VALUES, a UNION ALL of selects does the
+            // same in one statement
+            for (int i = 0; i < rows; i++) {
+                sql.append((i == 0) ? " SELECT " : " UNION ALL SELECT ")
+                        .append(params);
+            }
+        } else {
+            sql.append(" VALUES ");
+            for (int i = 0; i < rows; i++) {
+                if (i > 0) {
+                    sql.append(",");
+                }
+                sql.append("( ").append(params).append(" )");
+            }
+        }
+        return sql.toString().trim();
+    }
+
+    /**
+     * @return the most parameters the target driver accepts in one statement
+     */
+    public int maxParameters() {
+        if ("SYBASE".equalsIgnoreCase(config.dbType)) {
+            return 2000;
+        } else if ("DB2".equalsIgnoreCase(config.dbType)) {
+            return 32767;
+        }
+        return 2000;
+    }
+}
@@ -0,0 +1,99 @@
+package com.vin.bcp.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.util.DBConfig;
+
+/**
+ * Strategy to send a batch of rows to the target table. The caller owns the
+ * transaction and commits once the batch is written
+ *
+ */
+public abstract class TargetWriter {
+    public static final String JDBC_BATCH = "batch";
+    public static final String MULTI_ROW = "multirow";
+    public static final String BULK = "bulk";
+
+    // staged LOB values bound as open files before the statements are sent,
+    // a batch of wide rows would otherwise run out of file descriptors
+    static final int MAX_OPEN_STREAMS = 256;
+
+    private static Logger logger = LogManager.getLogger(TargetWriter.class);
+
+    protected final TargetSql targetSql;
+    // binding plan of each statement, compiled on the first batch it writes
+    private final Map<String, BindingPlan> plans = new ConcurrentHashMap<>();
+
+    protected TargetWriter(TargetSql targetSql) {
+        this.targetSql = targetSql;
+    }
+
+    /**
+     * @return the writer of the configured strategy, falling back to JDBC
+     *         batch when the strategy is not possible for the target
+     */
+    public static TargetWriter forConfig(DBConfig config) {
+        TargetSql targetSql = new TargetSql(config);
+        String strategy = (config.writeStrategy == null) ? JDBC_BATCH
+                : config.writeStrategy.toLowerCase();
+        if (!JDBC_BATCH.equals(strategy) && targetSql.isCustom()) {
+            logger.warn("Target sql file is given, " + strategy
+                    + " write falls back to JDBC batch");
+            strategy = JDBC_BATCH;
+        }
+        switch (strategy) {
+        case MULTI_ROW:
+            return new MultiRowInsertWriter(targetSql);
+        case BULK:
+            if ("SYBASE".equalsIgnoreCase(config.dbType)) {
+                // jConnect turns the JDBC batch into a bulk copy when the
+                // connection url asks for ENABLE_BULK_LOAD=BCP
+                return new JdbcBatchWriter(targetSql);
+            }
+            logger.warn("No native bulk load for " + config.dbType
+                    + ", using multi-row insert");
+            return new MultiRowInsertWriter(targetSql);
+        case JDBC_BATCH:
+            return new JdbcBatchWriter(targetSql);
+        default:
+            throw new RuntimeException("Unknown write strategy "
+                    + config.writeStrategy);
+        }
+    }
+
+    /**
+     * Send the rows of the batch within the current transaction
+     *
+     * @return number of rows written
+     */
+    abstract int write(PooledConnection target, RowBatch batch,
+            AtomicBoolean isAborted) throws SQLException;
+
+    /**
+     * @return the binding plan of the batch columns for the statement of the
+     *         sql, compiled once from the parameters of that statement
+     */
+    protected BindingPlan plan(String sql, PreparedStatement ps,
+            RowBatch batch) {
+        BindingPlan current = plans.get(sql);
+        if (current == null || !current.matches(batch)) {
+            current = BindingPlan.compile(ps, batch);
+            plans.put(sql, current);
+        }
+        return current;
+    }
+
+    protected void checkAborted(AtomicBoolean isAborted) {
+        // In multi-threaded world, check the job abortion flag
+        if (isAborted.get()) {
+            throw new RuntimeException("DB write aborted");
+        }
+    }
+}
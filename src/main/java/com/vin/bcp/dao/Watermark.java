@@ -0,0 +1,56 @@
+package com.vin.bcp.dao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Range of an incremental copy on the watermark column. Rows above the mark
+ * of the last successful run up to the high mark taken at job start are
+ * copied
+ *
+ */
+public class Watermark {
+    public final String column;
+    public final Object low;
+    public final Object high;
+
+    /**
+     * @param low
+     *            mark of the last successful run, null on the first run
+     * @param high
+     *            highest value of the column when the job started
+     */
+    public Watermark(String column, Object low, Object high) {
+        this.column = column;
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * @return where clause of the range, with parameters for the marks
+     */
+    public String predicate() {
+        if (low == null) {
+            return column + " <= ?";
+        }
+        return column + " > ? AND " + column + " <= ?";
+    }
+
+    /**
+     * Bind the marks to the parameters of the predicate
+     *
+     * @return index of the next parameter
+     */
+    public int bind(PreparedStatement ps, int index) throws SQLException {
+        if (low != null) {
+            ps.setObject(index++, low);
+        }
+        ps.setObject(index++, high);
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "[ WATERMARK " + column + " = " + low + " .. " + high + " ]";
+    }
+}
@@ -0,0 +1,284 @@
+package com.vin.bcp.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vin.bcp.queue.BatchPublisher;
+import com.vin.bcp.queue.MemoryBudget;
+import com.vin.bcp.util.BatchSizer;
+import com.vin.bcp.util.LatencyHistogram;
+
+/**
+ * Counters and latency histograms of each stage of a copy job. Readers and
+ * writers only add to counters; rates and queue depth are sampled by the
+ * {@link MetricsReporter}.
+ *
+ * Readers blocked on a full queue point at the target, writers idle on an
+ * empty queue point at the source.
+ *
+ */
+public class CopyMetrics implements CopyMetricsMBean {
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong readerBlockedNanos = new AtomicLong();
+    private final AtomicLong writerIdleNanos = new AtomicLong();
+    private final AtomicLong writerBusyNanos = new AtomicLong();
+    private final AtomicLong lockConflicts = new AtomicLong();
+    private final AtomicLong rowsRejected = new AtomicLong();
+    private final LatencyHistogram executeBatchLatency = new LatencyHistogram();
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final LatencyHistogram batchWriteLatency = new LatencyHistogram();
+    private final long startNanos = System.nanoTime();
+
+    private volatile BatchPublisher queue;
+    private volatile MemoryBudget memory;
+    private volatile BatchSizer sizer;
+    private volatile AtomicInteger writers;
+
+    // updated by the reporter thread only
+    private volatile double readRate;
+    private volatile double writeRate;
+    private volatile int maxQueueDepth;
+    private long queueDepthSum;
+    private long queueDepthSamples;
+    private long lastSampleNanos = startNanos;
+    private long lastRowsRead;
+    private long lastRowsWritten;
+
+    /**
+     * Watch the depth of the queue between readers and writers
+     */
+    public void watch(BatchPublisher queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * Watch the bytes of the batches in flight
+     */
+    public void watch(MemoryBudget memory) {
+        this.memory = memory;
+    }
+
+    /**
+     * Watch the rows per batch of the job
+     */
+    public void watch(BatchSizer sizer) {
+        this.sizer = sizer;
+    }
+
+    /**
+     * Watch the number of running writers
+     */
+    public void watchWriters(AtomicInteger writers) {
+        this.writers = writers;
+    }
+
+    public void rowsRead(int rows) {
+        rowsRead.addAndGet(rows);
+    }
+
+    public void rowsWritten(int rows) {
+        rowsWritten.addAndGet(rows);
+    }
+
+    /**
+     * Time a reader waited to publish into a full queue
+     */
+    public void readerBlocked(long nanos) {
+        readerBlockedNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Time a writer waited to take from an empty queue
+     */
+    public void writerIdle(long nanos) {
+        writerIdleNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Time a writer spent writing and committing a batch
+     */
+    public void writerBusy(long nanos) {
+        writerBusyNanos.addAndGet(nanos);
+        batchWriteLatency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * A batch write failed on a deadlock or a lock wait timeout
+     */
+    public void lockConflict() {
+        lockConflicts.incrementAndGet();
+    }
+
+    public void rowsRejected(int rows) {
+        rowsRejected.addAndGet(rows);
+    }
+
+    public void executeBatch(long nanos) {
+        executeBatchLatency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void commit(long nanos) {
+        commitLatency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sample the queue depth, and the rates once the interval is over
+     *
+     * @param rates
+     *            true to work out the rates since the last rate sample
+     */
+    synchronized void sample(boolean rates) {
+        int depth = getQueueDepth();
+        queueDepthSum += depth;
+        queueDepthSamples++;
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+        if (rates) {
+            long now = System.nanoTime();
+            double seconds = (now - lastSampleNanos) / 1e9;
+            if (seconds > 0) {
+                long read = rowsRead.get();
+                long written = rowsWritten.get();
+                readRate = (read - lastRowsRead) / seconds;
+                writeRate = (written - lastRowsWritten) / seconds;
+                lastRowsRead = read;
+                lastRowsWritten = written;
+                lastSampleNanos = now;
+            }
+        }
+    }
+
+    public LatencyHistogram getExecuteBatchLatency() {
+        return executeBatchLatency;
+    }
+
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    /**
+     * @return latency of a batch write to the target, commit included
+     */
+    public LatencyHistogram getBatchWriteLatency() {
+        return batchWriteLatency;
+    }
+
+    @Override
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    @Override
+    public double getReadRowsPerSecond() {
+        return readRate;
+    }
+
+    @Override
+    public double getWriteRowsPerSecond() {
+        return writeRate;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        BatchPublisher watched = queue;
+        return (watched == null) ? 0 : watched.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        BatchPublisher watched = queue;
+        return (watched == null) ? 0 : watched.capacity();
+    }
+
+    @Override
+    public long getQueueBytes() {
+        MemoryBudget watched = memory;
+        return (watched == null) ? 0 : watched.getUsed();
+    }
+
+    @Override
+    public int getBatchSize() {
+        BatchSizer watched = sizer;
+        return (watched == null) ? 0 : watched.getBatchSize();
+    }
+
+    @Override
+    public int getWriters() {
+        AtomicInteger watched = writers;
+        return (watched == null) ? 0 : watched.get();
+    }
+
+    @Override
+    public long getLockConflicts() {
+        return lockConflicts.get();
+    }
+
+    @Override
+    public long getRowsRejected() {
+        return rowsRejected.get();
+    }
+
+    @Override
+    public synchronized double getMeanQueueDepth() {
+        return (queueDepthSamples == 0) ? 0 : (double) queueDepthSum
+                / queueDepthSamples;
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    @Override
+    public double getReaderBlockedSeconds() {
+        return readerBlockedNanos.get() / 1e9;
+    }
+
+    @Override
+    public double getWriterIdleSeconds() {
+        return writerIdleNanos.get() / 1e9;
+    }
+
+    @Override
+    public double getWriterBusySeconds() {
+        return writerBusyNanos.get() / 1e9;
+    }
+
+    @Override
+    public long getExecuteBatchP50Micros() {
+        return executeBatchLatency.percentile(50);
+    }
+
+    @Override
+    public long getExecuteBatchP99Micros() {
+        return executeBatchLatency.percentile(99);
+    }
+
+    @Override
+    public long getCommitP50Micros() {
+        return commitLatency.percentile(50);
+    }
+
+    @Override
+    public long getCommitP99Micros() {
+        return commitLatency.percentile(99);
+    }
+
+    @Override
+    public long getBatchWriteP99Micros() {
+        return batchWriteLatency.percentile(99);
+    }
+
+    @Override
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+}
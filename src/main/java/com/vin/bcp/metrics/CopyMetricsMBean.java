@@ -0,0 +1,53 @@
+package com.vin.bcp.metrics;
+
+/**
+ * JMX view of the metrics of a running copy job. Times are in seconds and
+ * latencies in microseconds
+ *
+ */
+public interface CopyMetricsMBean {
+
+    long getRowsRead();
+
+    long getRowsWritten();
+
+    double getReadRowsPerSecond();
+
+    double getWriteRowsPerSecond();
+
+    int getQueueDepth();
+
+    int getQueueCapacity();
+
+    long getQueueBytes();
+
+    int getBatchSize();
+
+    int getWriters();
+
+    long getLockConflicts();
+
+    long getRowsRejected();
+
+    double getMeanQueueDepth();
+
+    int getMaxQueueDepth();
+
+    double getReaderBlockedSeconds();
+
+    double getWriterIdleSeconds();
+
+    double getWriterBusySeconds();
+
+    long getExecuteBatchP50Micros();
+
+    long getExecuteBatchP99Micros();
+
+    long getCommitP50Micros();
+
+    long getCommitP99Micros();
+
+    long getBatchWriteP99Micros();
+
+    double getElapsedSeconds();
+}
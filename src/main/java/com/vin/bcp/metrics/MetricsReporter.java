@@ -0,0 +1,294 @@
+package com.vin.bcp.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.util.LatencyHistogram;
+
+/**
+ * Reporter thread of the copy metrics. It samples the queue depth, logs the
+ * progress of the job and rewrites the metrics file at every interval, so
+ * that readers and writers never format a report themselves. The metrics are
+ * also registered with the platform MBean server while the job runs.
+ *
+ * The metrics file is JSON when its name ends with .json and Prometheus text
+ * format otherwise.
+ *
+ */
+public class MetricsReporter extends Thread {
+    private static final long SAMPLE_MILLIS = 250;
+    private static final double[] QUANTILES = { 50, 90, 99, 99.9 };
+
+    private Logger logger = LogManager.getLogger(MetricsReporter.class);
+
+    private final CopyMetrics metrics;
+    private final String job;
+    private final Path file;
+    private final long intervalMillis;
+    private ObjectName mbeanName;
+
+    /**
+     * @param job
+     *            label of the job in the metrics, source and target table
+     * @param file
+     *            the metrics file, null to only log and expose through JMX
+     * @param intervalSeconds
+     *            seconds between two reports
+     */
+    public MetricsReporter(CopyMetrics metrics, String job, String file,
+            int intervalSeconds) {
+        super("METRICS-REPORTER");
+        setDaemon(true);
+        this.metrics = metrics;
+        this.job = job;
+        this.file = (file == null) ? null : Paths.get(file);
+        this.intervalMillis = Math.max(1, intervalSeconds) * 1000L;
+    }
+
+    @Override
+    public synchronized void start() {
+        register();
+        super.start();
+    }
+
+    @Override
+    public void run() {
+        long nextReport = System.currentTimeMillis() + intervalMillis;
+        try {
+            while (!isInterrupted()) {
+                Thread.sleep(SAMPLE_MILLIS);
+                boolean report = System.currentTimeMillis() >= nextReport;
+                metrics.sample(report);
+                if (report) {
+                    report();
+                    nextReport += intervalMillis;
+                }
+            }
+        } catch (InterruptedException e) {
+            // the job is over
+        }
+    }
+
+    /**
+     * Stop the reporter and write the final report
+     */
+    public void finish() {
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        metrics.sample(true);
+        report();
+        unregister();
+    }
+
+    private void report() {
+        logger.info(String.format(Locale.ROOT,
+                "[ READ ROWS = %d (%.0f/s) ] [ COMMITTED ROWS = %d (%.0f/s) ]"
+                        + " [ QUEUE = %d/%d ] [ BATCH SIZE = %d ]"
+                        + " [ WRITERS = %d, BUSY = %.0f%% ]"
+                        + " [ ELAPSED TIME = %.1f secs ]",
+                metrics.getRowsRead(), metrics.getReadRowsPerSecond(),
+                metrics.getRowsWritten(), metrics.getWriteRowsPerSecond(),
+                metrics.getQueueDepth(), metrics.getQueueCapacity(),
+                metrics.getBatchSize(), metrics.getWriters(),
+                writerBusyPercent(), metrics.getElapsedSeconds()));
+        if (file == null) {
+            return;
+        }
+        String text = file.toString().endsWith(".json") ? json()
+                : prometheus();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // metrics are not worth failing the job for
+            logger.warn("Not able to write metrics file " + file, e);
+        }
+    }
+
+    private double writerBusyPercent() {
+        double busy = metrics.getWriterBusySeconds();
+        double total = busy + metrics.getWriterIdleSeconds();
+        return (total == 0) ? 0 : busy * 100 / total;
+    }
+
+    private String prometheus() {
+        StringBuilder sb = new StringBuilder();
+        String label = "{job=\"" + job.replace("\"", "\\\"") + "\"}";
+        gauge(sb, "bcp_rows_read_total", "counter", "Rows read from the source",
+                label, metrics.getRowsRead());
+        gauge(sb, "bcp_rows_written_total", "counter",
+                "Rows committed to the target", label, metrics.getRowsWritten());
+        gauge(sb, "bcp_read_rows_per_second", "gauge",
+                "Rows read per second over the last interval", label,
+                metrics.getReadRowsPerSecond());
+        gauge(sb, "bcp_write_rows_per_second", "gauge",
+                "Rows committed per second over the last interval", label,
+                metrics.getWriteRowsPerSecond());
+        gauge(sb, "bcp_queue_depth", "gauge", "Batches waiting in the queue",
+                label, metrics.getQueueDepth());
+        gauge(sb, "bcp_queue_capacity", "gauge", "Batch slots of the queue",
+                label, metrics.getQueueCapacity());
+        gauge(sb, "bcp_queue_bytes", "gauge",
+                "Estimated bytes of the batches in flight", label,
+                metrics.getQueueBytes());
+        gauge(sb, "bcp_batch_size", "gauge", "Rows put in the next batch",
+                label, metrics.getBatchSize());
+        gauge(sb, "bcp_writers", "gauge", "Running writer threads", label,
+                metrics.getWriters());
+        gauge(sb, "bcp_lock_conflicts_total", "counter",
+                "Batch writes failed on a deadlock or lock timeout", label,
+                metrics.getLockConflicts());
+        gauge(sb, "bcp_rows_rejected_total", "counter",
+                "Rows rejected by the target and written to the dead letter file",
+                label, metrics.getRowsRejected());
+        gauge(sb, "bcp_queue_depth_mean", "gauge",
+                "Mean sampled queue depth", label, metrics.getMeanQueueDepth());
+        gauge(sb, "bcp_queue_depth_max", "gauge", "Max sampled queue depth",
+                label, metrics.getMaxQueueDepth());
+        gauge(sb, "bcp_reader_blocked_seconds_total", "counter",
+                "Time readers waited on a full queue", label,
+                metrics.getReaderBlockedSeconds());
+        gauge(sb, "bcp_writer_idle_seconds_total", "counter",
+                "Time writers waited on an empty queue", label,
+                metrics.getWriterIdleSeconds());
+        gauge(sb, "bcp_writer_busy_seconds_total", "counter",
+                "Time writers spent writing batches", label,
+                metrics.getWriterBusySeconds());
+        summary(sb, "bcp_execute_batch_microseconds",
+                "Latency of sending a batch to the target", metrics
+                        .getExecuteBatchLatency());
+        summary(sb, "bcp_commit_microseconds",
+                "Latency of committing a batch", metrics.getCommitLatency());
+        summary(sb, "bcp_batch_write_microseconds",
+                "Latency of a batch write, commit included", metrics
+                        .getBatchWriteLatency());
+        return sb.toString();
+    }
+
+    private static void gauge(StringBuilder sb, String name, String type,
+            String help, String label, double value) {
+        sb.append("# HELP ").append(name).append(' ').append(help)
+                .append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type)
+                .append('\n');
+        sb.append(name).append(label).append(' ').append(number(value))
+                .append('\n');
+    }
+
+    private void summary(StringBuilder sb, String name, String help,
+            LatencyHistogram histogram) {
+        String jobLabel = "job=\"" + job.replace("\"", "\\\"") + "\"";
+        sb.append("# HELP ").append(name).append(' ').append(help)
+                .append('\n');
+        sb.append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            sb.append(name).append('{').append(jobLabel)
+                    .append(",quantile=\"").append(number(quantile / 100))
+                    .append("\"} ").append(histogram.percentile(quantile))
+                    .append('\n');
+        }
+        sb.append(name).append("_sum{").append(jobLabel).append("} ")
+                .append(number(histogram.getMean() * histogram.getCount()))
+                .append('\n');
+        sb.append(name).append("_count{").append(jobLabel).append("} ")
+                .append(histogram.getCount()).append('\n');
+    }
+
+    private String json() {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append("  \"job\": \"").append(job.replace("\\", "\\\\")
+                .replace("\"", "\\\"")).append("\",\n");
+        field(sb, "elapsedSeconds", metrics.getElapsedSeconds());
+        field(sb, "rowsRead", metrics.getRowsRead());
+        field(sb, "rowsWritten", metrics.getRowsWritten());
+        field(sb, "readRowsPerSecond", metrics.getReadRowsPerSecond());
+        field(sb, "writeRowsPerSecond", metrics.getWriteRowsPerSecond());
+        field(sb, "queueDepth", metrics.getQueueDepth());
+        field(sb, "queueCapacity", metrics.getQueueCapacity());
+        field(sb, "queueBytes", metrics.getQueueBytes());
+        field(sb, "batchSize", metrics.getBatchSize());
+        field(sb, "writers", metrics.getWriters());
+        field(sb, "lockConflicts", metrics.getLockConflicts());
+        field(sb, "rowsRejected", metrics.getRowsRejected());
+        field(sb, "queueDepthMean", metrics.getMeanQueueDepth());
+        field(sb, "queueDepthMax", metrics.getMaxQueueDepth());
+        field(sb, "readerBlockedSeconds", metrics.getReaderBlockedSeconds());
+        field(sb, "writerIdleSeconds", metrics.getWriterIdleSeconds());
+        field(sb, "writerBusySeconds", metrics.getWriterBusySeconds());
+        histogram(sb, "executeBatchMicros", metrics.getExecuteBatchLatency());
+        sb.append(",\n");
+        histogram(sb, "commitMicros", metrics.getCommitLatency());
+        sb.append(",\n");
+        histogram(sb, "batchWriteMicros", metrics.getBatchWriteLatency());
+        return sb.append("\n}\n").toString();
+    }
+
+    private static void field(StringBuilder sb, String name, double value) {
+        sb.append("  \"").append(name).append("\": ").append(number(value))
+                .append(",\n");
+    }
+
+    private static void histogram(StringBuilder sb, String name,
+            LatencyHistogram histogram) {
+        sb.append("  \"").append(name).append("\": { \"count\": ")
+                .append(histogram.getCount()).append(", \"mean\": ")
+                .append(number(histogram.getMean()));
+        for (double quantile : QUANTILES) {
+            sb.append(", \"p").append(number(quantile).replace(".", "_"))
+                    .append("\": ").append(histogram.percentile(quantile));
+        }
+        sb.append(", \"max\": ").append(histogram.getMax()).append(" }");
+    }
+
+    private static String number(double value) {
+        return (value == Math.rint(value)) ? Long.toString((long) value)
+                : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            mbeanName = new ObjectName("com.vin.bcp:type=CopyMetrics,job="
+                    + ObjectName.quote(job));
+            if (server.isRegistered(mbeanName)) {
+                // another run of the same job owns the name
+                mbeanName = null;
+                return;
+            }
+            server.registerMBean(metrics, mbeanName);
+        } catch (Exception e) {
+            logger.warn("Not able to register the metrics MBean", e);
+            mbeanName = null;
+        }
+    }
+
+    private void unregister() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                    mbeanName);
+        } catch (Exception e) {
+            logger.debug("Metrics MBean already unregistered", e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.vin.bcp.queue;
+
+import com.vin.bcp.dao.RowBatch;
+
+/**
+ * The reader side of the batches handed to the writer threads
+ *
+ */
+public interface BatchPublisher {
+
+    /**
+     * Publish a filled batch
+     *
+     * @return an empty batch to be filled next, null if there is none
+     */
+    RowBatch publish(RowBatch batch) throws InterruptedException;
+
+    /**
+     * Signal end of stream once all readers have published their batches
+     */
+    void complete() throws InterruptedException;
+
+    /**
+     * @return approximate number of batches waiting
+     */
+    int size();
+
+    /**
+     * @return number of batches held in memory
+     */
+    int capacity();
+
+    /**
+     * Release the resources of the queue once the job is over
+     */
+    void close();
+}
@@ -0,0 +1,24 @@
+package com.vin.bcp.queue;
+
+import com.vin.bcp.dao.RowBatch;
+
+/**
+ * Queue of batches between the reader and the writer threads
+ *
+ */
+public interface BatchQueue extends BatchPublisher {
+
+    /**
+     * Take the next batch, waiting while there is none
+     *
+     * @param spare
+     *            an empty batch the queue may reuse, may be null
+     * @return the next batch, null at end of stream
+     */
+    RowBatch take(RowBatch spare) throws InterruptedException;
+
+    /**
+     * Hand back a batch the writer is done with, once it is committed
+     */
+    void release(RowBatch batch);
+}
@@ -0,0 +1,215 @@
+package com.vin.bcp.queue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.vin.bcp.dao.RowBatch;
+
+/**
+ * Bounded multi producer, multi consumer ring of batch slots. Each slot has a
+ * sequence number telling whether it is free or published, so neither side
+ * takes a lock to hand over a batch.
+ *
+ * Batches are exchanged rather than copied: a reader publishing a filled
+ * batch gets back the empty batch left in the slot, and a writer taking a
+ * batch leaves its spare batch in the slot. After warm up no batch is
+ * allocated.
+ *
+ * End of stream is a marker published into the ring after the last batch. A
+ * writer taking the marker publishes it again for the next writer, so every
+ * writer sees the end of the stream.
+ *
+ */
+public class BatchRingBuffer implements BatchQueue {
+    private static final RowBatch END = new RowBatch(new int[0], 0);
+
+    private final RowBatch[] slots;
+    private final AtomicLongArray sequences;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+    private final WaitStrategy waitStrategy;
+
+    // used by the BLOCK wait strategy only
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private volatile long version;
+
+    /**
+     * @param minCapacity
+     *            minimum number of slots, rounded up to a power of two
+     */
+    public BatchRingBuffer(int minCapacity, WaitStrategy waitStrategy) {
+        int size = 2;
+        while (size < minCapacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        this.slots = new RowBatch[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Publish a filled batch, waiting while the ring is full
+     *
+     * @return the empty batch left in the slot to be filled next, null if the
+     *         slot had none
+     */
+    @Override
+    public RowBatch publish(RowBatch batch) throws InterruptedException {
+        int attempt = 0;
+        while (true) {
+            long observed = version;
+            RowBatch recycled = offer(batch);
+            if (recycled != batch) {
+                return recycled;
+            }
+            // ring is full
+            await(attempt++, observed);
+        }
+    }
+
+    /**
+     * Publish a filled batch if a slot is free, without waiting
+     *
+     * @return the empty batch left in the slot to be filled next, null if the
+     *         slot had none, or the given batch if the ring is full
+     */
+    public RowBatch offer(RowBatch batch) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) (pos & mask);
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    RowBatch recycled = slots[index];
+                    slots[index] = batch;
+                    sequences.set(index, pos + 1);
+                    signal();
+                    return (recycled == END) ? null : recycled;
+                }
+            } else if (dif < 0) {
+                return batch;
+            }
+        }
+    }
+
+    /**
+     * Take the next batch, waiting while the ring is empty
+     *
+     * @param spare
+     *            an empty batch to leave in the slot for reuse, may be null
+     * @return the next batch, null at end of stream
+     */
+    @Override
+    public RowBatch take(RowBatch spare) throws InterruptedException {
+        if (spare != null) {
+            spare.clear();
+        }
+        int attempt = 0;
+        while (true) {
+            long observed = version;
+            long pos = head.get();
+            int index = (int) (pos & mask);
+            long dif = sequences.get(index) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    RowBatch batch = slots[index];
+                    slots[index] = spare;
+                    sequences.set(index, pos + capacity);
+                    signal();
+                    if (batch == END) {
+                        // pass the marker on to the next writer
+                        publish(END);
+                        return null;
+                    }
+                    return batch;
+                }
+            } else if (dif < 0) {
+                // ring is empty
+                await(attempt++, observed);
+            }
+        }
+    }
+
+    /**
+     * Signal end of stream once all readers have published their batches
+     */
+    @Override
+    public void complete() throws InterruptedException {
+        publish(END);
+    }
+
+    /**
+     * @return approximate number of batches waiting in the ring
+     */
+    @Override
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public void release(RowBatch batch) {
+        // the batch comes back as the spare of the next take
+    }
+
+    @Override
+    public void close() {
+        // nothing is held outside the heap
+    }
+
+    private void await(int attempt, long observed)
+            throws InterruptedException {
+        switch (waitStrategy) {
+        case SPIN:
+            if ((attempt & 127) == 127) {
+                Thread.yield();
+            }
+            break;
+        case PARK:
+            LockSupport.parkNanos(Math.min(TimeUnit.MILLISECONDS.toNanos(1),
+                    1000L << Math.min(attempt, 10)));
+            break;
+        default:
+            lock.lock();
+            try {
+                while (version == observed) {
+                    changed.await();
+                }
+            } finally {
+                lock.unlock();
+            }
+            break;
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private void signal() {
+        if (waitStrategy == WaitStrategy.BLOCK) {
+            lock.lock();
+            try {
+                version++;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
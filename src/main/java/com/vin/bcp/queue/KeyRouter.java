@@ -0,0 +1,257 @@
+package com.vin.bcp.queue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vin.bcp.dao.RowBatch;
+import com.vin.bcp.util.BatchSizer;
+
+/**
+ * Routes the rows read to the queue of one writer by the clustered key of
+ * the target, so that writers do not compete for the same pages and index
+ * leaves. A numeric key is split into even ranges between the lowest and the
+ * highest key of the rows copied, one range per writer, other keys are
+ * hashed. The rows of a route are collected per partition, so a batch still
+ * belongs to one partition, and each batch is sorted by the key before it is
+ * published to the writer.
+ *
+ * Readers only publish to the router, each writer takes from the queue of
+ * its route. A route is locked while its rows are collected, not while a full
+ * batch waits for room in the queue of its writer
+ *
+ */
+public class KeyRouter implements BatchPublisher {
+    private final BatchQueue[] routes;
+    private final int keyColumn;
+    private final BatchSizer sizer;
+    private final int maxPending;
+    // lowest key and width of the key range, 0 to hash the keys. Set before
+    // the first row is published
+    private double low;
+    private double span;
+
+    // lock of each route, guarding its pending and free batches
+    private final Object[] locks;
+    // batches being filled for each route, by partition, in the order they
+    // were started
+    private final List<Map<Integer, RowBatch>> pending = new ArrayList<>();
+    // empty batches of each route
+    private final List<Deque<RowBatch>> free = new ArrayList<>();
+
+    /**
+     * @param routes
+     *            queue of each writer
+     * @param keyColumn
+     *            column of the key in the rows read
+     * @param maxPending
+     *            most batches filled at a time for a route, the oldest is
+     *            published before another is started
+     */
+    public KeyRouter(BatchQueue[] routes, int keyColumn, BatchSizer sizer,
+            int maxPending) {
+        this.routes = routes;
+        this.keyColumn = keyColumn;
+        this.sizer = sizer;
+        this.maxPending = Math.max(1, maxPending);
+        this.locks = new Object[routes.length];
+        for (int i = 0; i < routes.length; i++) {
+            locks[i] = new Object();
+            pending.add(new LinkedHashMap<Integer, RowBatch>());
+            free.add(new ArrayDeque<RowBatch>());
+        }
+    }
+
+    /**
+     * Split numeric keys into ranges between the lowest and the highest key
+     * of the rows copied, keys are hashed unless both are numbers
+     */
+    public void setRange(Object low, Object high) {
+        if (low instanceof Number && high instanceof Number) {
+            this.low = ((Number) low).doubleValue();
+            this.span = ((Number) high).doubleValue() - this.low + 1;
+        } else {
+            this.low = 0;
+            this.span = 0;
+        }
+    }
+
+    /**
+     * @return true if the keys are routed by range rather than by hash
+     */
+    public boolean isRanged() {
+        return span > 0;
+    }
+
+    /**
+     * @return the queue of each writer
+     */
+    public BatchQueue[] getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Move the rows of the batch to the batches of their routes, the batches
+     * filled are published once their route is unlocked
+     *
+     * @return the batch, emptied
+     */
+    @Override
+    public RowBatch publish(RowBatch batch) throws InterruptedException {
+        int[] targets = new int[batch.size()];
+        boolean[] used = new boolean[routes.length];
+        for (int row = 0; row < targets.length; row++) {
+            targets[row] = routeOf(batch.getObject(row, keyColumn));
+            used[targets[row]] = true;
+        }
+        List<RowBatch> full = new ArrayList<>();
+        for (int route = 0; route < routes.length; route++) {
+            if (!used[route]) {
+                continue;
+            }
+            synchronized (locks[route]) {
+                RowBatch filling = filling(route, batch, full);
+                for (int row = 0; row < targets.length; row++) {
+                    if (targets[row] != route) {
+                        continue;
+                    }
+                    filling.moveRow(batch, row);
+                    if (isFull(filling)) {
+                        pending.get(route).remove(filling.getPartition());
+                        full.add(filling);
+                        filling = filling(route, batch, full);
+                    }
+                }
+            }
+            publish(route, full);
+        }
+        batch.clear();
+        return batch;
+    }
+
+    /**
+     * Publish the batches being filled and end the stream of every route
+     */
+    @Override
+    public void complete() throws InterruptedException {
+        for (int route = 0; route < routes.length; route++) {
+            List<RowBatch> left = new ArrayList<>();
+            synchronized (locks[route]) {
+                for (RowBatch batch : pending.get(route).values()) {
+                    if (batch.size() > 0) {
+                        left.add(batch);
+                    }
+                }
+                pending.get(route).clear();
+            }
+            publish(route, left);
+            routes[route].complete();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (BatchQueue route : routes) {
+            size += route.size();
+        }
+        return size;
+    }
+
+    @Override
+    public int capacity() {
+        int capacity = 0;
+        for (BatchQueue route : routes) {
+            capacity += route.capacity();
+        }
+        return capacity;
+    }
+
+    @Override
+    public void close() {
+        for (BatchQueue route : routes) {
+            route.close();
+        }
+    }
+
+    /**
+     * @return the route of the key
+     */
+    int routeOf(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        if (span > 0 && key instanceof Number) {
+            int route = (int) ((((Number) key).doubleValue() - low) / span * routes.length);
+            return Math.max(0, Math.min(routes.length - 1, route));
+        }
+        return (key.hashCode() & Integer.MAX_VALUE) % routes.length;
+    }
+
+    private boolean isFull(RowBatch batch) {
+        return batch.isFull() || batch.size() >= sizer.getBatchSize()
+                || batch.getBytes() >= sizer.getMaxBatchBytes();
+    }
+
+    /**
+     * @return the batch of the route being filled with rows of the partition
+     *         of the batch read. The oldest batch is added to the full ones
+     *         when the route has too many
+     */
+    private RowBatch filling(int route, RowBatch read, List<RowBatch> full) {
+        Map<Integer, RowBatch> batches = pending.get(route);
+        RowBatch filling = batches.get(read.getPartition());
+        if (filling != null) {
+            return filling;
+        }
+        if (batches.size() >= maxPending) {
+            // a partition read to its end leaves a batch behind
+            Iterator<RowBatch> oldest = batches.values().iterator();
+            full.add(oldest.next());
+            oldest.remove();
+        }
+        filling = emptyBatch(route, read);
+        filling.setPartition(read.getPartition());
+        batches.put(read.getPartition(), filling);
+        return filling;
+    }
+
+    /**
+     * Sort the full batches by key and publish them to the writer of the
+     * route, waiting for room without holding the route
+     */
+    private void publish(int route, List<RowBatch> full)
+            throws InterruptedException {
+        for (RowBatch batch : full) {
+            RowBatch sorted;
+            synchronized (locks[route]) {
+                sorted = emptyBatch(route, batch);
+            }
+            batch.sortInto(sorted, keyColumn);
+            synchronized (locks[route]) {
+                free.get(route).push(batch);
+            }
+            RowBatch recycled = routes[route].publish(sorted);
+            if (recycled != null && recycled != sorted
+                    && batch.isCompatible(recycled)) {
+                synchronized (locks[route]) {
+                    free.get(route).push(recycled);
+                }
+            }
+        }
+        full.clear();
+    }
+
+    private RowBatch emptyBatch(int route, RowBatch like) {
+        RowBatch batch = free.get(route).poll();
+        if (batch != null && like.isCompatible(batch)) {
+            batch.clear();
+            return batch;
+        }
+        return like.newBatch();
+    }
+}
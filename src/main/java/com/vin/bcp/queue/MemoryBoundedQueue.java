@@ -0,0 +1,85 @@
+package com.vin.bcp.queue;
+
+import com.vin.bcp.dao.RowBatch;
+
+/**
+ * Bounds the estimated bytes of the batches in flight, whatever the width of
+ * the rows. A batch holds its bytes from the time it is published until the
+ * writer releases it after the commit, or until it is handed back empty to
+ * a reader. In front of a spilling queue, a batch going over the bytes is
+ * spilled to disk at once rather than waiting for bytes to be released
+ *
+ */
+public class MemoryBoundedQueue implements BatchQueue {
+    private final BatchQueue queue;
+    private final MemoryBudget memory;
+    // the queue batches over the bytes are spilled to, null to wait
+    private final SpillingBatchQueue spill;
+
+    public MemoryBoundedQueue(BatchQueue queue, MemoryBudget memory) {
+        this.queue = queue;
+        this.memory = memory;
+        this.spill = (queue instanceof SpillingBatchQueue) ? (SpillingBatchQueue) queue
+                : null;
+    }
+
+    @Override
+    public RowBatch publish(RowBatch batch) throws InterruptedException {
+        // bytes are reserved once per batch, until the batch is released
+        if (batch.getReservedBytes() == 0) {
+            long bytes = Math.max(1, batch.getBytes());
+            if (spill == null) {
+                memory.acquire(bytes);
+            } else if (!memory.tryAcquire(bytes)) {
+                // the rows of a spilled batch are on disk, each writer
+                // reads back one batch at a time
+                return spill.spill(batch);
+            }
+            batch.setReservedBytes(bytes);
+        }
+        RowBatch recycled = queue.publish(batch);
+        if (recycled != null) {
+            // a spilled batch comes back at once, emptied
+            release(recycled);
+        }
+        return recycled;
+    }
+
+    @Override
+    public RowBatch take(RowBatch spare) throws InterruptedException {
+        if (spare != null) {
+            release(spare);
+        }
+        return queue.take(spare);
+    }
+
+    @Override
+    public void release(RowBatch batch) {
+        long bytes = batch.getReservedBytes();
+        if (bytes > 0) {
+            batch.setReservedBytes(0);
+            memory.release(bytes);
+        }
+        queue.release(batch);
+    }
+
+    @Override
+    public void complete() throws InterruptedException {
+        queue.complete();
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int capacity() {
+        return queue.capacity();
+    }
+
+    @Override
+    public void close() {
+        queue.close();
+    }
+}
@@ -0,0 +1,67 @@
+package com.vin.bcp.queue;
+
+/**
+ * Bytes of batches in flight, between a reader publishing a batch and a
+ * writer done with it. A reader waits while publishing would go over the
+ * limit, unless nothing is in flight so that a batch larger than the limit
+ * still gets through
+ *
+ */
+public class MemoryBudget {
+    private final long limit;
+    private long used;
+    private long peak;
+
+    /**
+     * @param limit
+     *            most bytes in flight
+     */
+    public MemoryBudget(long limit) {
+        this.limit = Math.max(1, limit);
+    }
+
+    /**
+     * Wait until the bytes fit within the limit
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        while (used > 0 && used + bytes > limit) {
+            wait();
+        }
+        used += bytes;
+        peak = Math.max(peak, used);
+    }
+
+    /**
+     * Take the bytes only if they fit within the limit, without waiting
+     *
+     * @return true if the bytes were taken
+     */
+    public synchronized boolean tryAcquire(long bytes) {
+        if (used + bytes > limit) {
+            return false;
+        }
+        used += bytes;
+        peak = Math.max(peak, used);
+        return true;
+    }
+
+    public synchronized void release(long bytes) {
+        used = Math.max(0, used - bytes);
+        notifyAll();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * @return most bytes in flight at any time
+     */
+    public synchronized long getPeak() {
+        return peak;
+    }
+}
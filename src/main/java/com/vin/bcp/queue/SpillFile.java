@@ -0,0 +1,340 @@
+package com.vin.bcp.queue;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.dao.RowBatch;
+
+/**
+ * First in first out store of batches in memory mapped segment files. Batches
+ * are appended to the last segment and read from the first one, and a segment
+ * is unmapped and deleted once all of its records are read, so that its disk
+ * space and address space are given back during the job. Batches are
+ * serialized into and read from the mapping directly, outside of the lock
+ *
+ */
+class SpillFile {
+    private static Logger logger = LogManager.getLogger(SpillFile.class);
+
+    // Unsafe.invokeCleaner of Java 9 and later, null on Java 8
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    // record header: length of the record, then its state
+    private static final int HEADER = 5;
+    private static final byte WRITING = 0;
+    private static final byte WRITTEN = 1;
+    private static final byte FAILED = 2;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private int records;
+    private long bytes;
+
+    private static class Segment {
+        final Path path;
+        final MappedByteBuffer buffer;
+        int writePos;
+        int readPos;
+        // records being written or read outside the lock
+        int users;
+        // read to its end and out of the queue, deleted once unused
+        boolean retired;
+
+        Segment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @return view of the bytes of the record at the given position
+         */
+        ByteBuffer record(int pos, int length) {
+            ByteBuffer view = buffer.duplicate();
+            view.limit(pos + HEADER + length);
+            view.position(pos + HEADER);
+            return view;
+        }
+    }
+
+    SpillFile(Path dir, int segmentBytes) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Write the batch at the end of the file. Its space is reserved under
+     * the lock, the batch is then serialized straight into the segment
+     * while other threads append and read
+     */
+    void append(RowBatch batch) throws IOException {
+        long size = batch.serializedSize(true);
+        if (size > Integer.MAX_VALUE - HEADER) {
+            throw new IOException("Batch of " + size
+                    + " bytes is too large to spill");
+        }
+        int length = (int) size;
+        Segment segment;
+        int pos;
+        synchronized (this) {
+            segment = segments.peekLast();
+            if (segment == null
+                    || segment.buffer.capacity() - segment.writePos < HEADER
+                            + length) {
+                segment = newSegment(Math.max(segmentBytes, HEADER + length));
+                segments.addLast(segment);
+            }
+            pos = segment.writePos;
+            segment.buffer.putInt(pos, length);
+            segment.buffer.put(pos + 4, WRITING);
+            segment.writePos += HEADER + length;
+            segment.users++;
+            records++;
+            bytes += length;
+        }
+        boolean written = false;
+        try {
+            ByteBuffer view = segment.record(pos, length);
+            // staged LOB values stay in their files
+            batch.writeTo(new DataOutputStream(new BufferOutput(view)), true);
+            if (view.hasRemaining()) {
+                throw new IOException("Batch written in "
+                        + (length - view.remaining()) + " bytes of the "
+                        + length + " reserved");
+            }
+            written = true;
+        } finally {
+            synchronized (this) {
+                // a record not written in full is skipped by the readers
+                segment.buffer.put(pos + 4, written ? WRITTEN : FAILED);
+                if (!written) {
+                    records--;
+                    bytes -= length;
+                }
+                release(segment);
+            }
+        }
+    }
+
+    /**
+     * Read the oldest record. The record is claimed under the lock and read
+     * into the batch outside of it
+     *
+     * @param spare
+     *            an empty batch to read into, may be null
+     * @return the oldest batch, null if none is left or the oldest one is
+     *         still being written
+     */
+    RowBatch poll(RowBatch spare) throws IOException {
+        Segment segment;
+        int pos;
+        int length;
+        synchronized (this) {
+            while (true) {
+                segment = segments.peekFirst();
+                if (segment == null) {
+                    return null;
+                }
+                if (segment.readPos == segment.writePos) {
+                    if (segments.size() == 1) {
+                        return null;
+                    }
+                    retire(segments.removeFirst());
+                    continue;
+                }
+                pos = segment.readPos;
+                byte state = segment.buffer.get(pos + 4);
+                if (state == WRITING) {
+                    return null;
+                }
+                length = segment.buffer.getInt(pos);
+                segment.readPos += HEADER + length;
+                if (state == WRITTEN) {
+                    break;
+                }
+            }
+            segment.users++;
+            records--;
+        }
+        try {
+            return RowBatch.readFrom(new DataInputStream(new BufferInput(
+                    segment.record(pos, length))), spare);
+        } finally {
+            synchronized (this) {
+                // a segment is done once read to its end and no longer
+                // appended to
+                if (segment.readPos == segment.writePos
+                        && segments.peekFirst() == segment
+                        && segments.size() > 1) {
+                    retire(segments.removeFirst());
+                }
+                release(segment);
+            }
+        }
+    }
+
+    private void retire(Segment segment) throws IOException {
+        segment.retired = true;
+        if (segment.users == 0) {
+            delete(segment);
+        }
+    }
+
+    private void release(Segment segment) throws IOException {
+        segment.users--;
+        if (segment.retired && segment.users == 0) {
+            delete(segment);
+        }
+    }
+
+    /**
+     * @return records waiting to be read
+     */
+    synchronized int size() {
+        return records;
+    }
+
+    /**
+     * @return bytes of all records appended so far
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Delete the segment files, records not read are lost
+     */
+    synchronized void close() throws IOException {
+        Segment segment;
+        while ((segment = segments.pollFirst()) != null) {
+            delete(segment);
+        }
+    }
+
+    private static void delete(Segment segment) throws IOException {
+        unmap(segment.buffer);
+        Files.deleteIfExists(segment.path);
+    }
+
+    /**
+     * Release the mapping of a segment no longer read or written. Left to the
+     * garbage collector when the JVM does not allow it
+     */
+    static void unmap(MappedByteBuffer buffer) {
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                // Java 8
+                Method cleaner = buffer.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object clean = cleaner.invoke(buffer);
+                if (clean != null) {
+                    clean.getClass().getMethod("clean").invoke(clean);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Spill segment left to be unmapped by the garbage"
+                    + " collector", e);
+        }
+    }
+
+    /**
+     * Stream over the bytes of a record, failing past its end
+     */
+    private static class BufferOutput extends OutputStream {
+        private final ByteBuffer buffer;
+
+        BufferOutput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Batch written past the bytes reserved");
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (buffer.remaining() < len) {
+                throw new IOException("Batch written past the bytes reserved");
+            }
+            buffer.put(b, off, len);
+        }
+    }
+
+    /**
+     * Stream over the bytes of a record
+     */
+    private static class BufferInput extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            } else if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+
+    private Segment newSegment(int size) throws IOException {
+        Files.createDirectories(dir);
+        Path path = Files.createTempFile(dir, "bcp-spill-", ".seg");
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+                FileChannel channel = file.getChannel()) {
+            // the mapping stays valid once the channel is closed
+            return new Segment(path, channel.map(FileChannel.MapMode.READ_WRITE,
+                    0, size));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.vin.bcp.queue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.vin.bcp.dao.RowBatch;
+
+/**
+ * Ring buffer backed by a spill file on local disk. A reader finding the ring
+ * full writes its batch to the spill file instead of waiting, so the source is
+ * read at full speed whatever the pace of the target. Writers take spilled
+ * batches first, in the order they were spilled, and then batches from the
+ * ring
+ *
+ */
+public class SpillingBatchQueue implements BatchQueue {
+    private Logger logger = LogManager.getLogger(SpillingBatchQueue.class);
+
+    private final BatchRingBuffer ring;
+    private final SpillFile spill;
+    private final AtomicBoolean spilling = new AtomicBoolean(false);
+    private final AtomicLong spilled = new AtomicLong();
+
+    /**
+     * @param dir
+     *            directory of the segment files
+     * @param segmentBytes
+     *            size of a segment file
+     */
+    public SpillingBatchQueue(BatchRingBuffer ring, Path dir, int segmentBytes) {
+        this.ring = ring;
+        this.spill = new SpillFile(dir, segmentBytes);
+    }
+
+    /**
+     * Publish the batch into the ring, or into the spill file if the ring is
+     * full
+     *
+     * @return an empty batch to be filled next, the given batch once spilled
+     */
+    @Override
+    public RowBatch publish(RowBatch batch) throws InterruptedException {
+        RowBatch recycled = ring.offer(batch);
+        if (recycled != batch) {
+            return recycled;
+        }
+        return spill(batch);
+    }
+
+    /**
+     * Write the batch to the spill file, whether the ring is full or not
+     *
+     * @return the given batch, emptied
+     */
+    public RowBatch spill(RowBatch batch) {
+        try {
+            spill.append(batch);
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to spill batch", e);
+        }
+        spilled.incrementAndGet();
+        if (spilling.compareAndSet(false, true)) {
+            logger.info("Queue full, spilling batches to disk");
+        }
+        batch.clear();
+        return batch;
+    }
+
+    @Override
+    public RowBatch take(RowBatch spare) throws InterruptedException {
+        RowBatch batch = takeSpilled(spare);
+        if (batch != null) {
+            return batch;
+        }
+        batch = ring.take(spare);
+        if (batch == null) {
+            // readers are done, nothing more is spilled
+            return takeSpilled(null);
+        }
+        return batch;
+    }
+
+    @Override
+    public void release(RowBatch batch) {
+        ring.release(batch);
+    }
+
+    private RowBatch takeSpilled(RowBatch spare) {
+        try {
+            return spill.poll(spare);
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to read spilled batch", e);
+        }
+    }
+
+    @Override
+    public void complete() throws InterruptedException {
+        ring.complete();
+    }
+
+    @Override
+    public int size() {
+        return ring.size() + spill.size();
+    }
+
+    @Override
+    public int capacity() {
+        return ring.capacity();
+    }
+
+    @Override
+    public void close() {
+        if (spilled.get() > 0) {
+            logger.info("Spilled " + spilled.get() + " batches, "
+                    + (spill.getBytes() >> 20) + " MB");
+        }
+        try {
+            spill.close();
+        } catch (IOException e) {
+            logger.warn("Not able to delete spill files", e);
+        }
+    }
+}
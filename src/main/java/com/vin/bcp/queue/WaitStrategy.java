@@ -0,0 +1,25 @@
+package com.vin.bcp.queue;
+
+/**
+ * How readers and writers wait on the ring buffer when it is full or empty
+ *
+ */
+public enum WaitStrategy {
+    /**
+     * Sleep on a condition until the ring changes. Lowest CPU usage
+     */
+    BLOCK,
+    /**
+     * Park for a short, growing interval and check again
+     */
+    PARK,
+    /**
+     * Busy spin, yielding the CPU now and then. Lowest latency, burns a core
+     * per waiting thread
+     */
+    SPIN;
+
+    public static WaitStrategy fromString(String name) {
+        return (name == null) ? BLOCK : valueOf(name.trim().toUpperCase());
+    }
+}
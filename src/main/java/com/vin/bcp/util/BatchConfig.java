@@ -1,5 +1,8 @@
 package com.vin.bcp.util;
 
+import java.sql.Connection;
+
+import com.vin.bcp.queue.WaitStrategy;
 
 public class BatchConfig {
     private static final String SOURCE_DB_NAME = "source-db";
@@ -23,8 +26,75 @@ public class BatchConfig {
     private static final String TARGET_COLUMNS = "target-columns";
     private static final String POOL_SIZE = "poolSize";
     private static final String CACHE_SIZE = "cacheSize";
+    private static final String SOURCE_SPLIT_COLUMN = "source-split-column";
+    private static final String SPLIT_MODE = "splitMode";
+    private static final String PARTITIONS = "partitions";
+    private static final String READER_POOL_SIZE = "readerPoolSize";
+    private static final String WAIT_STRATEGY = "waitStrategy";
+    private static final String SOURCE_FETCH_SIZE = "source-fetch-size";
+    private static final String SOURCE_ISOLATION = "source-isolation";
+    private static final String SOURCE_PACKET_SIZE = "source-packet-size";
+    private static final String SOURCE_CURSOR = "source-cursor";
+    private static final String CHECKPOINT_FILE = "checkpoint-file";
+    private static final String RESUME = "resume";
+    private static final String WATERMARK_COLUMN = "watermark-column";
+    private static final String WATERMARK_FILE = "watermark-file";
+    private static final String WRITE_STRATEGY = "writeStrategy";
+    private static final String ADAPTIVE_BATCH = "adaptiveBatch";
+    private static final String MIN_BATCH_SIZE = "minBatchSize";
+    private static final String MAX_BATCH_SIZE = "maxBatchSize";
+    private static final String TARGET_COMMIT_MILLIS = "targetCommitMillis";
+    private static final String ELASTIC_WRITERS = "elasticWriters";
+    private static final String MIN_WRITERS = "minWriters";
+    private static final String MAX_WRITERS = "maxWriters";
+    private static final String MANIFEST = "manifest";
+    private static final String MAX_CONCURRENT_TABLES = "maxConcurrentTables";
+    private static final String READER_BUDGET = "readerBudget";
+    private static final String WRITER_BUDGET = "writerBudget";
+    private static final String CACHE_BUDGET = "cacheBudget";
+    private static final String CACHE_BYTES = "cacheBytes";
+    private static final String CACHE_BYTES_BUDGET = "cacheBytesBudget";
+    private static final String SPILL_DIR = "spill-dir";
+    private static final String SPILL_SEGMENT_MB = "spill-segment-mb";
+    private static final String LOB_DIR = "lob-dir";
+    private static final String LOB_THRESHOLD = "lobThreshold";
+    private static final String LOB_MEMORY = "lobMemory";
+    private static final String DEAD_LETTER_FILE = "dead-letter-file";
+    private static final String MAX_DEAD_LETTERS = "maxDeadLetters";
+    private static final String WRITE_RETRIES = "writeRetries";
+    private static final String RETRY_BACKOFF_MILLIS = "retryBackoffMillis";
+    private static final String DRAIN_SECONDS = "drainSeconds";
+    private static final String MODE = "mode";
+    private static final String EXTRACT_DIR = "extract-dir";
+    private static final String VERIFY_DRILL_DOWN = "verify-drill-down";
+    private static final String DROP_INDEXES = "drop-indexes";
+    private static final String INDEX_DDL_FILE = "index-ddl-file";
+    private static final String ROUTE_WRITERS = "route-writers";
+    private static final String ROUTE_COLUMN = "route-column";
+    private static final String PLAN_TABLE = "plan-table";
+    private static final String PLAN_SAMPLE_ROWS = "planSampleRows";
+    private static final String METRICS_FILE = "metrics-file";
+    private static final String METRICS_INTERVAL = "metrics-interval";
 
     private static final int DEFAULT_BATCH_SIZE = 100000;
+    private static final String DEFAULT_SPLIT_MODE = "range";
+    public static final String MODE_COPY = "copy";
+    public static final String MODE_EXTRACT = "extract";
+    public static final String MODE_LOAD = "load";
+    public static final String MODE_VERIFY = "verify";
+    public static final String MODE_SYNC = "sync";
+    public static final String MODE_PLAN = "plan";
+    private static final int DEFAULT_METRICS_INTERVAL = 5;
+    private static final int DEFAULT_SPILL_SEGMENT_MB = 64;
+    private static final long DEFAULT_LOB_THRESHOLD = 1L << 20;
+    private static final long DEFAULT_LOB_MEMORY = 64L << 20;
+    private static final int DEFAULT_MAX_CONCURRENT_TABLES = 4;
+    private static final long DEFAULT_TARGET_COMMIT_MILLIS = 2000;
+    private static final long DEFAULT_MAX_DEAD_LETTERS = 1000;
+    private static final int DEFAULT_WRITE_RETRIES = 3;
+    private static final long DEFAULT_RETRY_BACKOFF_MILLIS = 500;
+    private static final int DEFAULT_DRAIN_SECONDS = 30;
+    private static final int DEFAULT_PLAN_SAMPLE_ROWS = 100000;
 
     private String sourceDBName = null;
     private String sourceDBServerName = null;
@@ -47,6 +117,55 @@ public class BatchConfig {
     private int batchSize;
     private int poolSize;
     private int cacheSize;
+    private String sourceSplitColumn = null;
+    private String splitMode = null;
+    private int partitions;
+    private int readerPoolSize;
+    private String waitStrategy = null;
+    private int sourceFetchSize;
+    private String sourceIsolation = null;
+    private int sourcePacketSize;
+    private boolean sourceCursor;
+    private String checkpointFile = null;
+    private boolean resume;
+    private String watermarkColumn = null;
+    private String watermarkFile = null;
+    private String writeStrategy = null;
+    private boolean adaptiveBatch;
+    private int minBatchSize;
+    private int maxBatchSize;
+    private long targetCommitMillis;
+    private boolean elasticWriters;
+    private int minWriters;
+    private int maxWriters;
+    private String manifest = null;
+    private int maxConcurrentTables;
+    private int readerBudget;
+    private int writerBudget;
+    private int cacheBudget;
+    private long cacheBytes;
+    private long cacheBytesBudget;
+    private String spillDir = null;
+    private int spillSegmentMb;
+    private String lobDir = null;
+    private long lobThreshold;
+    private long lobMemory;
+    private String deadLetterFile = null;
+    private long maxDeadLetters;
+    private int writeRetries = -1;
+    private long retryBackoffMillis;
+    private int drainSeconds;
+    private String mode = null;
+    private String extractDir = null;
+    private boolean verifyDrillDown = true;
+    private boolean dropIndexes = false;
+    private String indexDdlFile = null;
+    private boolean routeWriters = false;
+    private String routeColumn = null;
+    private String planTable = null;
+    private int planSampleRows;
+    private String metricsFile = null;
+    private int metricsInterval;
 
     private DBConfig sourceDBConfig;
     private DBConfig targetDBConfig;
@@ -57,6 +176,153 @@ public class BatchConfig {
                 String[] splits = s.split("=");
                 if (splits.length == 2) {
                     switch (splits[0]) {
+                    case SOURCE_SPLIT_COLUMN:
+                        sourceSplitColumn = splits[1];
+                        break;
+                    case SPLIT_MODE:
+                        splitMode = splits[1];
+                        break;
+                    case PARTITIONS:
+                        partitions = Integer.parseInt(splits[1]);
+                        break;
+                    case ADAPTIVE_BATCH:
+                        adaptiveBatch = Boolean.parseBoolean(splits[1]);
+                        break;
+                    case MIN_BATCH_SIZE:
+                        minBatchSize = Integer.parseInt(splits[1]);
+                        break;
+                    case MAX_BATCH_SIZE:
+                        maxBatchSize = Integer.parseInt(splits[1]);
+                        break;
+                    case TARGET_COMMIT_MILLIS:
+                        targetCommitMillis = Long.parseLong(splits[1]);
+                        break;
+                    case ELASTIC_WRITERS:
+                        elasticWriters = Boolean.parseBoolean(splits[1]);
+                        break;
+                    case MIN_WRITERS:
+                        minWriters = Integer.parseInt(splits[1]);
+                        break;
+                    case MAX_WRITERS:
+                        maxWriters = Integer.parseInt(splits[1]);
+                        break;
+                    case MANIFEST:
+                        manifest = splits[1];
+                        break;
+                    case MAX_CONCURRENT_TABLES:
+                        maxConcurrentTables = Integer.parseInt(splits[1]);
+                        break;
+                    case READER_BUDGET:
+                        readerBudget = Integer.parseInt(splits[1]);
+                        break;
+                    case WRITER_BUDGET:
+                        writerBudget = Integer.parseInt(splits[1]);
+                        break;
+                    case CACHE_BUDGET:
+                        cacheBudget = Integer.parseInt(splits[1]);
+                        break;
+                    case CACHE_BYTES:
+                        cacheBytes = parseBytes(splits[1]);
+                        break;
+                    case CACHE_BYTES_BUDGET:
+                        cacheBytesBudget = parseBytes(splits[1]);
+                        break;
+                    case SPILL_DIR:
+                        spillDir = splits[1];
+                        break;
+                    case SPILL_SEGMENT_MB:
+                        spillSegmentMb = Integer.parseInt(splits[1]);
+                        break;
+                    case LOB_DIR:
+                        lobDir = splits[1];
+                        break;
+                    case LOB_THRESHOLD:
+                        lobThreshold = parseBytes(splits[1]);
+                        break;
+                    case LOB_MEMORY:
+                        lobMemory = parseBytes(splits[1]);
+                        break;
+                    case DEAD_LETTER_FILE:
+                        deadLetterFile = splits[1];
+                        break;
+                    case MAX_DEAD_LETTERS:
+                        maxDeadLetters = Long.parseLong(splits[1]);
+                        break;
+                    case WRITE_RETRIES:
+                        writeRetries = Integer.parseInt(splits[1]);
+                        break;
+                    case RETRY_BACKOFF_MILLIS:
+                        retryBackoffMillis = Long.parseLong(splits[1]);
+                        break;
+                    case DRAIN_SECONDS:
+                        drainSeconds = Integer.parseInt(splits[1]);
+                        break;
+                    case MODE:
+                        mode = splits[1];
+                        break;
+                    case EXTRACT_DIR:
+                        extractDir = splits[1];
+                        break;
+                    case VERIFY_DRILL_DOWN:
+                        verifyDrillDown = Boolean.parseBoolean(splits[1]);
+                        break;
+                    case DROP_INDEXES:
+                        dropIndexes = Boolean.parseBoolean(splits[1]);
+                        break;
+                    case INDEX_DDL_FILE:
+                        indexDdlFile = splits[1];
+                        break;
+                    case ROUTE_WRITERS:
+                        routeWriters = Boolean.parseBoolean(splits[1]);
+                        break;
+                    case ROUTE_COLUMN:
+                        routeColumn = splits[1];
+                        break;
+                    case PLAN_TABLE:
+                        planTable = splits[1];
+                        break;
+                    case PLAN_SAMPLE_ROWS:
+                        planSampleRows = Integer.parseInt(splits[1]);
+                        break;
+                    case METRICS_FILE:
+                        metricsFile = splits[1];
+                        break;
+                    case METRICS_INTERVAL:
+                        metricsInterval = Integer.parseInt(splits[1]);
+                        break;
+                    case WRITE_STRATEGY:
+                        writeStrategy = splits[1];
+                        break;
+                    case WATERMARK_COLUMN:
+                        watermarkColumn = splits[1];
+                        break;
+                    case WATERMARK_FILE:
+                        watermarkFile = splits[1];
+                        break;
+                    case CHECKPOINT_FILE:
+                        checkpointFile = splits[1];
+                        break;
+                    case RESUME:
+                        resume = Boolean.parseBoolean(splits[1]);
+                        break;
+                    case SOURCE_FETCH_SIZE:
+                        sourceFetchSize = Integer.parseInt(splits[1]);
+                        break;
+                    case SOURCE_ISOLATION:
+                        sourceIsolation = splits[1];
+                        break;
+                    case SOURCE_PACKET_SIZE:
+                        sourcePacketSize = Integer.parseInt(splits[1]);
+                        break;
+                    case SOURCE_CURSOR:
+                        sourceCursor = Boolean.parseBoolean(splits[1]);
+                        break;
+                    case WAIT_STRATEGY:
+                        waitStrategy = splits[1];
+                        break;
+                    case READER_POOL_SIZE:
+                        readerPoolSize = Integer.parseInt(splits[1]);
+                        break;
                     case CACHE_SIZE:
                         cacheSize = Integer.parseInt(splits[1]);
                         break;
@@ -172,11 +438,83 @@ public class BatchConfig {
         return (batchSize > 0) ? batchSize : DEFAULT_BATCH_SIZE;
     }
 
+    /**
+     * @return true if the batch size follows the commit latency of the target
+     *         between the min and max batch size
+     */
+    public boolean isAdaptiveBatch() {
+        return adaptiveBatch;
+    }
+
+    /**
+     * @return fewest rows of an adaptive batch, defaults to 1/100th of the
+     *         batch size
+     */
+    public int getMinBatchSize() {
+        return (minBatchSize > 0) ? minBatchSize : Math.max(1,
+                getBatchSize() / 100);
+    }
+
+    /**
+     * @return most rows of an adaptive batch, defaults to the batch size
+     */
+    public int getMaxBatchSize() {
+        return (maxBatchSize > 0) ? maxBatchSize : getBatchSize();
+    }
+
+    /**
+     * @return commit latency an adaptive batch size aims for
+     */
+    public long getTargetCommitMillis() {
+        return (targetCommitMillis > 0) ? targetCommitMillis
+                : DEFAULT_TARGET_COMMIT_MILLIS;
+    }
+
+    /**
+     * @return the batch size of the job, adaptive or fixed
+     */
+    public BatchSizer newBatchSizer() {
+        if (!isAdaptiveBatch()) {
+            return new BatchSizer(getBatchSize());
+        }
+        return new BatchSizer(getBatchSize(), getMinBatchSize(),
+                getMaxBatchSize(), getTargetCommitMillis(), true);
+    }
+
     public int getPoolSize() {
         return (poolSize > 0) ? poolSize : Runtime.getRuntime()
                 .availableProcessors();
     }
 
+    /**
+     * @return true if writers are added and removed as the target keeps up
+     *         with the queue, between min and max writers
+     */
+    public boolean isElasticWriters() {
+        return elasticWriters;
+    }
+
+    /**
+     * @return fewest writer threads, the pool size unless writers are elastic
+     */
+    public int getMinWriters() {
+        if (!isElasticWriters()) {
+            return getPoolSize();
+        }
+        return Math.max(1, Math.min(minWriters, getMaxWriters()));
+    }
+
+    /**
+     * @return most writer threads, twice the pool size by default when
+     *         writers are elastic
+     */
+    public int getMaxWriters() {
+        if (!isElasticWriters()) {
+            return getPoolSize();
+        }
+        return (maxWriters > 0) ? maxWriters : 2 * getPoolSize();
+    }
+
     /**
      * @return the cacheSize
      */
@@ -184,6 +522,423 @@ public class BatchConfig {
         return (cacheSize > 0) ? cacheSize : DEFAULT_BATCH_SIZE;
     }
 
+    /**
+     * @return the column used to split the source read into partitions, null
+     *         to use the primary key of the source table
+     */
+    public String getSourceSplitColumn() {
+        return sourceSplitColumn;
+    }
+
+    /**
+     * @return the split mode, either range (key ranges between MIN and MAX of
+     *         the split column) or mod (modulo buckets of the split column)
+     */
+    public String getSplitMode() {
+        return (splitMode != null) ? splitMode : DEFAULT_SPLIT_MODE;
+    }
+
+    /**
+     * @return the number of reader threads, each reading on its own
+     *         connection
+     */
+    public int getReaderPoolSize() {
+        return (readerPoolSize > 0) ? readerPoolSize : 1;
+    }
+
+    /**
+     * @return the number of partitions the source read is split into.
+     *         Defaults to the reader pool size
+     */
+    public int getPartitions() {
+        return (partitions > 0) ? partitions : getReaderPoolSize();
+    }
+
+    /**
+     * @return true if the source read has to be split into partitions
+     */
+    public boolean isPartitionedRead() {
+        return getPartitions() > 1;
+    }
+
+    /**
+     * @return how readers and writers wait on the data queue, one of block,
+     *         park or spin
+     */
+    public WaitStrategy getWaitStrategy() {
+        return WaitStrategy.fromString(waitStrategy);
+    }
+
+    /**
+     * @return rows fetched per network round trip from the source, 0 for the
+     *         driver default
+     */
+    public int getSourceFetchSize() {
+        return sourceFetchSize;
+    }
+
+    /**
+     * @return the transaction isolation of the source read as a
+     *         java.sql.Connection constant, -1 for the driver default.
+     *         Accepts uncommitted (ur), committed (cs), repeatable (rs) and
+     *         serializable (rr)
+     */
+    public int getSourceIsolation() {
+        if (sourceIsolation == null) {
+            return -1;
+        }
+        switch (sourceIsolation.toLowerCase()) {
+        case "uncommitted":
+        case "ur":
+            return Connection.TRANSACTION_READ_UNCOMMITTED;
+        case "committed":
+        case "cs":
+            return Connection.TRANSACTION_READ_COMMITTED;
+        case "repeatable":
+        case "rs":
+            return Connection.TRANSACTION_REPEATABLE_READ;
+        case "serializable":
+        case "rr":
+            return Connection.TRANSACTION_SERIALIZABLE;
+        default:
+            throw new RuntimeException("Unknown source isolation "
+                    + sourceIsolation);
+        }
+    }
+
+    /**
+     * @return network packet size in bytes for a Sybase source, 0 for the
+     *         driver default
+     */
+    public int getSourcePacketSize() {
+        return sourcePacketSize;
+    }
+
+    /**
+     * @return true if a Sybase source is read through a server side cursor
+     */
+    public boolean isSourceCursor() {
+        return sourceCursor;
+    }
+
+    /**
+     * @return the file journaling committed work, null if the job is not
+     *         checkpointed
+     */
+    public String getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * @return true to resume an interrupted job from its checkpoint journal
+     */
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * @return the column of an incremental copy, a timestamp or an identity
+     *         that only grows. null to copy all rows
+     */
+    public String getWatermarkColumn() {
+        return watermarkColumn;
+    }
+
+    /**
+     * @return the file keeping the high-water mark of incremental copies
+     */
+    public String getWatermarkFile() {
+        return (watermarkFile != null) ? watermarkFile : "bcp_watermark.properties";
+    }
+
+    /**
+     * @return how rows are written to the target, batch (JDBC batch of single
+     *         row inserts), multirow (many rows per insert) or bulk (native
+     *         bulk load of the driver)
+     */
+    public String getWriteStrategy() {
+        return writeStrategy;
+    }
+
+    /**
+     * @return the manifest listing the tables of a multi table job, one line
+     *         of arguments per table, null for a single table job
+     */
+    public String getManifest() {
+        return manifest;
+    }
+
+    /**
+     * @return most tables of a manifest copied at the same time
+     */
+    public int getMaxConcurrentTables() {
+        return (maxConcurrentTables > 0) ? maxConcurrentTables
+                : DEFAULT_MAX_CONCURRENT_TABLES;
+    }
+
+    /**
+     * @return reader threads, and source connections, shared by the tables of
+     *         a manifest. Defaults to the reader pool size of each concurrent
+     *         table
+     */
+    public int getReaderBudget() {
+        return (readerBudget > 0) ? readerBudget : getMaxConcurrentTables()
+                * getReaderPoolSize();
+    }
+
+    /**
+     * @return writer threads, and target connections, shared by the tables of
+     *         a manifest. Defaults to the pool size of each concurrent table
+     */
+    public int getWriterBudget() {
+        return (writerBudget > 0) ? writerBudget : getMaxConcurrentTables()
+                * getPoolSize();
+    }
+
+    /**
+     * @return queue rows shared by the tables of a manifest. Defaults to the
+     *         cache size of each concurrent table
+     */
+    public int getCacheBudget() {
+        return (cacheBudget > 0) ? cacheBudget : getMaxConcurrentTables()
+                * getCacheSize();
+    }
+
+    /**
+     * @return estimated bytes of the batches in flight, in the queue and with
+     *         the writers. 0 to bound the queue by cacheSize rows only
+     */
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    /**
+     * @return bytes in flight shared by the tables of a manifest. Defaults to
+     *         the cache bytes of each concurrent table, 0 if not bounded
+     */
+    public long getCacheBytesBudget() {
+        return (cacheBytesBudget > 0) ? cacheBytesBudget
+                : getMaxConcurrentTables() * getCacheBytes();
+    }
+
+    /**
+     * @return bytes of a size given with an optional k, m or g suffix
+     */
+    private static long parseBytes(String value) {
+        String text = value.trim().toLowerCase();
+        long unit = 1;
+        switch (text.charAt(text.length() - 1)) {
+        case 'k':
+            unit = 1L << 10;
+            break;
+        case 'm':
+            unit = 1L << 20;
+            break;
+        case 'g':
+            unit = 1L << 30;
+            break;
+        default:
+            break;
+        }
+        if (unit > 1) {
+            text = text.substring(0, text.length() - 1);
+        }
+        return Long.parseLong(text) * unit;
+    }
+
+    /**
+     * @return the local directory batches are spilled to when the queue is
+     *         full, null to make readers wait instead
+     */
+    public String getSpillDir() {
+        return spillDir;
+    }
+
+    /**
+     * @return size in bytes of a spill segment file
+     */
+    public int getSpillSegmentBytes() {
+        return ((spillSegmentMb > 0) ? spillSegmentMb
+                : DEFAULT_SPILL_SEGMENT_MB) << 20;
+    }
+
+    /**
+     * @return the local directory large LOB values are staged in, the
+     *         temporary directory of the JVM if not given
+     */
+    public String getLobDir() {
+        return (lobDir != null) ? lobDir : System
+                .getProperty("java.io.tmpdir");
+    }
+
+    /**
+     * @return bytes of a LOB value above which it is staged in a file
+     *         rather than held on the heap
+     */
+    public long getLobThreshold() {
+        return (lobThreshold > 0) ? lobThreshold : DEFAULT_LOB_THRESHOLD;
+    }
+
+    /**
+     * @return bytes of the LOB values held on the heap by the batches in
+     *         flight, further values are staged in files
+     */
+    public long getLobMemory() {
+        return (lobMemory > 0) ? lobMemory : DEFAULT_LOB_MEMORY;
+    }
+
+    /**
+     * @return the file rows rejected by the target are written to. A batch
+     *         that fails on its rows is then split to find them and the
+     *         other rows are committed. null to fail the batch as a whole
+     */
+    public String getDeadLetterFile() {
+        return deadLetterFile;
+    }
+
+    /**
+     * @return most rows written to the dead letter file before the job fails
+     */
+    public long getMaxDeadLetters() {
+        return (maxDeadLetters > 0) ? maxDeadLetters
+                : DEFAULT_MAX_DEAD_LETTERS;
+    }
+
+    /**
+     * @return times a batch write failing on a deadlock, a timeout or a
+     *         broken connection is tried again
+     */
+    public int getWriteRetries() {
+        return (writeRetries >= 0) ? writeRetries : DEFAULT_WRITE_RETRIES;
+    }
+
+    /**
+     * @return wait before the first retry of a batch write, doubled for each
+     *         retry after it
+     */
+    public long getRetryBackoffMillis() {
+        return (retryBackoffMillis > 0) ? retryBackoffMillis
+                : DEFAULT_RETRY_BACKOFF_MILLIS;
+    }
+
+    /**
+     * @return wait for the threads of an aborted job to stop before the job
+     *         gives up on them
+     */
+    public int getDrainSeconds() {
+        return (drainSeconds > 0) ? drainSeconds : DEFAULT_DRAIN_SECONDS;
+    }
+
+    /**
+     * @return copy to read the source and write the target in one job,
+     *         extract to write the source to files of the extract directory,
+     *         load to write the files of the extract directory to the target,
+     *         verify to compare the source and the target, sync to write
+     *         only the rows that differ, plan to recommend the settings of a
+     *         copy from trial writes
+     */
+    public String getMode() {
+        if (mode == null) {
+            return MODE_COPY;
+        }
+        String value = mode.toLowerCase();
+        if (!MODE_COPY.equals(value) && !MODE_EXTRACT.equals(value)
+                && !MODE_LOAD.equals(value) && !MODE_VERIFY.equals(value)
+                && !MODE_SYNC.equals(value) && !MODE_PLAN.equals(value)) {
+            throw new RuntimeException("Unknown mode " + mode);
+        }
+        if ((MODE_EXTRACT.equals(value) || MODE_LOAD.equals(value))
+                && extractDir == null) {
+            throw new RuntimeException("Mode " + mode + " needs "
+                    + EXTRACT_DIR);
+        }
+        return value;
+    }
+
+    /**
+     * @return true to compare the rows of the chunks that differ key by key
+     */
+    public boolean isVerifyDrillDown() {
+        return verifyDrillDown;
+    }
+
+    /**
+     * @return true to drop the secondary indexes and foreign keys of the
+     *         target and disable its triggers while a copy or a load writes
+     *         to it, and rebuild them after
+     */
+    public boolean isDropIndexes() {
+        return dropIndexes;
+    }
+
+    /**
+     * @return the file the statements restoring the dropped indexes, foreign
+     *         keys and triggers are saved to until they are rebuilt
+     */
+    public String getIndexDdlFile() {
+        return (indexDdlFile != null) ? indexDdlFile : getTargetTable()
+                + ".ddl";
+    }
+
+    /**
+     * @return true to route the rows read to the writers by the clustered
+     *         key of the target, each writer inserting into a range of its
+     *         own
+     */
+    public boolean isRouteWriters() {
+        return routeWriters;
+    }
+
+    /**
+     * @return the column the rows are routed by, null for the clustered key
+     *         of the target
+     */
+    public String getRouteColumn() {
+        return routeColumn;
+    }
+
+    /**
+     * @return the scratch table the trial batches of a plan are written to,
+     *         created like the target table and dropped after
+     */
+    public String getPlanTable() {
+        return (planTable != null) ? planTable : getTargetTable()
+                + "_bcp_plan";
+    }
+
+    /**
+     * @return rows read from the source to size the rows and written in each
+     *         trial of a plan
+     */
+    public int getPlanSampleRows() {
+        return (planSampleRows > 0) ? planSampleRows
+                : DEFAULT_PLAN_SAMPLE_ROWS;
+    }
+
+    /**
+     * @return the local directory holding the data files of an extract
+     */
+    public String getExtractDir() {
+        return extractDir;
+    }
+
+    /**
+     * @return the file the metrics are written to at every interval, JSON
+     *         when the name ends with .json and Prometheus text otherwise.
+     *         null to only log progress and expose metrics through JMX
+     */
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return seconds between two progress and metrics reports
+     */
+    public int getMetricsInterval() {
+        return (metricsInterval > 0) ? metricsInterval
+                : DEFAULT_METRICS_INTERVAL;
+    }
+
     /**
      * @return the sourceDBType
      */
@@ -277,7 +1032,10 @@ public class BatchConfig {
             sourceDBConfig = new DBConfig(getSourceDBName(),
                     getSourceDBServerName(), getSourceDBServerPort(),
                     getSourceDBType(), getSourceUserId(), getSourcePassword(),
-                    getSourceTable(), getSourceColumns(), getSourceSql());
+                    getSourceTable(), getSourceColumns(), getSourceSql(),
+                    getSourceFetchSize(), getSourceIsolation(),
+                    getSourcePacketSize(), isSourceCursor(), null,
+                    DBConfig.SOURCE);
         }
         return sourceDBConfig;
     }
@@ -287,8 +1045,20 @@ public class BatchConfig {
             targetDBConfig = new DBConfig(getTargetDBName(),
                     getTargetDBServerName(), getTargetDBServerPort(),
                     getTargetDBType(), getTargetUserId(), getTargetPassword(),
-                    getTargetTable(), getTargetColumns(), getTargetSql());
+                    getTargetTable(), getTargetColumns(), getTargetSql(), 0,
+                    -1, 0, false, getWriteStrategy(), DBConfig.TARGET);
         }
         return targetDBConfig;
     }
+
+    /**
+     * @return the target database with the scratch table of a plan in place
+     *         of the target table
+     */
+    public DBConfig getPlanDBConfig() {
+        return new DBConfig(getTargetDBName(), getTargetDBServerName(),
+                getTargetDBServerPort(), getTargetDBType(), getTargetUserId(),
+                getTargetPassword(), getPlanTable(), getTargetColumns(),
+                null, 0, -1, 0, false, getWriteStrategy(), DBConfig.TARGET);
+    }
 }
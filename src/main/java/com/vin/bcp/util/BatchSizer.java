@@ -0,0 +1,123 @@
+package com.vin.bcp.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Number of rows readers put in a batch. When adaptive, writers report the
+ * latency of each batch write and the size moves toward the target commit
+ * latency: it grows by a fixed step while commits are faster than the target
+ * and is halved when a commit is slower or fails
+ *
+ */
+public class BatchSizer {
+    // number of steps between min and max
+    private static final int STEPS = 32;
+
+    private Logger logger = LogManager.getLogger(BatchSizer.class);
+
+    private final int min;
+    private final int max;
+    private final int step;
+    private final long targetNanos;
+    private final boolean adaptive;
+    private final AtomicInteger size;
+    // a batch is published early once its rows reach this many bytes
+    private volatile long maxBatchBytes = Long.MAX_VALUE;
+
+    /**
+     * A batch size that never changes
+     */
+    public BatchSizer(int size) {
+        this(size, size, size, 0, false);
+    }
+
+    /**
+     * @param initial
+     *            rows in a batch until the first commit is measured
+     * @param min
+     *            fewest rows in a batch
+     * @param max
+     *            most rows in a batch, also the capacity of every batch
+     * @param targetMillis
+     *            commit latency to aim for
+     */
+    public BatchSizer(int initial, int min, int max, long targetMillis,
+            boolean adaptive) {
+        this.max = Math.max(1, max);
+        this.min = Math.max(1, Math.min(min, this.max));
+        this.step = Math.max(1, (this.max - this.min) / STEPS);
+        this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+        this.adaptive = adaptive;
+        this.size = new AtomicInteger(Math.max(this.min,
+                Math.min(initial, this.max)));
+    }
+
+    /**
+     * @return rows to put in the next batch
+     */
+    public int getBatchSize() {
+        return size.get();
+    }
+
+    /**
+     * @return capacity of the batches, the largest size the batch can grow to
+     */
+    public int getMaxBatchSize() {
+        return max;
+    }
+
+    /**
+     * @return estimated bytes after which a batch is published whatever its
+     *         rows
+     */
+    public long getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public void setMaxBatchBytes(long maxBatchBytes) {
+        this.maxBatchBytes = Math.max(1, maxBatchBytes);
+    }
+
+    /**
+     * Adjust the batch size to the latency of a committed batch
+     *
+     * @param rows
+     *            rows in the committed batch
+     */
+    public void committed(int rows, long nanos) {
+        if (!adaptive) {
+            return;
+        }
+        int current = size.get();
+        if (nanos > targetNanos) {
+            decrease(current);
+        } else if (rows >= current && current < max) {
+            // only a full batch tells whether a larger one would do
+            int next = Math.min(max, current + step);
+            if (size.compareAndSet(current, next)) {
+                logger.debug("Batch size raised to " + next);
+            }
+        }
+    }
+
+    /**
+     * Shrink the batch size after a failed write, such as the transaction log
+     * running full
+     */
+    public void failed() {
+        if (adaptive) {
+            decrease(size.get());
+        }
+    }
+
+    private void decrease(int current) {
+        int next = Math.max(min, current / 2);
+        if (next < current && size.compareAndSet(current, next)) {
+            logger.info("Batch size lowered to " + next);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.vin.bcp.util;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Durable journal of the committed work of a job, kept in a local file.
+ *
+ * The journal starts with the partition plan of the job. Every committed
+ * batch is appended and synced to disk, and a partition is marked done once
+ * all of its rows are read and committed. A resumed job reads the plan back
+ * and skips the partitions marked done.
+ *
+ * Work is resumed by whole partitions, the batches of a partition are
+ * committed out of key order by several writers, so a partition started but
+ * not done is deleted from the target and read again. A resume whose only
+ * partition is partially committed would copy the whole table again and is
+ * refused.
+ *
+ * Lines are tab separated:
+ *
+ * <pre>
+ * JOB       source table  target table
+ * PARTITION id  predicate
+ * START     id
+ * BATCH     id  rows
+ * RESET     id
+ * DONE      id
+ * </pre>
+ */
+public class CheckpointJournal {
+    private static final String JOB = "JOB";
+    private static final String PARTITION = "PARTITION";
+    private static final String START = "START";
+    private static final String BATCH = "BATCH";
+    private static final String RESET = "RESET";
+    private static final String DONE = "DONE";
+    private static final String NULL_PREDICATE = "";
+
+    private final Path file;
+    private final String job;
+    private final List<String> plan = new ArrayList<>();
+    private final Map<Integer, Long> committedRows = new HashMap<>();
+    private final Map<Integer, Long> readRows = new HashMap<>();
+    private final Map<Integer, Boolean> started = new HashMap<>();
+    private final Map<Integer, Boolean> done = new HashMap<>();
+    private FileOutputStream out;
+
+    /**
+     * @param resume
+     *            true to load the journal of an earlier run, false to start a
+     *            new journal
+     */
+    public CheckpointJournal(String file, String sourceTable,
+            String targetTable, boolean resume) {
+        this.file = Paths.get(file);
+        this.job = sourceTable + "\t" + targetTable;
+        try {
+            long complete = 0;
+            if (resume && Files.exists(this.file)) {
+                complete = load();
+            }
+            out = new FileOutputStream(this.file.toFile(), resume);
+            if (out.getChannel().size() > complete) {
+                // drop a line torn by a crash, the next record would be
+                // appended to it and lost with it
+                out.getChannel().truncate(complete);
+            }
+            if (plan.isEmpty()) {
+                // a new journal, or one written before planning finished
+                out.getChannel().truncate(0);
+                append(JOB + "\t" + job);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to open checkpoint journal "
+                    + file, e);
+        }
+    }
+
+    /**
+     * @return length of the journal up to the end of its last complete line
+     */
+    private long load() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int complete = bytes.length;
+        while (complete > 0 && bytes[complete - 1] != '\n') {
+            complete--;
+        }
+        String text = new String(bytes, 0, complete, StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            String[] fields = line.split("\t", -1);
+            try {
+                switch (fields[0]) {
+                case JOB:
+                    if (!job.equals(fields[1] + "\t" + fields[2])) {
+                        throw new RuntimeException("Checkpoint journal "
+                                + file + " belongs to another job : " + line);
+                    }
+                    break;
+                case PARTITION:
+                    plan.add(NULL_PREDICATE.equals(fields[2]) ? null
+                            : fields[2]);
+                    break;
+                case START:
+                    started.put(Integer.parseInt(fields[1]), Boolean.TRUE);
+                    break;
+                case BATCH:
+                    int id = Integer.parseInt(fields[1]);
+                    Long rows = committedRows.get(id);
+                    committedRows.put(id, ((rows == null) ? 0 : rows)
+                            + Long.parseLong(fields[2]));
+                    break;
+                case RESET:
+                    started.remove(Integer.parseInt(fields[1]));
+                    committedRows.remove(Integer.parseInt(fields[1]));
+                    done.remove(Integer.parseInt(fields[1]));
+                    break;
+                case DONE:
+                    done.put(Integer.parseInt(fields[1]), Boolean.TRUE);
+                    break;
+                default:
+                    break;
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                // a line torn by a crash is ignored
+            }
+        }
+        return complete;
+    }
+
+    /**
+     * @return partition predicates of an earlier run, empty if none
+     */
+    public List<String> getPlan() {
+        return plan;
+    }
+
+    /**
+     * Record the partition plan of a new run
+     */
+    public synchronized void writePlan(List<String> predicates) {
+        plan.clear();
+        plan.addAll(predicates);
+        for (int i = 0; i < predicates.size(); i++) {
+            String predicate = predicates.get(i);
+            append(PARTITION + "\t" + i + "\t"
+                    + ((predicate == null) ? NULL_PREDICATE : predicate));
+        }
+    }
+
+    public synchronized boolean isDone(int partition) {
+        return done.containsKey(partition);
+    }
+
+    /**
+     * @return true if an earlier run started the partition without completing
+     *         it, so some of its rows may be committed. A batch committed just
+     *         before a crash may be missing from the journal, so this does
+     *         not depend on the batches recorded
+     */
+    public synchronized boolean isPartiallyCommitted(int partition) {
+        return !isDone(partition) && started.containsKey(partition);
+    }
+
+    /**
+     * Forget the rows committed by an earlier run, once they are deleted from
+     * the target. A partition done is to be written again as well
+     */
+    public synchronized void reset(int partition) {
+        started.remove(partition);
+        committedRows.remove(partition);
+        readRows.remove(partition);
+        done.remove(partition);
+        append(RESET + "\t" + partition);
+    }
+
+    /**
+     * Record that the partition is about to be read, before any of its rows
+     * can be committed
+     */
+    public synchronized void partitionStarted(int partition) {
+        if (!started.containsKey(partition)) {
+            started.put(partition, Boolean.TRUE);
+            append(START + "\t" + partition);
+        }
+    }
+
+    /**
+     * Record a committed batch of the partition
+     */
+    public synchronized void batchCommitted(int partition, int rows) {
+        Long committed = committedRows.get(partition);
+        committedRows.put(partition, ((committed == null) ? 0 : committed)
+                + rows);
+        append(BATCH + "\t" + partition + "\t" + rows);
+        markIfDone(partition);
+    }
+
+    /**
+     * Record that all rows of the partition were read
+     */
+    public synchronized void partitionRead(int partition, long rows) {
+        readRows.put(partition, rows);
+        markIfDone(partition);
+    }
+
+    private void markIfDone(int partition) {
+        Long read = readRows.get(partition);
+        Long committed = committedRows.get(partition);
+        if (read != null && read.equals((committed == null) ? 0L : committed)
+                && !isDone(partition)) {
+            done.put(partition, Boolean.TRUE);
+            append(DONE + "\t" + partition);
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // nothing left to write
+        }
+    }
+
+    private void append(String line) {
+        try {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            // synced through the descriptor, a thread interrupted on abort
+            // would close the channel and the journal with it
+            out.getFD().sync();
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to write checkpoint journal "
+                    + file, e);
+        }
+    }
+}
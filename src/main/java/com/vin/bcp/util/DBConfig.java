@@ -16,6 +16,44 @@ public class DBConfig {
     public DBConfig(String dbName, String dbServerName, String dbServerPort,
             String dbType, String dbUserId, String dbPassword, String table,
             String columns, String sql) {
+        this(dbName, dbServerName, dbServerPort, dbType, dbUserId, dbPassword,
+                table, columns, sql, 0, -1, 0, false, null);
+    }
+
+    /**
+     * @param fetchSize
+     *            rows per network round trip, 0 for the driver default
+     * @param isolation
+     *            java.sql.Connection transaction isolation, -1 for the driver
+     *            default
+     * @param packetSize
+     *            network packet size in bytes (Sybase), 0 for the driver
+     *            default
+     * @param cursor
+     *            read through a server side cursor (Sybase)
+     * @param writeStrategy
+     *            how rows are written to the table, batch, multirow or bulk.
+     *            null for batch
+     */
+    public DBConfig(String dbName, String dbServerName, String dbServerPort,
+            String dbType, String dbUserId, String dbPassword, String table,
+            String columns, String sql, int fetchSize, int isolation,
+            int packetSize, boolean cursor, String writeStrategy) {
+        this(dbName, dbServerName, dbServerPort, dbType, dbUserId, dbPassword,
+                table, columns, sql, fetchSize, isolation, packetSize, cursor,
+                writeStrategy, null);
+    }
+
+    /**
+     * @param role
+     *            {@link #SOURCE} or {@link #TARGET}, the databases of one
+     *            role share a connection pool. null to share the pool of
+     *            the database with any other config without a role
+     */
+    public DBConfig(String dbName, String dbServerName, String dbServerPort,
+            String dbType, String dbUserId, String dbPassword, String table,
+            String columns, String sql, int fetchSize, int isolation,
+            int packetSize, boolean cursor, String writeStrategy, String role) {
         this.dbName = dbName;
         this.dbServerName = dbServerName;
         this.dbServerPort = dbServerPort;
@@ -25,8 +63,17 @@ public class DBConfig {
         this.columns = columns;
         this.sql = sql;
         this.table = table;
+        this.fetchSize = fetchSize;
+        this.isolation = isolation;
+        this.packetSize = packetSize;
+        this.cursor = cursor;
+        this.writeStrategy = writeStrategy;
+        this.role = role;
     }
 
+    public static final String SOURCE = "source";
+    public static final String TARGET = "target";
+
     public final String dbName;
     public final String dbServerName;
     public final String dbServerPort;
@@ -37,4 +84,10 @@ public class DBConfig {
     public final String columns;
     public final String sql;
     public final String table;
+    public final int fetchSize;
+    public final int isolation;
+    public final int packetSize;
+    public final boolean cursor;
+    public final String writeStrategy;
+    public final String role;
 }
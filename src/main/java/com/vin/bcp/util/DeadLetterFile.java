@@ -0,0 +1,136 @@
+package com.vin.bcp.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+
+import com.vin.bcp.dao.RowBatch;
+
+/**
+ * Rows the target rejected, with the error, kept in a local file. Lines are
+ * tab separated, values escaped so that a row stays on one line:
+ *
+ * <pre>
+ * partition  SQL state  error code  message  value of each column
+ * </pre>
+ *
+ * SQL NULL is written as \N
+ */
+public class DeadLetterFile {
+    private static final String NULL = "\\N";
+
+    private final String file;
+    private final long maxRows;
+    private BufferedWriter out;
+    private long rows;
+
+    /**
+     * @param maxRows
+     *            most rows written before a rejected row fails the job
+     */
+    public DeadLetterFile(String file, long maxRows) {
+        this.file = file;
+        this.maxRows = maxRows;
+        try {
+            this.out = Files.newBufferedWriter(Paths.get(file),
+                    StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to open dead letter file "
+                    + file, e);
+        }
+    }
+
+    /**
+     * Write a rejected row with the error of its write
+     *
+     * @throws RuntimeException
+     *             with the error once too many rows are rejected
+     */
+    public synchronized void write(RowBatch batch, int row, Throwable error) {
+        if (rows >= maxRows) {
+            throw new RuntimeException("More than " + maxRows
+                    + " rows rejected, see " + file, error);
+        }
+        SQLException sqlError = sqlException(error);
+        StringBuilder line = new StringBuilder();
+        line.append(batch.getPartition()).append('\t');
+        if (sqlError != null) {
+            line.append(escape(sqlError.getSQLState())).append('\t')
+                    .append(sqlError.getErrorCode()).append('\t')
+                    .append(escape(sqlError.getMessage()));
+        } else {
+            line.append(NULL).append('\t').append(0).append('\t')
+                    .append(escape(String.valueOf(error)));
+        }
+        for (int i = 0; i < batch.getColumnCount(); i++) {
+            Object value = batch.getObject(row, i);
+            line.append('\t').append(
+                    (value == null) ? NULL : escape(text(value)));
+        }
+        try {
+            out.write(line.toString());
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Not able to write dead letter file "
+                    + file, e);
+        }
+        rows++;
+    }
+
+    /**
+     * @return rows written to the file by this job
+     */
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    public synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // nothing left to write
+        }
+    }
+
+    /**
+     * @return the last of the chained SQL exceptions in the causes of the
+     *         error, the one telling what failed. null if there is none
+     */
+    private static SQLException sqlException(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                SQLException e = (SQLException) cause;
+                while (e.getNextException() != null) {
+                    e = e.getNextException();
+                }
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private static String text(Object value) {
+        if (value instanceof byte[]) {
+            StringBuilder hex = new StringBuilder("0x");
+            for (byte b : (byte[]) value) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+        return value.toString();
+    }
+
+    private static String escape(String value) {
+        if (value == null) {
+            return NULL;
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t")
+                .replace("\n", "\\n").replace("\r", "\\r");
+    }
+}
@@ -0,0 +1,152 @@
+package com.vin.bcp.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Properties;
+
+/**
+ * Keeps the high-water mark of incremental copies in a local properties file.
+ * The high mark of a running job is kept as pending and becomes the mark only
+ * once the job succeeds. The file is replaced atomically on every change
+ *
+ */
+public class WatermarkStore {
+    private static final String MARK = ".mark";
+    private static final String PENDING = ".pending";
+    private static final String TIMESTAMP = "TIMESTAMP|";
+    private static final String DATE = "DATE|";
+    private static final String NUMBER = "NUMBER|";
+    private static final String STRING = "STRING|";
+    private static final Object FILE_LOCK = new Object();
+
+    private final Path file;
+    private final String job;
+    private final Properties marks = new Properties();
+
+    public WatermarkStore(String file, String sourceTable, String targetTable) {
+        this.file = Paths.get(file);
+        this.job = sourceTable + ">" + targetTable;
+        if (Files.exists(this.file)) {
+            try (InputStream in = Files.newInputStream(this.file)) {
+                marks.load(in);
+            } catch (IOException e) {
+                throw new RuntimeException("Not able to read watermark file "
+                        + file, e);
+            }
+        }
+    }
+
+    /**
+     * @return the mark of the last successful run, null if none
+     */
+    public Object getMark() {
+        return parse(marks.getProperty(job + MARK));
+    }
+
+    /**
+     * @return the high mark of a run that did not complete, null if none
+     */
+    public Object getPending() {
+        return parse(marks.getProperty(job + PENDING));
+    }
+
+    public synchronized void setPending(Object value) {
+        marks.setProperty(job + PENDING, format(value));
+        save();
+    }
+
+    /**
+     * Make the pending high mark the mark of the last successful run
+     */
+    public synchronized void commit() {
+        String pending = marks.getProperty(job + PENDING);
+        if (pending != null) {
+            marks.setProperty(job + MARK, pending);
+            marks.remove(job + PENDING);
+            save();
+        }
+    }
+
+    /**
+     * @return the value in a form comparable with the values read back from
+     *         the file
+     */
+    public static Object normalize(Object value) {
+        return parse(format(value));
+    }
+
+    private void save() {
+        // jobs of a manifest share the file, so the marks of the other jobs
+        // are read back before it is replaced
+        synchronized (FILE_LOCK) {
+            Properties merged = new Properties();
+            if (Files.exists(file)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    merged.load(in);
+                } catch (IOException e) {
+                    throw new RuntimeException(
+                            "Not able to read watermark file " + file, e);
+                }
+            }
+            for (String key : new String[] { job + MARK, job + PENDING }) {
+                String value = marks.getProperty(key);
+                if (value == null) {
+                    merged.remove(key);
+                } else {
+                    merged.setProperty(key, value);
+                }
+            }
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                merged.store(out, "bulk copy watermarks");
+            } catch (IOException e) {
+                throw new RuntimeException("Not able to write watermark file "
+                        + temp, e);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new RuntimeException(
+                        "Not able to replace watermark file " + file, e);
+            }
+        }
+    }
+
+    /**
+     * @return the mark as text, read back by {@link #parse(String)}
+     */
+    public static String format(Object value) {
+        if (value == null) {
+            return null;
+        } else if (value instanceof Timestamp) {
+            return TIMESTAMP + value;
+        } else if (value instanceof Date) {
+            return DATE + value;
+        } else if (value instanceof Number) {
+            return NUMBER + new BigDecimal(value.toString()).toPlainString();
+        }
+        return STRING + value;
+    }
+
+    public static Object parse(String value) {
+        if (value == null) {
+            return null;
+        } else if (value.startsWith(TIMESTAMP)) {
+            return Timestamp.valueOf(value.substring(TIMESTAMP.length()));
+        } else if (value.startsWith(DATE)) {
+            return Date.valueOf(value.substring(DATE.length()));
+        } else if (value.startsWith(NUMBER)) {
+            return new BigDecimal(value.substring(NUMBER.length()));
+        }
+        return value.substring(STRING.length());
+    }
+}
@@ -0,0 +1,76 @@
+package com.vin.bcp;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In process H2 databases of the end to end tests, the ones the engines open
+ * for a db type of H2
+ *
+ */
+public final class H2Databases {
+    public static final String USER = "sa";
+    public static final String PASSWORD = "bcp";
+
+    private H2Databases() {
+    }
+
+    /**
+     * @return a connection to the database, kept until the JVM exits
+     */
+    public static Connection connect(String db) throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:mem:" + db
+                + ";DB_CLOSE_DELAY=-1", USER, PASSWORD);
+    }
+
+    public static void execute(Connection conn, String... sql)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String statement : sql) {
+                stmt.execute(statement);
+            }
+        }
+    }
+
+    public static long count(Connection conn, String table)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM "
+                        + table)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    public static boolean exists(Connection conn, String table)
+            throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getTables(null, null,
+                table.toUpperCase(), null)) {
+            return rs.next();
+        }
+    }
+
+    /**
+     * @return the arguments of a job between two tables, followed by the
+     *         other arguments given
+     */
+    public static String[] args(String sourceDb, String sourceTable,
+            String targetDb, String targetTable, String... more) {
+        List<String> args = new ArrayList<>(Arrays.asList("source-db="
+                + sourceDb, "source-db-server=localhost", "source-db-port=0",
+                "source-db-type=H2", "source-table=" + sourceTable,
+                "source-user-id=" + USER, "source-password=" + PASSWORD,
+                "target-db=" + targetDb, "target-db-server=localhost",
+                "target-db-port=0", "target-db-type=H2", "target-table="
+                        + targetTable, "target-user-id=" + USER,
+                "target-password=" + PASSWORD));
+        args.addAll(Arrays.asList(more));
+        return args.toArray(new String[args.size()]);
+    }
+}
@@ -0,0 +1,62 @@
+package com.vin.bcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+
+import org.junit.Test;
+
+import com.vin.bcp.util.BatchConfig;
+
+public class PlanEngineTest {
+
+    private static Connection setUp(String db, int rows) throws Exception {
+        Connection conn = H2Databases.connect(db);
+        H2Databases.execute(conn,
+                "CREATE TABLE T_SOURCE (ID INT PRIMARY KEY, NAME VARCHAR(40))",
+                "INSERT INTO T_SOURCE SELECT X, 'name ' || X"
+                        + " FROM SYSTEM_RANGE(1, " + rows + ")",
+                "CREATE TABLE T_TARGET (ID INT PRIMARY KEY, NAME VARCHAR(40))",
+                "INSERT INTO T_TARGET VALUES (1, 'kept')");
+        return conn;
+    }
+
+    @Test
+    public void planRunsTrialsOnAScratchTableLikeTheTarget()
+            throws Exception {
+        Connection conn = setUp("plan_end_to_end", 2000);
+        PlanEngine engine = new PlanEngine(new BatchConfig(H2Databases.args(
+                "plan_end_to_end", "T_SOURCE", "plan_end_to_end", "T_TARGET",
+                "mode=plan", "poolSize=2", "planSampleRows=1500")));
+        engine.run();
+
+        PlanEngine.Plan plan = engine.getPlan();
+        assertNotNull(plan);
+        assertFalse(engine.getTrials().isEmpty());
+        assertEquals(2000, plan.rows);
+        assertTrue(plan.batchSize > 0 && plan.batchSize <= 1500);
+        assertTrue(plan.writers >= 1 && plan.writers <= 2);
+        // the scratch table is dropped, the target is left alone
+        assertFalse(H2Databases.exists(conn, "T_TARGET_bcp_plan"));
+        assertEquals(1, H2Databases.count(conn, "T_TARGET"));
+        conn.close();
+    }
+
+    @Test
+    public void planTableOfTheTargetIsRefused() throws Exception {
+        Connection conn = setUp("plan_same_table", 10);
+        PlanEngine engine = new PlanEngine(new BatchConfig(H2Databases.args(
+                "plan_same_table", "T_SOURCE", "plan_same_table", "T_TARGET",
+                "mode=plan", "poolSize=1", "plan-table=t_target")));
+        engine.run();
+
+        assertNull(engine.getPlan());
+        assertTrue(H2Databases.exists(conn, "T_TARGET"));
+        assertEquals(1, H2Databases.count(conn, "T_TARGET"));
+        conn.close();
+    }
+}
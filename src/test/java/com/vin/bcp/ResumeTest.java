@@ -0,0 +1,98 @@
+package com.vin.bcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vin.bcp.util.BatchConfig;
+import com.vin.bcp.util.CheckpointJournal;
+
+public class ResumeTest {
+    private Path journal;
+
+    @Before
+    public void setUp() throws Exception {
+        journal = Files.createTempFile("bcp-resume-", ".log");
+        Files.delete(journal);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(journal);
+    }
+
+    private static Connection tables(String db, int rows) throws Exception {
+        Connection conn = H2Databases.connect(db);
+        H2Databases.execute(conn,
+                "CREATE TABLE T_SOURCE (ID INT, NAME VARCHAR(20))",
+                "INSERT INTO T_SOURCE SELECT X, 'n' || X"
+                        + " FROM SYSTEM_RANGE(1, " + rows + ")",
+                "CREATE TABLE T_TARGET (ID INT, NAME VARCHAR(20))");
+        return conn;
+    }
+
+    private BulkCopyEngine copy(String db, String... more) {
+        String[] args = H2Databases.args(db, "T_SOURCE", db, "T_TARGET",
+                "poolSize=1", "checkpoint-file=" + journal, "resume=true");
+        args = Arrays.copyOf(args, args.length + more.length);
+        System.arraycopy(more, 0, args, args.length - more.length,
+                more.length);
+        BulkCopyEngine engine = new BulkCopyEngine(new BatchConfig(args));
+        engine.run();
+        return engine;
+    }
+
+    @Test
+    public void firstRunOfASinglePartitionMayAskToResume() throws Exception {
+        Connection conn = tables("resume_first_run", 50);
+        BulkCopyEngine engine = copy("resume_first_run");
+        assertTrue(engine.isCompleted());
+        assertEquals(50, H2Databases.count(conn, "T_TARGET"));
+        conn.close();
+    }
+
+    @Test
+    public void partiallyCommittedSinglePartitionIsRefused() throws Exception {
+        Connection conn = tables("resume_single", 50);
+        H2Databases.execute(conn,
+                "INSERT INTO T_TARGET SELECT * FROM T_SOURCE WHERE ID <= 10");
+        CheckpointJournal interrupted = new CheckpointJournal(
+                journal.toString(), "T_SOURCE", "T_TARGET", false);
+        interrupted.writePlan(Collections.<String> singletonList(null));
+        interrupted.partitionStarted(0);
+        interrupted.close();
+
+        BulkCopyEngine engine = copy("resume_single");
+        assertFalse(engine.isCompleted());
+        // the rows committed before are left alone
+        assertEquals(10, H2Databases.count(conn, "T_TARGET"));
+        conn.close();
+    }
+
+    @Test
+    public void partiallyCommittedPartitionIsCopiedAgain() throws Exception {
+        Connection conn = tables("resume_partitions", 50);
+        H2Databases.execute(conn,
+                "INSERT INTO T_TARGET SELECT * FROM T_SOURCE WHERE ID <= 10");
+        CheckpointJournal interrupted = new CheckpointJournal(
+                journal.toString(), "T_SOURCE", "T_TARGET", false);
+        interrupted.writePlan(Arrays.asList("ID <= 25", "ID > 25"));
+        interrupted.partitionStarted(0);
+        interrupted.close();
+
+        BulkCopyEngine engine = copy("resume_partitions");
+        assertTrue(engine.isCompleted());
+        assertEquals(50, H2Databases.count(conn, "T_TARGET"));
+        conn.close();
+    }
+}
@@ -0,0 +1,58 @@
+package com.vin.bcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.junit.Test;
+
+import com.vin.bcp.util.BatchConfig;
+
+public class SyncTest {
+
+    private static BulkCopyEngine sync(String db) {
+        BulkCopyEngine engine = new BulkCopyEngine(new BatchConfig(
+                H2Databases.args(db, "T_SOURCE", db, "T_TARGET", "mode=sync",
+                        "source-split-column=ID", "partitions=2",
+                        "poolSize=1", "batchSize=100")));
+        engine.run();
+        return engine;
+    }
+
+    private static long nullKeys(Connection conn) throws Exception {
+        try (Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(
+                        "SELECT COUNT(*) FROM T_TARGET WHERE ID IS NULL")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    @Test
+    public void syncOfALobTableRewritesOnlyWhatDiffers() throws Exception {
+        Connection conn = H2Databases.connect("sync_lobs");
+        for (String table : new String[] { "T_SOURCE", "T_TARGET" }) {
+            H2Databases.execute(conn, "CREATE TABLE " + table
+                    + " (ID INT, DOC CLOB)", "INSERT INTO " + table
+                    + " SELECT X, REPEAT('doc ', X) FROM SYSTEM_RANGE(1, 100)");
+        }
+        // a row of the target only, with a null key
+        H2Databases.execute(conn, "INSERT INTO T_TARGET VALUES (NULL, 'x')",
+                "UPDATE T_TARGET SET DOC = 'changed' WHERE ID = 3");
+
+        BulkCopyEngine engine = sync("sync_lobs");
+        assertTrue(engine.isCompleted());
+        assertEquals(1, engine.getRecordsRead());
+        assertEquals(0, nullKeys(conn));
+        assertEquals(100, H2Databases.count(conn, "T_TARGET"));
+
+        // nothing differs any more, nothing is read again
+        engine = sync("sync_lobs");
+        assertTrue(engine.isCompleted());
+        assertEquals(0, engine.getRecordsRead());
+        conn.close();
+    }
+}
@@ -0,0 +1,41 @@
+package com.vin.bcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+
+import org.junit.Test;
+
+import com.vin.bcp.util.BatchConfig;
+
+public class VerifyEngineTest {
+
+    private static VerifyEngine verify(String db) {
+        VerifyEngine engine = new VerifyEngine(new BatchConfig(
+                H2Databases.args(db, "T_SOURCE", db, "T_TARGET",
+                        "mode=verify", "poolSize=1")));
+        engine.run();
+        return engine;
+    }
+
+    @Test
+    public void identicalTablesWithLobsMatch() throws Exception {
+        Connection conn = H2Databases.connect("verify_lobs");
+        for (String table : new String[] { "T_SOURCE", "T_TARGET" }) {
+            H2Databases.execute(conn, "CREATE TABLE " + table
+                    + " (ID INT PRIMARY KEY, DOC CLOB, DATA BLOB)",
+                    "INSERT INTO " + table + " SELECT X, REPEAT('doc ', X),"
+                            + " X'CAFE' FROM SYSTEM_RANGE(1, 50)");
+        }
+        VerifyEngine engine = verify("verify_lobs");
+        assertTrue(engine.isCompleted());
+        assertTrue(engine.getMismatches().isEmpty());
+
+        H2Databases.execute(conn,
+                "UPDATE T_TARGET SET DOC = 'changed' WHERE ID = 7");
+        engine = verify("verify_lobs");
+        assertEquals(1, engine.getMismatches().size());
+        conn.close();
+    }
+}
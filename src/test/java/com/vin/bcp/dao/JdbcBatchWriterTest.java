@@ -0,0 +1,147 @@
+package com.vin.bcp.dao;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.vin.bcp.util.DBConfig;
+
+public class JdbcBatchWriterTest {
+    // readers bound to the statement, and the most left open when a batch
+    // of statements is sent
+    private final List<Reader> bound = new ArrayList<>();
+    private final List<Integer> openWhenSent = new ArrayList<>();
+    // statements prepared on the connection
+    private final Set<String> prepared = new HashSet<>();
+
+    private static boolean isOpen(Reader reader) {
+        try {
+            reader.ready();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private int open() {
+        int open = 0;
+        for (Reader reader : bound) {
+            if (isOpen(reader)) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    private PooledConnection connection() {
+        final PreparedStatement ps = (PreparedStatement) Proxy
+                .newProxyInstance(getClass().getClassLoader(),
+                        new Class<?>[] { PreparedStatement.class },
+                        new InvocationHandler() {
+                            private int added;
+
+                            @Override
+                            public Object invoke(Object proxy, Method method,
+                                    Object[] args) {
+                                switch (method.getName()) {
+                                case "setCharacterStream":
+                                    bound.add((Reader) args[1]);
+                                    return null;
+                                case "addBatch":
+                                    added++;
+                                    return null;
+                                case "executeBatch":
+                                    openWhenSent.add(open());
+                                    int[] counts = new int[added];
+                                    Arrays.fill(counts, 1);
+                                    added = 0;
+                                    return counts;
+                                default:
+                                    return null;
+                                }
+                            }
+                        });
+        Connection conn = (Connection) Proxy.newProxyInstance(getClass()
+                .getClassLoader(), new Class<?>[] { Connection.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        if ("prepareStatement".equals(method.getName())) {
+                            prepared.add((String) args[0]);
+                            return ps;
+                        }
+                        return null;
+                    }
+                });
+        return new PooledConnection(conn);
+    }
+
+    @Test
+    public void stagedLobsAreSentBeforeTooManyFilesAreOpen()
+            throws Exception {
+        Path dir = Files.createTempDirectory("bcp-lob-test-");
+        LobStager lobs = new LobStager(dir.toString(), 8, 1 << 20);
+        int rows = 2 * TargetWriter.MAX_OPEN_STREAMS + 88;
+        Object[][] values = new Object[rows][];
+        for (int i = 0; i < rows; i++) {
+            values[i] = new Object[] { i, "a text longer than staged " + i };
+        }
+        RowBatch batch = Rows.batch(new int[] { Types.INTEGER, Types.CLOB },
+                rows, lobs, values);
+        assertEquals(rows, lobs.getStaged());
+
+        TargetWriter writer = new JdbcBatchWriter(new TargetSql(new DBConfig(
+                "db", "localhost", "0", "H2", "sa", "", "T_TARGET", null,
+                null)));
+        int written = writer.write(connection(), batch, new AtomicBoolean());
+
+        assertEquals(rows, written);
+        assertEquals(rows, bound.size());
+        assertEquals(Arrays.asList(TargetWriter.MAX_OPEN_STREAMS,
+                TargetWriter.MAX_OPEN_STREAMS, 88), openWhenSent);
+        assertEquals(0, open());
+
+        batch.clear();
+        lobs.close();
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void multiRowWriterPreparesTwoStatementsForAnySize()
+            throws Exception {
+        TargetWriter writer = new MultiRowInsertWriter(new TargetSql(
+                new DBConfig("db", "localhost", "0", "H2", "sa", "",
+                        "T_TARGET", null, null)));
+        PooledConnection target = connection();
+        for (int rows = 1000; rows < 1010; rows++) {
+            Object[][] values = new Object[rows][];
+            for (int i = 0; i < rows; i++) {
+                values[i] = new Object[] { i };
+            }
+            RowBatch batch = Rows.batch(new int[] { Types.INTEGER }, rows,
+                    null, values);
+            assertEquals(rows, writer.write(target, batch,
+                    new AtomicBoolean()));
+        }
+        // the full statement and the single row insert of the remainders
+        assertEquals(2, prepared.size());
+    }
+}
@@ -0,0 +1,115 @@
+package com.vin.bcp.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+
+import javax.sql.rowset.serial.SerialBlob;
+import javax.sql.rowset.serial.SerialClob;
+
+import org.junit.Test;
+
+public class PartitionDigestTest {
+
+    private static PartitionDigest digest(int type, Object... values)
+            throws Exception {
+        Object[][] rows = new Object[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            rows[i] = new Object[] { values[i] };
+        }
+        RowBatch batch = Rows.batch(new int[] { type }, rows);
+        PartitionDigest digest = new PartitionDigest(false);
+        for (int row = 0; row < batch.size(); row++) {
+            digest.add(batch, row, -1);
+        }
+        return digest;
+    }
+
+    @Test
+    public void integralNumbersNormalizeAlike() {
+        Object five = PartitionDigest.normalize(5);
+        assertEquals(five, PartitionDigest.normalize(5L));
+        assertEquals(five, PartitionDigest.normalize((short) 5));
+        assertEquals(five, PartitionDigest.normalize(new BigDecimal("5.00")));
+        assertEquals(five, PartitionDigest.normalize(5.0));
+        assertEquals(0L, PartitionDigest.normalize(new BigDecimal("0.000")));
+        assertEquals(new BigDecimal("1.5"),
+                PartitionDigest.normalize(new BigDecimal("1.500")));
+        assertEquals(1L, PartitionDigest.normalize(Boolean.TRUE));
+    }
+
+    @Test
+    public void integralColumnsDigestAlike() throws Exception {
+        PartitionDigest ints = digest(Types.INTEGER, 1, 2, null);
+        assertTrue(ints.matches(digest(Types.BIGINT, 1L, 2L, null)));
+        assertTrue(ints.matches(digest(Types.DECIMAL, new BigDecimal("1.0"),
+                new BigDecimal("2"), null)));
+        assertFalse(ints.matches(digest(Types.INTEGER, 1, 3, null)));
+    }
+
+    @Test
+    public void textIsComparedWithoutTrailingBlanks() throws Exception {
+        assertEquals("ab", PartitionDigest.normalize("ab   "));
+        assertEquals(" ab", PartitionDigest.normalize(" ab"));
+        assertTrue(digest(Types.CHAR, "ab  ").matches(
+                digest(Types.VARCHAR, "ab")));
+        assertFalse(digest(Types.VARCHAR, " ab").matches(
+                digest(Types.VARCHAR, "ab")));
+    }
+
+    @Test
+    public void datesAndTimestampsAreInstants() throws Exception {
+        long millis = 1500000000123L;
+        Timestamp timestamp = new Timestamp(millis);
+        assertEquals(PartitionDigest.normalize(timestamp),
+                PartitionDigest.normalize(new java.util.Date(millis)));
+        assertEquals(PartitionDigest.normalize(new Date(86400000L)),
+                PartitionDigest.normalize(new Timestamp(86400000L)));
+        assertEquals(PartitionDigest.normalize(new Time(3600000L)),
+                PartitionDigest.normalize(new Timestamp(3600000L)));
+        Timestamp nanos = new Timestamp(millis);
+        nanos.setNanos(123000001);
+        assertFalse(PartitionDigest.normalize(nanos).equals(
+                PartitionDigest.normalize(timestamp)));
+    }
+
+    @Test
+    public void clobsDigestLikeTheirText() throws Exception {
+        char[] chars = new char[20000];
+        Arrays.fill(chars, 'x');
+        chars[10] = '\u00e9';
+        // a pair of surrogates across the buffers the clob is read with
+        chars[8191] = '\ud83d';
+        chars[8192] = '\ude00';
+        String text = new String(chars);
+
+        PartitionDigest strings = digest(Types.VARCHAR, text, "ab", null);
+        assertTrue(strings.matches(digest(Types.CLOB, new SerialClob(text
+                .toCharArray()), new SerialClob("ab   ".toCharArray()), null)));
+        // read again, the same hash
+        assertTrue(digest(Types.CLOB, new SerialClob("ab".toCharArray()))
+                .matches(digest(Types.CLOB, new SerialClob("ab"
+                        .toCharArray()))));
+        assertFalse(strings.matches(digest(Types.CLOB, new SerialClob(text
+                .toCharArray()), new SerialClob("ab c".toCharArray()), null)));
+    }
+
+    @Test
+    public void blobsDigestLikeTheirBytes() throws Exception {
+        byte[] bytes = new byte[20000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        PartitionDigest arrays = digest(Types.VARBINARY, bytes);
+        assertTrue(arrays.matches(digest(Types.BLOB, new SerialBlob(bytes))));
+        bytes[19999]++;
+        assertFalse(arrays.matches(digest(Types.BLOB, new SerialBlob(bytes))));
+    }
+}
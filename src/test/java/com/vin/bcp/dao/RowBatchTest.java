@@ -0,0 +1,199 @@
+package com.vin.bcp.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RowBatchTest {
+    private static final int[] TYPES = { Types.INTEGER, Types.BIGINT,
+            Types.DOUBLE, Types.VARCHAR, Types.DECIMAL, Types.TIMESTAMP,
+            Types.DATE, Types.VARBINARY };
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bcp-test-");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            Path[] paths = files.sorted(Comparator.reverseOrder()).toArray(
+                    Path[]::new);
+            for (Path path : paths) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private static byte[] write(RowBatch batch, boolean lobFiles)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            batch.writeTo(out, lobFiles);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static RowBatch read(byte[] bytes, RowBatch spare)
+            throws IOException {
+        return RowBatch.readFrom(new DataInputStream(new ByteArrayInputStream(
+                bytes)), spare);
+    }
+
+    @Test
+    public void valuesAndNullsRoundTrip() throws Exception {
+        Timestamp timestamp = new Timestamp(1500000000123L);
+        timestamp.setNanos(123456789);
+        RowBatch batch = Rows.batch(TYPES, 4, null,
+                new Object[] { 1, 2L, 3.5, "un caf\u00e9",
+                        new BigDecimal("-12.340"), timestamp,
+                        new Date(86400000L), new byte[] { 1, 2, 3 } },
+                new Object[] { null, null, null, null, null, null, null, null },
+                new Object[] { -7, Long.MAX_VALUE, -0.25, "", BigDecimal.ZERO,
+                        new Timestamp(0), new Date(0), new byte[0] });
+        batch.setPartition(5);
+
+        RowBatch copy = read(write(batch, false), null);
+
+        assertEquals(3, copy.size());
+        assertEquals(4, copy.capacity());
+        assertEquals(5, copy.getPartition());
+        assertTrue(batch.isCompatible(copy));
+        for (int row = 0; row < batch.size(); row++) {
+            for (int column = 0; column < TYPES.length; column++) {
+                assertEquals(batch.isNull(row, column),
+                        copy.isNull(row, column));
+            }
+        }
+        assertEquals(1, copy.getInt(0, 0));
+        assertEquals(2L, copy.getLong(0, 1));
+        assertEquals(3.5, copy.getDouble(0, 2), 0.0);
+        assertEquals("un caf\u00e9", copy.getObject(0, 3));
+        assertEquals(new BigDecimal("-12.340"), copy.getObject(0, 4));
+        assertEquals(timestamp, copy.getObject(0, 5));
+        assertEquals(new Date(86400000L), copy.getObject(0, 6));
+        assertArrayEquals(new byte[] { 1, 2, 3 },
+                (byte[]) copy.getObject(0, 7));
+        for (int column = 0; column < TYPES.length; column++) {
+            assertTrue(copy.isNull(1, column));
+            assertNull(copy.getObject(1, column));
+        }
+        assertEquals(-7, copy.getInt(2, 0));
+        assertEquals(Long.MAX_VALUE, copy.getLong(2, 1));
+        assertEquals("", copy.getObject(2, 3));
+        assertArrayEquals(new byte[0], (byte[]) copy.getObject(2, 7));
+    }
+
+    @Test
+    public void readIntoASpareOfTheSameColumns() throws Exception {
+        RowBatch batch = Rows.batch(new int[] { Types.INTEGER }, 2, null,
+                new Object[] { 1 }, new Object[] { 2 });
+        RowBatch spare = Rows.batch(new int[] { Types.INTEGER }, 2, null,
+                new Object[] { 9 });
+
+        RowBatch copy = read(write(batch, false), spare);
+
+        assertSame(spare, copy);
+        assertEquals(2, copy.size());
+        assertEquals(2, copy.getInt(1, 0));
+    }
+
+    @Test
+    public void lobsRoundTripInFull() throws Exception {
+        LobStager lobs = new LobStager(dir.toString(), 8, 1 << 20);
+        char[] chars = new char[100];
+        Arrays.fill(chars, 'x');
+        String text = new String(chars);
+        byte[] binary = new byte[100];
+        Arrays.fill(binary, (byte) 7);
+        RowBatch batch = Rows.batch(new int[] { Types.CLOB, Types.BLOB }, 3,
+                lobs, new Object[] { text, binary }, new Object[] { null,
+                        null }, new Object[] { "abc", new byte[] { 1 } });
+        assertEquals(2, lobs.getStaged());
+        assertTrue(batch.getObject(0, 0) instanceof LobValue);
+
+        RowBatch copy = read(write(batch, false), null);
+
+        assertEquals(text, copy.getObject(0, 0));
+        assertArrayEquals(binary, (byte[]) copy.getObject(0, 1));
+        assertTrue(copy.isNull(1, 0));
+        assertTrue(copy.isNull(1, 1));
+        assertEquals("abc", copy.getObject(2, 0));
+        assertArrayEquals(new byte[] { 1 }, (byte[]) copy.getObject(2, 1));
+        batch.clear();
+        lobs.close();
+    }
+
+    @Test
+    public void lobFilesAreHandedOver() throws Exception {
+        LobStager lobs = new LobStager(dir.toString(), 8, 1 << 20);
+        byte[] binary = new byte[100];
+        Arrays.fill(binary, (byte) 7);
+        RowBatch batch = Rows.batch(new int[] { Types.BLOB }, 1, lobs,
+                new Object[] { binary });
+        LobValue staged = (LobValue) batch.getObject(0, 0);
+
+        RowBatch copy = read(write(batch, true), null);
+        // the batch written no longer owns the file
+        batch.clear();
+
+        LobValue handed = (LobValue) copy.getObject(0, 0);
+        assertEquals(staged.getFile(), handed.getFile());
+        assertTrue(handed.isBinary());
+        assertEquals(100, handed.getLength());
+        assertTrue(Files.exists(handed.getFile()));
+        copy.clear();
+        assertFalse(Files.exists(handed.getFile()));
+        lobs.close();
+    }
+
+    @Test
+    public void serializedSizeIsTheBytesWritten() throws Exception {
+        LobStager lobs = new LobStager(dir.toString(), 8, 1 << 20);
+        char[] chars = new char[100];
+        Arrays.fill(chars, '\u00e9');
+        RowBatch batch = Rows.batch(TYPES, 70, null,
+                new Object[] { 1, 2L, 3.5, "caf\u00e9 \u20ac \ud83d\ude00 \ud83d",
+                        new BigDecimal("-128.5"), new Timestamp(0),
+                        new Date(0), new byte[] { 1, 2, 3 } },
+                new Object[] { null, null, null, null, null, null, null, null },
+                new Object[] { 0, 0L, 0.0, "", new BigDecimal("255"),
+                        new Timestamp(0), new Date(0), new byte[0] });
+        assertEquals(write(batch, false).length, batch.serializedSize(false));
+
+        RowBatch lob = Rows.batch(new int[] { Types.CLOB, Types.BLOB }, 2,
+                lobs, new Object[] { new String(chars), new byte[100] },
+                new Object[] { "abc", null });
+        assertTrue(lob.getObject(0, 0) instanceof LobValue);
+        assertEquals(write(lob, false).length, lob.serializedSize(false));
+        // sized before the files are handed over
+        long files = lob.serializedSize(true);
+        assertEquals(write(lob, true).length, files);
+        lob.clear();
+        lobs.close();
+    }
+}
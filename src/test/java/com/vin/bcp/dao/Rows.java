@@ -0,0 +1,82 @@
+package com.vin.bcp.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+
+/**
+ * Fills batches of the tests through {@link RowBatch#readRow(ResultSet)}, from
+ * rows of values given as the result set would return them
+ *
+ */
+public final class Rows {
+    private Rows() {
+    }
+
+    /**
+     * @return a batch of the rows, with room for as many
+     */
+    public static RowBatch batch(int[] types, Object[]... rows)
+            throws Exception {
+        return batch(types, Math.max(1, rows.length), null, rows);
+    }
+
+    /**
+     * @param lobs
+     *            stager of the LOB columns, null to read them as objects
+     * @return a batch of the capacity holding the rows
+     */
+    public static RowBatch batch(int[] types, int capacity, LobStager lobs,
+            Object[]... rows) throws Exception {
+        RowBatch batch = new RowBatch(types, capacity);
+        batch.setLobStager(lobs);
+        // the row the result set is on
+        Object[][] current = new Object[1][];
+        ResultSet rs = resultSet(current);
+        for (Object[] row : rows) {
+            current[0] = row;
+            batch.readRow(rs);
+        }
+        return batch;
+    }
+
+    private static ResultSet resultSet(final Object[][] current) {
+        return (ResultSet) Proxy.newProxyInstance(Rows.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+                    private boolean wasNull;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        if ("wasNull".equals(method.getName())) {
+                            return wasNull;
+                        }
+                        Object value = current[0][(Integer) args[0] - 1];
+                        wasNull = value == null;
+                        switch (method.getName()) {
+                        case "getInt":
+                            return wasNull ? 0 : ((Number) value).intValue();
+                        case "getLong":
+                            return wasNull ? 0L : ((Number) value).longValue();
+                        case "getDouble":
+                            return wasNull ? 0.0 : ((Number) value)
+                                    .doubleValue();
+                        case "getBinaryStream":
+                            return wasNull ? null : new ByteArrayInputStream(
+                                    (byte[]) value);
+                        case "getCharacterStream":
+                            return wasNull ? null : new StringReader(
+                                    (String) value);
+                        case "getObject":
+                            return value;
+                        default:
+                            throw new UnsupportedOperationException(method
+                                    .getName());
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,122 @@
+package com.vin.bcp.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vin.bcp.dao.RowBatch;
+
+public class BatchRingBufferTest {
+
+    private static RowBatch batch() {
+        return new RowBatch(new int[] { Types.INTEGER }, 1);
+    }
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(8, new BatchRingBuffer(5, WaitStrategy.BLOCK).capacity());
+        assertEquals(2, new BatchRingBuffer(1, WaitStrategy.BLOCK).capacity());
+    }
+
+    @Test
+    public void batchesAreTakenInTheOrderPublished() throws Exception {
+        BatchRingBuffer ring = new BatchRingBuffer(4, WaitStrategy.BLOCK);
+        RowBatch first = batch();
+        RowBatch second = batch();
+        assertNull(ring.publish(first));
+        assertNull(ring.publish(second));
+        assertEquals(2, ring.size());
+
+        assertSame(first, ring.take(null));
+        assertSame(second, ring.take(null));
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void spareOfATakeComesBackToThePublisher() throws Exception {
+        BatchRingBuffer ring = new BatchRingBuffer(2, WaitStrategy.BLOCK);
+        RowBatch filled = batch();
+        RowBatch spare = batch();
+        ring.publish(filled);
+        assertSame(filled, ring.take(spare));
+        ring.publish(batch());
+        // the slot of the first batch is used again once the ring wraps
+        assertSame(spare, ring.publish(batch()));
+    }
+
+    @Test
+    public void offerReturnsTheBatchWhenFull() {
+        BatchRingBuffer ring = new BatchRingBuffer(2, WaitStrategy.BLOCK);
+        assertNull(ring.offer(batch()));
+        assertNull(ring.offer(batch()));
+        RowBatch rejected = batch();
+        assertSame(rejected, ring.offer(rejected));
+    }
+
+    @Test
+    public void endIsTakenAfterTheBatchesPublishedBeforeIt() throws Exception {
+        BatchRingBuffer ring = new BatchRingBuffer(4, WaitStrategy.BLOCK);
+        RowBatch batch = batch();
+        ring.publish(batch);
+        ring.complete();
+
+        assertSame(batch, ring.take(null));
+        assertNull(ring.take(null));
+        // the marker is passed on, every writer sees the end
+        assertNull(ring.take(null));
+        assertNull(ring.take(null));
+    }
+
+    @Test
+    public void everyWriterEndsOnceAllBatchesAreTaken() throws Exception {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            final BatchRingBuffer ring = new BatchRingBuffer(4, strategy);
+            int writers = 3;
+            int batches = 100;
+            ExecutorService pool = Executors.newFixedThreadPool(writers);
+            try {
+                List<Future<Integer>> taken = new ArrayList<>();
+                for (int i = 0; i < writers; i++) {
+                    taken.add(pool.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            int count = 0;
+                            RowBatch spare = null;
+                            RowBatch batch;
+                            while ((batch = ring.take(spare)) != null) {
+                                count++;
+                                spare = batch;
+                            }
+                            return count;
+                        }
+                    }));
+                }
+                RowBatch filling = batch();
+                for (int i = 0; i < batches; i++) {
+                    RowBatch recycled = ring.publish(filling);
+                    filling = (recycled == null) ? batch() : recycled;
+                }
+                ring.complete();
+
+                int total = 0;
+                for (Future<Integer> count : taken) {
+                    total += count.get(10, TimeUnit.SECONDS);
+                }
+                assertEquals(strategy.toString(), batches, total);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+}
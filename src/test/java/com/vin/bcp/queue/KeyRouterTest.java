@@ -0,0 +1,87 @@
+package com.vin.bcp.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Types;
+
+import org.junit.Test;
+
+import com.vin.bcp.dao.RowBatch;
+import com.vin.bcp.dao.Rows;
+import com.vin.bcp.util.BatchSizer;
+
+public class KeyRouterTest {
+    private static final int[] TYPES = { Types.INTEGER, Types.VARCHAR };
+
+    private static KeyRouter router(int writers, int batchSize) {
+        BatchQueue[] routes = new BatchQueue[writers];
+        for (int i = 0; i < writers; i++) {
+            routes[i] = new BatchRingBuffer(16, WaitStrategy.BLOCK);
+        }
+        return new KeyRouter(routes, 0, new BatchSizer(batchSize), 2);
+    }
+
+    @Test
+    public void numericKeysAreSplitIntoEvenRanges() {
+        KeyRouter router = router(4, 10);
+        router.setRange(0, 99);
+        assertTrue(router.isRanged());
+        assertEquals(0, router.routeOf(0));
+        assertEquals(0, router.routeOf(24));
+        assertEquals(1, router.routeOf(25));
+        assertEquals(2, router.routeOf(50L));
+        assertEquals(3, router.routeOf(99));
+        // keys outside the range go to the writers at its ends
+        assertEquals(0, router.routeOf(-5));
+        assertEquals(3, router.routeOf(1000));
+        assertEquals(0, router.routeOf(null));
+    }
+
+    @Test
+    public void otherKeysAreHashed() {
+        KeyRouter router = router(3, 10);
+        router.setRange("A", "Z");
+        assertFalse(router.isRanged());
+        for (String key : new String[] { "A", "M", "key", "" }) {
+            int route = router.routeOf(key);
+            assertEquals((key.hashCode() & Integer.MAX_VALUE) % 3, route);
+            assertEquals(route, router.routeOf(new String(key)));
+        }
+    }
+
+    @Test
+    public void rowsReachTheWriterOfTheirKeySorted() throws Exception {
+        KeyRouter router = router(2, 3);
+        router.setRange(0, 9);
+        RowBatch read = Rows.batch(TYPES, 8, null, new Object[] { 7, "g" },
+                new Object[] { 1, "a" }, new Object[] { 8, "h" },
+                new Object[] { 3, "c" }, new Object[] { 0, "z" },
+                new Object[] { 9, "i" }, new Object[] { 2, "b" });
+        read.setPartition(4);
+
+        RowBatch emptied = router.publish(read);
+        assertEquals(0, emptied.size());
+        router.complete();
+
+        BatchQueue[] routes = router.getRoutes();
+        // keys 0 to 4 to the first writer in batches of 3 rows at most
+        assertRoute(routes[0], new int[] { 0, 1, 3 }, new int[] { 2 });
+        assertRoute(routes[1], new int[] { 7, 8, 9 });
+    }
+
+    private static void assertRoute(BatchQueue route, int[]... batches)
+            throws InterruptedException {
+        for (int[] keys : batches) {
+            RowBatch batch = route.take(null);
+            assertEquals(4, batch.getPartition());
+            assertEquals(keys.length, batch.size());
+            for (int row = 0; row < keys.length; row++) {
+                assertEquals(keys[row], batch.getInt(row, 0));
+            }
+        }
+        assertNull(route.take(null));
+    }
+}
@@ -0,0 +1,180 @@
+package com.vin.bcp.queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vin.bcp.dao.RowBatch;
+import com.vin.bcp.dao.Rows;
+
+public class SpillFileTest {
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("bcp-spill-test-");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    private long segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    // a batch of one integer column, of 20 bytes of header, 8 bytes of
+    // nulls per 64 rows and 4 bytes per row
+    private static RowBatch record(int value, int rows) throws Exception {
+        Object[][] values = new Object[rows][];
+        for (int i = 0; i < rows; i++) {
+            values[i] = new Object[] { value };
+        }
+        return Rows.batch(new int[] { Types.INTEGER }, rows, null, values);
+    }
+
+    private static void assertRecord(int value, int rows, RowBatch batch) {
+        assertEquals(rows, batch.size());
+        for (int row = 0; row < rows; row++) {
+            assertEquals(value, batch.getInt(row, 0));
+        }
+    }
+
+    @Test
+    public void recordsRollOverToNewSegments() throws Exception {
+        // two records of 32 bytes with their header fit a segment
+        SpillFile spill = new SpillFile(dir, 100);
+        for (int i = 0; i < 6; i++) {
+            spill.append(record(i, 1));
+        }
+        assertEquals(6, spill.size());
+        assertEquals(192, spill.getBytes());
+        assertEquals(3, segments());
+
+        for (int i = 0; i < 6; i++) {
+            assertRecord(i, 1, spill.poll(null));
+        }
+        assertNull(spill.poll(null));
+        assertEquals(0, spill.size());
+        // read segments are deleted, the last one is still appended to
+        assertEquals(1, segments());
+
+        spill.close();
+        assertEquals(0, segments());
+    }
+
+    @Test
+    public void segmentIsDeletedOnceReadToItsEnd() throws Exception {
+        SpillFile spill = new SpillFile(dir, 100);
+        spill.append(record(1, 1));
+        spill.append(record(2, 1));
+        spill.append(record(3, 1));
+        assertEquals(2, segments());
+
+        spill.poll(null);
+        assertEquals(2, segments());
+        spill.poll(null);
+        assertEquals(1, segments());
+
+        // appended after the reads, in the segment still open
+        spill.append(record(4, 1));
+        assertRecord(3, 1, spill.poll(null));
+        assertRecord(4, 1, spill.poll(null));
+        spill.close();
+    }
+
+    @Test
+    public void recordLargerThanASegmentHasASegmentOfItsOwn()
+            throws Exception {
+        SpillFile spill = new SpillFile(dir, 100);
+        spill.append(record(1, 1));
+        spill.append(record(2, 100));
+        spill.append(record(3, 1));
+        assertEquals(3, segments());
+
+        assertRecord(1, 1, spill.poll(null));
+        assertRecord(2, 100, spill.poll(null));
+        assertRecord(3, 1, spill.poll(null));
+        spill.close();
+        assertEquals(0, segments());
+    }
+
+    @Test
+    public void threadsAppendAndReadEveryRecordOnce() throws Exception {
+        final SpillFile spill = new SpillFile(dir, 1024);
+        final int threads = 4;
+        final int perThread = 500;
+        final AtomicInteger sum = new AtomicInteger();
+        final AtomicInteger read = new AtomicInteger();
+        final CountDownLatch written = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(2 * threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int first = t * perThread;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = first; i < first + perThread; i++) {
+                        spill.append(record(i, 1 + i % 70));
+                    }
+                    written.countDown();
+                    return null;
+                }
+            }));
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    while (true) {
+                        boolean done = written.getCount() == 0;
+                        RowBatch batch = spill.poll(null);
+                        if (batch != null) {
+                            int value = batch.getInt(0, 0);
+                            assertRecord(value, 1 + value % 70, batch);
+                            sum.addAndGet(value);
+                            read.incrementAndGet();
+                        } else if (done) {
+                            return null;
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        int records = threads * perThread;
+        assertEquals(records, read.get());
+        assertEquals(records * (records - 1) / 2, sum.get());
+        assertEquals(0, spill.size());
+        assertEquals(1, segments());
+        spill.close();
+        assertEquals(0, segments());
+    }
+}
@@ -0,0 +1,145 @@
+package com.vin.bcp.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointJournalTest {
+    private static final List<String> PLAN = Arrays.asList("ID < 10",
+            "ID >= 10", null);
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("bcp-journal-", ".log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private CheckpointJournal open(boolean resume) {
+        return new CheckpointJournal(file.toString(), "SRC", "TGT", resume);
+    }
+
+    @Test
+    public void partitionIsDoneOnceAllRowsReadAreCommitted() {
+        CheckpointJournal journal = open(false);
+        journal.writePlan(PLAN);
+        journal.partitionStarted(0);
+        journal.batchCommitted(0, 5);
+        journal.partitionRead(0, 8);
+        assertFalse(journal.isDone(0));
+        assertTrue(journal.isPartiallyCommitted(0));
+        journal.batchCommitted(0, 3);
+        assertTrue(journal.isDone(0));
+        assertFalse(journal.isPartiallyCommitted(0));
+        journal.close();
+    }
+
+    @Test
+    public void resumeLoadsThePlanAndTheProgress() {
+        CheckpointJournal journal = open(false);
+        journal.writePlan(PLAN);
+        journal.partitionStarted(0);
+        journal.batchCommitted(0, 4);
+        journal.partitionRead(0, 4);
+        journal.partitionStarted(1);
+        journal.batchCommitted(1, 2);
+        journal.close();
+
+        journal = open(true);
+        assertEquals(PLAN, journal.getPlan());
+        assertNull(journal.getPlan().get(2));
+        assertTrue(journal.isDone(0));
+        assertFalse(journal.isDone(1));
+        assertTrue(journal.isPartiallyCommitted(1));
+        assertFalse(journal.isPartiallyCommitted(2));
+        journal.close();
+    }
+
+    @Test
+    public void resumeIgnoresALineTornByACrash() throws IOException {
+        CheckpointJournal journal = open(false);
+        journal.writePlan(PLAN);
+        journal.partitionStarted(2);
+        journal.batchCommitted(2, 3);
+        journal.close();
+        Files.write(file, "BATCH\t2\t".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        journal = open(true);
+        assertEquals(PLAN, journal.getPlan());
+        assertTrue(journal.isPartiallyCommitted(2));
+        // a record appended after the torn line is not lost with it
+        journal.reset(2);
+        journal.close();
+
+        journal = open(true);
+        assertFalse(journal.isPartiallyCommitted(2));
+        journal.partitionStarted(2);
+        journal.batchCommitted(2, 6);
+        journal.partitionRead(2, 6);
+        journal.close();
+
+        journal = open(true);
+        assertTrue(journal.isDone(2));
+        journal.close();
+    }
+
+    @Test
+    public void resetForgetsThePartition() {
+        CheckpointJournal journal = open(false);
+        journal.writePlan(PLAN);
+        journal.partitionStarted(1);
+        journal.batchCommitted(1, 2);
+        journal.reset(1);
+        assertFalse(journal.isPartiallyCommitted(1));
+        journal.close();
+
+        journal = open(true);
+        assertFalse(journal.isPartiallyCommitted(1));
+        assertFalse(journal.isDone(1));
+        journal.close();
+    }
+
+    @Test
+    public void newJournalStartsEmpty() {
+        CheckpointJournal journal = open(false);
+        journal.writePlan(PLAN);
+        journal.partitionStarted(0);
+        journal.close();
+
+        journal = open(false);
+        assertTrue(journal.getPlan().isEmpty());
+        assertFalse(journal.isPartiallyCommitted(0));
+        journal.close();
+    }
+
+    @Test
+    public void journalOfAnotherJobIsRefused() {
+        open(false).close();
+        try {
+            new CheckpointJournal(file.toString(), "SRC", "OTHER", true);
+            fail("journal of another job was loaded");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("another job"));
+        }
+    }
+}